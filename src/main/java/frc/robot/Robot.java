@@ -20,6 +20,7 @@ import org.littletonrobotics.junction.wpilog.WPILOGWriter;
 public class Robot extends LoggedRobot {
     private static final RobotMode JAVA_SIM_MODE = RobotMode.SIM;
     public static final RobotMode CURRENT_ROBOT_MODE = isReal() ? RobotMode.REAL : JAVA_SIM_MODE;
+    private static double mainLoopCPUTimeSeconds = 0;
     private Command autonomousCommand;
     private RobotContainer robotContainer;
 
@@ -76,8 +77,15 @@ public class Robot extends LoggedRobot {
     /** This function is called periodically during all modes. */
     @Override
     public void robotPeriodic() {
+        final long t0 = System.nanoTime();
         MapleSubsystem.checkForOnDisableAndEnable();
         CommandScheduler.getInstance().run();
+        mainLoopCPUTimeSeconds = (System.nanoTime() - t0) / 1_000_000_000.0;
+    }
+
+    /** @return the time spent running the subsystems and commands during the previous robot period */
+    public static double getMainLoopCPUTimeSeconds() {
+        return mainLoopCPUTimeSeconds;
     }
 
     /** This function is called once when the robot is disabled. */
@@ -84,13 +84,14 @@ public class RobotContainer {
                 driveSimulation = null;
 
                 powerDistribution = new PowerDistribution(0, PowerDistribution.ModuleType.kCTRE);
+                final DriveIORegistry driveIORegistry = new DriveIORegistry();
                 drive = new SwerveDrive(
-                        SwerveDrive.DriveType.GENERIC,
-                        new GyroIOPigeon2(TunerConstants.DrivetrainConstants),
-                        new ModuleIOSpark(0),
-                        new ModuleIOSpark(1),
-                        new ModuleIOSpark(2),
-                        new ModuleIOSpark(3));
+                        driveIORegistry,
+                        new GyroIOPigeon2(driveIORegistry, TunerConstants.DrivetrainConstants),
+                        new ModuleIOSpark(driveIORegistry, 0),
+                        new ModuleIOSpark(driveIORegistry, 1),
+                        new ModuleIOSpark(driveIORegistry, 2),
+                        new ModuleIOSpark(driveIORegistry, 3));
 
                 aprilTagVision =
                         new AprilTagVision(new AprilTagVisionIOReal(camerasProperties), camerasProperties, drive);
@@ -126,8 +127,7 @@ public class RobotContainer {
                         backLeft = new ModuleIOSim(driveSimulation.getModules()[2]),
                         backRight = new ModuleIOSim(driveSimulation.getModules()[3]);
                 final GyroIOSim gyroIOSim = new GyroIOSim(driveSimulation.getGyroSimulation());
-                drive = new SwerveDrive(
-                        SwerveDrive.DriveType.GENERIC, gyroIOSim, frontLeft, frontRight, backLeft, backRight);
+                drive = new SwerveDrive(new DriveIORegistry(), gyroIOSim, frontLeft, frontRight, backLeft, backRight);
 
                 aprilTagVision = new AprilTagVision(
                         new ApriltagVisionIOSim(
@@ -147,7 +147,7 @@ public class RobotContainer {
                 powerDistribution = new PowerDistribution();
                 // Replayed robot, disable IO implementations
                 drive = new SwerveDrive(
-                        SwerveDrive.DriveType.GENERIC,
+                        new DriveIORegistry(),
                         (inputs) -> {},
                         (inputs) -> {},
                         (inputs) -> {},
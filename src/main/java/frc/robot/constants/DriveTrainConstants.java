@@ -87,8 +87,41 @@ public class DriveTrainConstants {
     public static final Supplier<GyroSimulation> gyroSimulationFactory = GyroSimulation.getPigeon2();
 
     /* dead configs, don't change them */
-    public static final int ODOMETRY_CACHE_CAPACITY = 10;
+    /* the odometry frequency, the governor adjusts it between the min and max at runtime if it's enabled */
     public static final double ODOMETRY_FREQUENCY = 250;
+    public static final double ODOMETRY_MIN_FREQUENCY = 100, ODOMETRY_MAX_FREQUENCY = 500;
+    /* the governor backs off above these loads, and speeds up below the lower ones */
+    public static final double ODOMETRY_GOVERNOR_CAN_UTILIZATION_HIGH = 0.8,
+            ODOMETRY_GOVERNOR_CAN_UTILIZATION_LOW = 0.6;
+    /* fractions of the robot period spent by the main loop */
+    public static final double ODOMETRY_GOVERNOR_LOOP_BUDGET_HIGH = 0.75, ODOMETRY_GOVERNOR_LOOP_BUDGET_LOW = 0.5;
+    /* the odometry thread caches up to 0.1 seconds (5 robot periods) of frames at the max frequency */
+    public static final int ODOMETRY_CACHE_CAPACITY = (int) Math.ceil(ODOMETRY_MAX_FREQUENCY * 0.1);
     public static final double ODOMETRY_WAIT_TIMEOUT_SECONDS = 0.02;
+    /* the odometry thread sleeps until this long before each deadline, and spin-waits the rest */
+    public static final double ODOMETRY_SPIN_WAIT_SECONDS = 0.0005;
+    /* the sparks do not time stamp their status frames, so they are polled faster to narrow down their arrival time */
+    public static final int ODOMETRY_REV_POLLS_PER_FRAME = 2;
+    /* the odometry health alerts fire below this fraction of the odometry frequency, or above this sample age */
+    public static final double ODOMETRY_STARVING_FREQUENCY_RATIO = 0.9;
+    public static final double ODOMETRY_STALE_SAMPLE_AGE_SECONDS = 0.06;
+    /*
+     * estimates the pose on the odometry thread on a real robot, instead of replaying the samples on the main thread
+     * note that log replays still run the estimation on the main thread, so the replayed pose can differ slightly
+     */
+    public static final boolean ODOMETRY_POSE_ESTIMATION_ON_THREAD = false;
+    /* adjusts the odometry frequency at runtime from the load of the CAN bus and the main loop, on a real robot */
+    public static final boolean ODOMETRY_FREQUENCY_GOVERNOR_ENABLED = false;
+    /* estimates the pose with the in-project MaplePoseEstimator instead of the WPILib SwerveDrivePoseEstimator */
+    public static final boolean USE_MAPLE_POSE_ESTIMATOR = false;
+    /* runs the module control loops on a dedicated thread after every odometry frame, on a real robot */
+    public static final boolean MODULE_CONTROL_ON_THREAD = false;
+    /* closes the module loops on the motor controllers, the RIO only sends the setpoints and the feedforward */
+    public static final boolean MODULE_CLOSED_LOOP_ON_CONTROLLER = false;
     public static final int SIMULATION_TICKS_IN_1_PERIOD = 5;
+    /* the motor outputs are only sent when they change, or at least this often (phoenix recommends under 50ms) */
+    public static final double MOTOR_OUTPUT_KEEP_ALIVE_SECONDS = 0.04;
+    public static final double DRIVE_VOLTAGE_OUTPUT_TOLERANCE = 0.01, STEER_POWER_OUTPUT_TOLERANCE = 0.001;
+    public static final double DRIVE_VELOCITY_SETPOINT_TOLERANCE_RPS = 0.002,
+            STEER_FACING_SETPOINT_TOLERANCE_ROTATIONS = 0.0005;
 }
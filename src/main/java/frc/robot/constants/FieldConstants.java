@@ -57,10 +57,13 @@ public class FieldConstants {
         return alliance.isPresent() && alliance.get().equals(DriverStation.Alliance.Red);
     }
 
+    private static final Rotation2d RED_DRIVER_STATION_FACING = new Rotation2d(Math.PI),
+            BLUE_DRIVER_STATION_FACING = new Rotation2d(0);
+
     public static Rotation2d getDriverStationFacing() {
         return switch (DriverStation.getAlliance().orElse(DriverStation.Alliance.Red)) {
-            case Red -> new Rotation2d(Math.PI);
-            case Blue -> new Rotation2d(0);
+            case Red -> RED_DRIVER_STATION_FACING;
+            case Blue -> BLUE_DRIVER_STATION_FACING;
         };
     }
 }
@@ -24,6 +24,13 @@ public class VisionConstants {
             ODOMETRY_TRANSLATIONAL_STANDARD_ERROR_METERS = 0.04,
             GYRO_ROTATIONAL_STANDARD_ERROR_RADIANS = Math.toRadians(0.3);
 
+    /*
+     * solves the frames of the cameras on this many worker threads, 0 to solve them on the main thread
+     * the results are joined in the order of the cameras, so they are the same in replay whatever this is set to
+     * the roboRIO has two cores, set it back to 0 if MapleMultiTagPoseEstimatorBenchmark shows no gain on the robot
+     */
+    public static final int VISION_SOLVER_THREADS = 2;
+
     public static final List<PhotonCameraProperties> photonVisionCameras = List.of(
             new PhotonCameraProperties(
                     "FrontCam",
@@ -0,0 +1,76 @@
+// By 5516 Iron Maple https://github.com/Shenzhen-Robotics-Alliance/
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.Optional;
+
+/**
+ * The pose estimator of the drivetrain, either the WPILib {@link SwerveDrivePoseEstimator} or the in-project
+ * {@link MaplePoseEstimator}.
+ */
+public interface DrivePoseEstimator {
+    /**
+     * Updates the estimation with the odometry.
+     *
+     * @param timeStamp the time stamp of the odometry sample, in seconds
+     * @param gyroAngle the raw angle of the gyro
+     * @param modulePositions the positions of the modules, the array can be reused by the caller after the call
+     */
+    void updateWithTime(double timeStamp, Rotation2d gyroAngle, SwerveModulePosition[] modulePositions);
+
+    /** Resets the estimated pose, the odometry history and the vision measurements. */
+    void resetPosition(Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d pose);
+
+    Pose2d getEstimatedPosition();
+
+    /**
+     * Adds a vision measurement, the estimation is corrected at the time of the measurement.
+     *
+     * @param visionRobotPose the pose of the robot measured by the vision
+     * @param timeStamp the time stamp of the measurement, in seconds
+     * @param standardDeviations the standard deviations of the measurement, x and y in meters and theta in radians
+     */
+    void addVisionMeasurement(Pose2d visionRobotPose, double timeStamp, Matrix<N3, N1> standardDeviations);
+
+    /**
+     * @param timeStamp the time stamp, in seconds, clamped to the odometry history
+     * @return the estimated pose at the time stamp, or empty if the odometry history is empty
+     */
+    Optional<Pose2d> getPoseAt(double timeStamp);
+
+    static DrivePoseEstimator of(SwerveDrivePoseEstimator poseEstimator) {
+        return new DrivePoseEstimator() {
+            @Override
+            public void updateWithTime(double timeStamp, Rotation2d gyroAngle, SwerveModulePosition[] modulePositions) {
+                poseEstimator.updateWithTime(timeStamp, gyroAngle, modulePositions);
+            }
+
+            @Override
+            public void resetPosition(Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d pose) {
+                poseEstimator.resetPosition(gyroAngle, modulePositions, pose);
+            }
+
+            @Override
+            public Pose2d getEstimatedPosition() {
+                return poseEstimator.getEstimatedPosition();
+            }
+
+            @Override
+            public void addVisionMeasurement(
+                    Pose2d visionRobotPose, double timeStamp, Matrix<N3, N1> standardDeviations) {
+                poseEstimator.addVisionMeasurement(visionRobotPose, timeStamp, standardDeviations);
+            }
+
+            @Override
+            public Optional<Pose2d> getPoseAt(double timeStamp) {
+                return poseEstimator.sampleAt(timeStamp);
+            }
+        };
+    }
+}
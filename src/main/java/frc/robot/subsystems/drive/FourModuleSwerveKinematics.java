@@ -0,0 +1,158 @@
+// By 5516 Iron Maple https://github.com/Shenzhen-Robotics-Alliance/
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+
+/**
+ * The kinematics of a swerve drive with exactly four modules, in closed form, equivalent to
+ * {@link SwerveDriveKinematics} with the center of rotation at the robot center.
+ *
+ * <p>The forward kinematics multiply by the pseudo-inverse of the inverse kinematics matrix, which is computed once
+ * from the module translations instead of going through the EJML matrices of WPILib. All the results are written to
+ * primitive arrays provided by the caller, so nothing is allocated.
+ *
+ * <p>The module vectors are interleaved, {@code [x0, y0, x1, y1, x2, y2, x3, y3]}, with x and y the robot-relative
+ * components of each module velocity (or displacement), in the order of the module translations.
+ *
+ * <p>Like {@link SwerveDriveKinematics}, the inverse kinematics remember the module headings, which are held while
+ * the requested speeds are zero, so an instance must not be shared between drives or threads. The forward kinematics
+ * hold no state.
+ */
+public final class FourModuleSwerveKinematics {
+    public static final int MODULES_COUNT = 4;
+    /* below this speed, the heading of a module is undefined and the previous one is held */
+    private static final double MODULE_STOPPED_SPEED_METERS_PER_SEC = 1e-6;
+
+    private final double[] modulesX = new double[MODULES_COUNT], modulesY = new double[MODULES_COUNT];
+    /* the rows of the pseudo-inverse, which give vx, vy and omega from the interleaved module vectors */
+    private final double[] vxCoefficients = new double[MODULES_COUNT * 2],
+            vyCoefficients = new double[MODULES_COUNT * 2],
+            omegaCoefficients = new double[MODULES_COUNT * 2];
+    private final double[] moduleHeadingsRad = new double[MODULES_COUNT];
+
+    /** @param moduleTranslations the translations of the four modules to the robot center */
+    public FourModuleSwerveKinematics(Translation2d... moduleTranslations) {
+        if (moduleTranslations.length != MODULES_COUNT)
+            throw new IllegalArgumentException(
+                    "expected " + MODULES_COUNT + " modules, got " + moduleTranslations.length);
+
+        double sumX = 0, sumY = 0, sumSquaredNorms = 0;
+        for (int i = 0; i < MODULES_COUNT; i++) {
+            modulesX[i] = moduleTranslations[i].getX();
+            modulesY[i] = moduleTranslations[i].getY();
+            sumX += modulesX[i];
+            sumY += modulesY[i];
+            sumSquaredNorms += modulesX[i] * modulesX[i] + modulesY[i] * modulesY[i];
+        }
+
+        /*
+         * the rows of the inverse kinematics matrix A are [1, 0, -y] and [0, 1, x] for each module, its pseudo-inverse
+         * is (A^T A)^-1 A^T, with A^T A = [[n, 0, -sumY], [0, n, sumX], [-sumY, sumX, sumSquaredNorms]]
+         */
+        final double[][] normalInverse = invertSymmetric3x3(
+                MODULES_COUNT, 0, -sumY, MODULES_COUNT, sumX, sumSquaredNorms);
+        final double[][] rows = {vxCoefficients, vyCoefficients, omegaCoefficients};
+        for (int row = 0; row < 3; row++)
+            for (int i = 0; i < MODULES_COUNT; i++) {
+                rows[row][2 * i] = normalInverse[row][0] - normalInverse[row][2] * modulesY[i];
+                rows[row][2 * i + 1] = normalInverse[row][1] + normalInverse[row][2] * modulesX[i];
+            }
+    }
+
+    /* inverts [[a, b, c], [b, d, e], [c, e, f]] with its adjugate */
+    private static double[][] invertSymmetric3x3(double a, double b, double c, double d, double e, double f) {
+        final double cofactorA = d * f - e * e, cofactorB = c * e - b * f, cofactorC = b * e - c * d;
+        final double determinant = a * cofactorA + b * cofactorB + c * cofactorC;
+        if (Math.abs(determinant) < 1e-12)
+            throw new IllegalArgumentException("the modules must not all be at the same translation");
+        final double cofactorD = a * f - c * c, cofactorE = b * c - a * e, cofactorF = a * d - b * b;
+        return new double[][] {
+            {cofactorA / determinant, cofactorB / determinant, cofactorC / determinant},
+            {cofactorB / determinant, cofactorD / determinant, cofactorE / determinant},
+            {cofactorC / determinant, cofactorE / determinant, cofactorF / determinant}
+        };
+    }
+
+    /**
+     * Calculates the module setpoints of robot-relative chassis speeds, like
+     * {@link SwerveDriveKinematics#toSwerveModuleStates}.
+     *
+     * @param speedsOut the speeds of the modules, in meters/second
+     * @param headingsRadOut the headings of the modules, in radians, in (-pi, pi]
+     */
+    public void toModuleStates(
+            double vxMetersPerSec,
+            double vyMetersPerSec,
+            double omegaRadPerSec,
+            double[] speedsOut,
+            double[] headingsRadOut) {
+        final boolean stopped = vxMetersPerSec == 0 && vyMetersPerSec == 0 && omegaRadPerSec == 0;
+        for (int i = 0; i < MODULES_COUNT; i++) {
+            final double moduleVx = vxMetersPerSec - omegaRadPerSec * modulesY[i],
+                    moduleVy = vyMetersPerSec + omegaRadPerSec * modulesX[i];
+            final double speed = stopped ? 0 : Math.hypot(moduleVx, moduleVy);
+            if (speed > MODULE_STOPPED_SPEED_METERS_PER_SEC) moduleHeadingsRad[i] = Math.atan2(moduleVy, moduleVx);
+            speedsOut[i] = speed;
+            headingsRadOut[i] = moduleHeadingsRad[i];
+        }
+    }
+
+    /**
+     * Resets the headings the modules hold while the requested speeds are zero, like
+     * {@link SwerveDriveKinematics#resetHeadings}.
+     */
+    public void resetHeadings(Rotation2d... moduleHeadings) {
+        for (int i = 0; i < MODULES_COUNT; i++) moduleHeadingsRad[i] = moduleHeadings[i].getRadians();
+    }
+
+    /**
+     * Scales the module speeds down so that none exceeds the maximum, like
+     * {@link SwerveDriveKinematics#desaturateWheelSpeeds(edu.wpi.first.math.kinematics.SwerveModuleState[], double)}.
+     */
+    public static void desaturate(double[] speeds, double maxSpeedMetersPerSec) {
+        double realMaxSpeed = 0;
+        for (int i = 0; i < MODULES_COUNT; i++) realMaxSpeed = Math.max(realMaxSpeed, Math.abs(speeds[i]));
+        if (realMaxSpeed <= maxSpeedMetersPerSec) return;
+        final double scale = maxSpeedMetersPerSec / realMaxSpeed;
+        for (int i = 0; i < MODULES_COUNT; i++) speeds[i] *= scale;
+    }
+
+    /**
+     * Sets the vector of a module, from its speed (or distance) and its facing.
+     *
+     * @param moduleVectors the interleaved module vectors to write to
+     */
+    public static void setModuleVector(double[] moduleVectors, int moduleIndex, double norm, Rotation2d facing) {
+        moduleVectors[2 * moduleIndex] = norm * facing.getCos();
+        moduleVectors[2 * moduleIndex + 1] = norm * facing.getSin();
+    }
+
+    /**
+     * Calculates the chassis motion from the module motions, in the least-squares sense.
+     *
+     * <p>With module velocities, the result is the robot-relative chassis speeds, like
+     * {@link SwerveDriveKinematics#toChassisSpeeds}; with module displacements, it is the twist of the robot, like
+     * {@link SwerveDriveKinematics#toTwist2d}.
+     *
+     * @param moduleVectors the interleaved module vectors
+     * @param chassisOut {@code [vx, vy, omega]}, or {@code [dx, dy, dtheta]}
+     */
+    public void toChassisMotion(double[] moduleVectors, double[] chassisOut) {
+        chassisOut[0] = dot(vxCoefficients, moduleVectors);
+        chassisOut[1] = dot(vyCoefficients, moduleVectors);
+        chassisOut[2] = dot(omegaCoefficients, moduleVectors);
+    }
+
+    /** Calculates only the rotation of {@link #toChassisMotion(double[], double[])}. */
+    public double toChassisRotation(double[] moduleVectors) {
+        return dot(omegaCoefficients, moduleVectors);
+    }
+
+    private static double dot(double[] coefficients, double[] moduleVectors) {
+        double sum = 0;
+        for (int i = 0; i < MODULES_COUNT * 2; i++) sum += coefficients[i] * moduleVectors[i];
+        return sum;
+    }
+}
@@ -12,16 +12,16 @@ import com.pathplanner.lib.pathfinding.Pathfinding;
 import com.pathplanner.lib.util.PathPlannerLogging;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.wpilibj2.command.Subsystem;
 import frc.robot.Robot;
 import frc.robot.constants.DriveTrainConstants;
 import frc.robot.constants.FieldConstants;
 import frc.robot.subsystems.vision.apriltags.MapleMultiTagPoseEstimator;
+import frc.robot.utils.ChassisHeadingController;
 import frc.robot.utils.LocalADStarAK;
+import java.util.Optional;
 import org.ironmaple.utils.FieldMirroringUtils;
-import org.ironmaple.utils.mathutils.MapleCommonMath;
 import org.littletonrobotics.junction.Logger;
 
 public interface HolonomicDriveSubsystem extends Subsystem {
@@ -51,6 +51,16 @@ public interface HolonomicDriveSubsystem extends Subsystem {
     default void addVisionMeasurement(
             MapleMultiTagPoseEstimator.RobotPoseEstimationResult poseEstimationResult, double timestamp) {}
 
+    /**
+     * Looks up the estimated pose in the past.
+     *
+     * @param timeStamp the time stamp, in seconds
+     * @return the estimated pose at the time stamp, or empty if the drive keeps no history
+     */
+    default Optional<Pose2d> getPoseAt(double timeStamp) {
+        return Optional.empty();
+    }
+
     /** @return the measured(actual) velocities of the chassis, robot-relative */
     ChassisSpeeds getMeasuredChassisSpeedsRobotRelative();
 
@@ -66,6 +76,9 @@ public interface HolonomicDriveSubsystem extends Subsystem {
 
     double getChassisMaxAngularAccelerationRadPerSecSq();
 
+    /** @return the controller that overrides the rotation of the chassis when a heading is requested */
+    ChassisHeadingController getHeadingController();
+
     default PathConstraints getChassisConstrains(double speedMultiplier) {
         return new PathConstraints(
                 getChassisMaxLinearVelocityMetersPerSec() * speedMultiplier,
@@ -80,11 +93,14 @@ public interface HolonomicDriveSubsystem extends Subsystem {
      * @param driverStationCentricSpeeds a continuous chassis speeds, driverstation-centric, normally from a gamepad
      */
     default void runDriverStationCentricChassisSpeeds(ChassisSpeeds driverStationCentricSpeeds, boolean discretize) {
-        final Rotation2d driverStationFacing = FieldConstants.getDriverStationFacing();
-        runRobotCentricChassisSpeeds(
-                ChassisSpeeds.fromFieldRelativeSpeeds(
-                        driverStationCentricSpeeds, getPose().getRotation().minus(driverStationFacing)),
-                discretize);
+        final Rotation2d driverStationFacing = FieldConstants.getDriverStationFacing(), robotFacing = getFacing();
+        /* the facing of the robot relative to the driver station, cos(a - b) and sin(a - b) */
+        final double
+                cos = robotFacing.getCos() * driverStationFacing.getCos()
+                        + robotFacing.getSin() * driverStationFacing.getSin(),
+                sin = robotFacing.getSin() * driverStationFacing.getCos()
+                        - robotFacing.getCos() * driverStationFacing.getSin();
+        runFieldCentricChassisSpeeds(driverStationCentricSpeeds, cos, sin, discretize);
     }
 
     /**
@@ -93,9 +109,18 @@ public interface HolonomicDriveSubsystem extends Subsystem {
      * @param fieldCentricSpeeds a continuous chassis speeds, field-centric, normally from a pid position controller
      */
     default void runFieldCentricChassisSpeeds(ChassisSpeeds fieldCentricSpeeds, boolean discretize) {
+        final Rotation2d robotFacing = getFacing();
+        runFieldCentricChassisSpeeds(fieldCentricSpeeds, robotFacing.getCos(), robotFacing.getSin(), discretize);
+    }
+
+    /* ChassisSpeeds.fromFieldRelativeSpeeds(), without the intermediate objects */
+    private void runFieldCentricChassisSpeeds(
+            ChassisSpeeds speeds, double robotAngleCos, double robotAngleSin, boolean discretize) {
         runRobotCentricChassisSpeeds(
-                ChassisSpeeds.fromFieldRelativeSpeeds(
-                        fieldCentricSpeeds, getPose().getRotation()),
+                new ChassisSpeeds(
+                        speeds.vxMetersPerSecond * robotAngleCos + speeds.vyMetersPerSecond * robotAngleSin,
+                        -speeds.vxMetersPerSecond * robotAngleSin + speeds.vyMetersPerSecond * robotAngleCos,
+                        speeds.omegaRadiansPerSecond),
                 discretize);
     }
 
@@ -159,24 +184,25 @@ public interface HolonomicDriveSubsystem extends Subsystem {
                 MAX_ANGULAR_ACCELERATION_RAD_PER_SEC_SQ =
                         getChassisMaxAngularVelocity() / ANGULAR_ACCELERATION_SMOOTH_OUT_SECONDS;
 
-        Translation2d
-                currentLinearVelocityMetersPerSec =
-                        new Translation2d(currentSpeeds.vxMetersPerSecond, currentSpeeds.vyMetersPerSecond),
-                desiredLinearVelocityMetersPerSec =
-                        new Translation2d(desiredSpeeds.vxMetersPerSecond, desiredSpeeds.vyMetersPerSecond),
-                linearVelocityDifference = desiredLinearVelocityMetersPerSec.minus(currentLinearVelocityMetersPerSec);
+        final double
+                linearVelocityDifferenceX = desiredSpeeds.vxMetersPerSecond - currentSpeeds.vxMetersPerSecond,
+                linearVelocityDifferenceY = desiredSpeeds.vyMetersPerSecond - currentSpeeds.vyMetersPerSecond,
+                linearVelocityDifferenceNorm = Math.hypot(linearVelocityDifferenceX, linearVelocityDifferenceY);
 
         final double maxLinearVelocityChangeIn1Period = MAX_LINEAR_ACCELERATION_METERS_PER_SEC_SQ * dtSecs;
         final boolean desiredLinearVelocityReachableWithin1Period =
-                linearVelocityDifference.getNorm() <= maxLinearVelocityChangeIn1Period;
-        final Translation2d
-                linearVelocityChangeVector =
-                        new Translation2d(
-                                maxLinearVelocityChangeIn1Period, MapleCommonMath.getAngle(linearVelocityDifference)),
-                newLinearVelocity =
+                linearVelocityDifferenceNorm <= maxLinearVelocityChangeIn1Period;
+        /* otherwise, the velocity changes by the max change, in the direction of the difference */
+        final double changeScale = maxLinearVelocityChangeIn1Period / linearVelocityDifferenceNorm;
+        final double
+                newLinearVelocityX =
+                        desiredLinearVelocityReachableWithin1Period
+                                ? desiredSpeeds.vxMetersPerSecond
+                                : currentSpeeds.vxMetersPerSecond + linearVelocityDifferenceX * changeScale,
+                newLinearVelocityY =
                         desiredLinearVelocityReachableWithin1Period
-                                ? desiredLinearVelocityMetersPerSec
-                                : currentLinearVelocityMetersPerSec.plus(linearVelocityChangeVector);
+                                ? desiredSpeeds.vyMetersPerSecond
+                                : currentSpeeds.vyMetersPerSecond + linearVelocityDifferenceY * changeScale;
 
         final double
                 angularVelocityDifference = desiredSpeeds.omegaRadiansPerSecond - currentSpeeds.omegaRadiansPerSecond,
@@ -187,6 +213,6 @@ public interface HolonomicDriveSubsystem extends Subsystem {
         final double newAngularVelocity = desiredAngularVelocityReachableWithin1Period
                 ? desiredSpeeds.omegaRadiansPerSecond
                 : currentSpeeds.omegaRadiansPerSecond + angularVelocityChange;
-        return new ChassisSpeeds(newLinearVelocity.getX(), newLinearVelocity.getY(), newAngularVelocity);
+        return new ChassisSpeeds(newLinearVelocityX, newLinearVelocityY, newAngularVelocity);
     }
 }
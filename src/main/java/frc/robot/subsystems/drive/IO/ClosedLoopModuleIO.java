@@ -0,0 +1,21 @@
+package frc.robot.subsystems.drive.IO;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/** A {@link ModuleIO} that can close the module loops on the motor controllers. */
+public interface ClosedLoopModuleIO extends ModuleIO {
+    /**
+     * Runs the drive motor in velocity closed loop, on the motor controller.
+     *
+     * @param wheelVelocityRevolutionsPerSec the velocity setpoint of the drive wheel
+     * @param feedforwardVolts the feedforward, added to the output of the controller
+     */
+    void requestDriveVelocity(double wheelVelocityRevolutionsPerSec, double feedforwardVolts);
+
+    /**
+     * Runs the steer motor in position closed loop, on the motor controller.
+     *
+     * @param steerFacing the facing setpoint of the steer
+     */
+    void requestSteerFacing(Rotation2d steerFacing);
+}
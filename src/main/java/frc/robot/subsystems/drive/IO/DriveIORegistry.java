@@ -0,0 +1,132 @@
+package frc.robot.subsystems.drive.IO;
+
+import static frc.robot.constants.DriveTrainConstants.*;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.revrobotics.REVLibError;
+import com.revrobotics.spark.SparkBase;
+import frc.robot.Robot;
+import frc.robot.constants.DriveTrainConstants;
+import frc.robot.subsystems.drive.MultiCANBusOdometryThread;
+import frc.robot.subsystems.drive.OdometryThreadReal;
+import frc.robot.subsystems.drive.IO.OdometryThread.OdometryInput;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The inputs of the IOs of one drivetrain: the odometry inputs, by CAN bus, and the periodically refreshed status
+ * signals.
+ *
+ * <p>Each drive has its own registry, which is passed to the constructors of its IOs and then to the drive itself.
+ * Nothing is shared between the drives, so several of them (e.g. simulated robots) can run in the same process.
+ */
+public final class DriveIORegistry {
+    /* the name of the CAN bus of the roboRIO, the devices that are not CTRE devices are all on this bus */
+    public static final String RIO_CAN_BUS_NAME = "rio";
+
+    /* the registered inputs and status signals, by the name of their CAN bus */
+    private final Map<String, List<OdometryInput>> registeredInputs = new LinkedHashMap<>();
+    private final Map<String, List<BaseStatusSignal>> registeredStatusSignals = new LinkedHashMap<>();
+    private final DriveStatusSignals driveStatusSignals = new DriveStatusSignals();
+
+    public OdometryInput registerSignalInput(String canBusName, BaseStatusSignal signal) {
+        return registerSignalInput(canBusName, signal, 0);
+    }
+
+    /**
+     * Registers a status signal as an odometry input.
+     *
+     * @param canBusName the name of the CAN bus of the device, as passed to its constructor
+     * @param signal the signal
+     * @param wrapPeriod the period at which the value wraps around (e.g. 1 for an absolute position in rotations), or 0
+     *     if it does not
+     */
+    public OdometryInput registerSignalInput(String canBusName, BaseStatusSignal signal, double wrapPeriod) {
+        signal.setUpdateFrequency(ODOMETRY_FREQUENCY, ODOMETRY_WAIT_TIMEOUT_SECONDS);
+        registeredStatusSignals
+                .computeIfAbsent(normalizeCANBusName(canBusName), name -> new ArrayList<>())
+                .add(signal);
+        return register(
+                canBusName,
+                new OdometryInput(signal::getValueAsDouble, new StatusSignalTimeStampEstimator(signal), wrapPeriod));
+    }
+
+    public OdometryInput registerInput(DoubleSupplier supplier) {
+        return register(
+                RIO_CAN_BUS_NAME, new OdometryInput(supplier, (value, currentTimeSeconds) -> currentTimeSeconds, 0));
+    }
+
+    /**
+     * Registers a value read from a REV spark as an odometry input, only the new status frames are sampled.
+     *
+     * <p>The status frame carrying the value must be sent at the odometry frequency, see
+     * {@link DriveTrainConstants#ODOMETRY_FREQUENCY}.
+     *
+     * <p>The error of a read is kept by the spark until the next call on it, from any thread. The odometry thread reads
+     * the value and checks its error while holding the lock of the spark, so the other threads must also hold it (with
+     * <code>synchronized (spark)</code>) whenever they use the spark.
+     *
+     * @param spark the spark that sends the value
+     * @param supplier the supplier of the value, e.g. the position of an encoder of the spark
+     */
+    public OdometryInput registerSparkInput(SparkBase spark, DoubleSupplier supplier) {
+        final DoubleSupplier checkedSupplier = () -> {
+            synchronized (spark) {
+                final double value = supplier.getAsDouble();
+                return spark.getLastError() == REVLibError.kOk ? value : Double.NaN;
+            }
+        };
+        return register(
+                RIO_CAN_BUS_NAME,
+                new OdometryInput(checkedSupplier, new SparkFrameTimeStampEstimator(1.0 / ODOMETRY_FREQUENCY), 0));
+    }
+
+    private OdometryInput register(String canBusName, OdometryInput odometryInput) {
+        registeredInputs
+                .computeIfAbsent(normalizeCANBusName(canBusName), name -> new ArrayList<>())
+                .add(odometryInput);
+        return odometryInput;
+    }
+
+    /* phoenix accepts both "" and "rio" for the bus of the roboRIO */
+    private static String normalizeCANBusName(String canBusName) {
+        return canBusName.isEmpty() ? RIO_CAN_BUS_NAME : canBusName;
+    }
+
+    /**
+     * Creates the odometry of the drivetrain, called by the drive once all the IOs are constructed.
+     *
+     * <p>On a real robot, one thread is started for each CAN bus.
+     *
+     * @see OdometryThreadReal#forCANBus(String, List, List, boolean)
+     * @see MultiCANBusOdometryThread
+     */
+    public OdometryThread createOdometryThread() {
+        return switch (Robot.CURRENT_ROBOT_MODE) {
+            case REAL -> {
+                final List<OdometryThreadReal> odometryThreads = new ArrayList<>();
+                for (String canBusName : registeredInputs.keySet())
+                    odometryThreads.add(OdometryThreadReal.forCANBus(
+                            canBusName,
+                            registeredInputs.get(canBusName),
+                            registeredStatusSignals.getOrDefault(canBusName, List.of()),
+                            registeredInputs.size() > 1));
+                yield switch (odometryThreads.size()) {
+                    case 0 -> inputs -> {};
+                    case 1 -> odometryThreads.get(0);
+                    default -> new MultiCANBusOdometryThread(odometryThreads);
+                };
+            }
+            case SIM -> new OdometryThread.OdometryThreadSim();
+            case REPLAY -> inputs -> {};
+        };
+    }
+
+    /** @return the status signals refreshed by the drive once per cycle */
+    public DriveStatusSignals getDriveStatusSignals() {
+        return driveStatusSignals;
+    }
+}
@@ -0,0 +1,37 @@
+package frc.robot.subsystems.drive.IO;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The non-odometry status signals of a drivetrain, refreshed together in one batch every cycle.
+ *
+ * <p>The IOs register their signals on construction, through the {@link DriveIORegistry} of the drive.
+ * {@link #refreshAll()} is called by the drive once per cycle, before the IOs update their inputs, which then only read
+ * the refreshed values. A device is considered connected if all of its signals are good after the refresh, see
+ * {@link BaseStatusSignal#isAllGood(BaseStatusSignal...)}.
+ */
+public final class DriveStatusSignals {
+    private final List<BaseStatusSignal> registeredSignals = new ArrayList<>();
+    private BaseStatusSignal[] signals = new BaseStatusSignal[0];
+
+    DriveStatusSignals() {}
+
+    /** Registers signals to the batch, called from the constructors of the IOs. */
+    public void register(BaseStatusSignal... statusSignals) {
+        registeredSignals.addAll(List.of(statusSignals));
+        signals = registeredSignals.toArray(new BaseStatusSignal[0]);
+    }
+
+    /**
+     * Refreshes all the registered signals with a single call, called from the main thread once per cycle.
+     *
+     * @return the status of the refresh, {@link StatusCode#OK} if there's nothing to refresh
+     */
+    public StatusCode refreshAll() {
+        if (signals.length == 0) return StatusCode.OK;
+        return BaseStatusSignal.refreshAll(signals);
+    }
+}
@@ -5,16 +5,54 @@
 package frc.robot.subsystems.drive.IO;
 
 import edu.wpi.first.math.geometry.Rotation2d;
-import org.littletonrobotics.junction.AutoLog;
+import frc.robot.utils.ArrayUtils;
+import java.util.Arrays;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.inputs.LoggableInputs;
 
 public interface GyroIO {
-    @AutoLog
-    class GyroIOInputs {
+    /**
+     * The inputs of a gyro.
+     *
+     * <p>The odometry array is filled in place, only the first {@link #odometrySamplesCount} values are valid. The logs
+     * get a copy of exactly that length, as the log table keeps a reference until it is written. The logs written
+     * before the yaw positions were primitive, with the {@link Rotation2d} array, are still read in replay.
+     */
+    class GyroIOInputs implements LoggableInputs {
         public boolean connected = false;
         public Rotation2d yawPosition = new Rotation2d();
-        public Rotation2d[] odometryYawPositions = new Rotation2d[] {};
+        public int odometrySamplesCount = 0;
+        public double[] odometryYawPositionsRad = new double[] {};
         public double yawVelocityRadPerSec = 0.0;
+
+        @Override
+        public void toLog(LogTable table) {
+            table.put("Connected", connected);
+            table.put("YawPosition", yawPosition);
+            table.put("OdometryYawPositionsRad", Arrays.copyOf(odometryYawPositionsRad, odometrySamplesCount));
+            table.put("YawVelocityRadPerSec", yawVelocityRadPerSec);
+        }
+
+        @Override
+        public void fromLog(LogTable table) {
+            connected = table.get("Connected", connected);
+            yawPosition = table.get("YawPosition", yawPosition);
+            odometryYawPositionsRad = table.get("OdometryYawPositionsRad") != null
+                    ? table.get("OdometryYawPositionsRad", new double[] {})
+                    : ArrayUtils.toRadians(table.get("OdometryYawPositions", new Rotation2d[] {}));
+            odometrySamplesCount = odometryYawPositionsRad.length;
+            yawVelocityRadPerSec = table.get("YawVelocityRadPerSec", yawVelocityRadPerSec);
+        }
     }
 
     void updateInputs(GyroIOInputs inputs);
+
+    /**
+     * Called from the odometry thread, by a {@link OdometryThread.FrameListener}.
+     *
+     * @return the yaw in the frame being captured, or <code>null</code> if it's not available
+     */
+    default Rotation2d getOdometryFrameYaw() {
+        return null;
+    }
 }
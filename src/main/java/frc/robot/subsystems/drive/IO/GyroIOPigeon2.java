@@ -5,6 +5,7 @@
 package frc.robot.subsystems.drive.IO;
 
 import static edu.wpi.first.units.Units.RadiansPerSecond;
+import static frc.robot.constants.DriveTrainConstants.ODOMETRY_WAIT_TIMEOUT_SECONDS;
 
 import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusSignal;
@@ -14,20 +15,26 @@ import com.ctre.phoenix6.swerve.SwerveDrivetrainConstants;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.units.measure.Angle;
 import edu.wpi.first.units.measure.AngularVelocity;
-import java.util.Queue;
+import frc.robot.utils.ArrayUtils;
+import frc.robot.utils.MapleTimeUtils;
 
 /** IO implementation for Pigeon2 */
 public class GyroIOPigeon2 implements GyroIO {
     private final Pigeon2 pigeon;
     private final StatusSignal<Angle> yaw;
-    private final Queue<Angle> yawPositionInput;
+    private final OdometryThread.OdometryInput yawPositionInput;
     private final StatusSignal<AngularVelocity> yawVelocity;
 
-    public GyroIOPigeon2(SwerveDrivetrainConstants drivetrainConstants) {
-        this(drivetrainConstants.Pigeon2Id, drivetrainConstants.CANBusName, drivetrainConstants.Pigeon2Configs);
+    public GyroIOPigeon2(DriveIORegistry registry, SwerveDrivetrainConstants drivetrainConstants) {
+        this(
+                registry,
+                drivetrainConstants.Pigeon2Id,
+                drivetrainConstants.CANBusName,
+                drivetrainConstants.Pigeon2Configs);
     }
 
-    public GyroIOPigeon2(int Pigeon2Id, String CANbusName, Pigeon2Configuration Pigeon2Configs) {
+    public GyroIOPigeon2(
+            DriveIORegistry registry, int Pigeon2Id, String CANbusName, Pigeon2Configuration Pigeon2Configs) {
         pigeon = new Pigeon2(Pigeon2Id, CANbusName);
         if (Pigeon2Configs != null) pigeon.getConfigurator().apply(Pigeon2Configs);
         else pigeon.getConfigurator().apply(new Pigeon2Configuration());
@@ -37,22 +44,33 @@ public class GyroIOPigeon2 implements GyroIO {
         yawVelocity = pigeon.getAngularVelocityZWorld();
 
         yawVelocity.setUpdateFrequency(100.0);
-        yawPositionInput = OdometryThread.registerSignalInput(pigeon.getYaw());
+        registry.getDriveStatusSignals().register(yawVelocity);
+        yawPositionInput = registry.registerSignalInput(CANbusName, pigeon.getYaw());
 
         pigeon.optimizeBusUtilization();
     }
 
     @Override
     public void updateInputs(GyroIOInputs inputs) {
-        inputs.connected = BaseStatusSignal.refreshAll(yawVelocity).isOK();
+        /* the signals are refreshed together with the rest of the drivetrain, see DriveStatusSignals */
+        inputs.connected = BaseStatusSignal.isAllGood(yawVelocity);
         inputs.yawVelocityRadPerSec = yawVelocity.getValue().in(RadiansPerSecond);
 
-        inputs.odometryYawPositions =
-                yawPositionInput.stream().map(Rotation2d::new).toArray(Rotation2d[]::new);
+        /* the yaw signal is in degrees */
+        final int samplesCount = inputs.odometrySamplesCount = yawPositionInput.getSamplesCount();
+        inputs.odometryYawPositionsRad = ArrayUtils.ensureCapacity(inputs.odometryYawPositionsRad, samplesCount);
+        for (int i = 0; i < samplesCount; i++)
+            inputs.odometryYawPositionsRad[i] = Math.toRadians(yawPositionInput.getSample(i));
 
-        yawPositionInput.clear();
+        if (samplesCount > 0)
+            inputs.yawPosition = Rotation2d.fromRadians(inputs.odometryYawPositionsRad[samplesCount - 1]);
+    }
 
-        if (inputs.odometryYawPositions.length > 0)
-            inputs.yawPosition = inputs.odometryYawPositions[inputs.odometryYawPositions.length - 1];
+    @Override
+    public Rotation2d getOdometryFrameYaw() {
+        /* the yaw is not updated if the gyro is disconnected */
+        final double yawAgeSeconds = MapleTimeUtils.getRealTimeSeconds() - yawPositionInput.getLatestCaptureTimeStamp();
+        if (!(yawAgeSeconds < ODOMETRY_WAIT_TIMEOUT_SECONDS)) return null;
+        return Rotation2d.fromDegrees(yawPositionInput.getFrameValue());
     }
 }
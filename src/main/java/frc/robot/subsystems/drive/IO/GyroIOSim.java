@@ -2,6 +2,8 @@ package frc.robot.subsystems.drive.IO;
 
 import static edu.wpi.first.units.Units.RadiansPerSecond;
 
+import edu.wpi.first.math.geometry.Rotation2d;
+import frc.robot.utils.ArrayUtils;
 import org.ironmaple.simulation.drivesims.GyroSimulation;
 
 public class GyroIOSim implements GyroIO {
@@ -14,7 +16,12 @@ public class GyroIOSim implements GyroIO {
     @Override
     public void updateInputs(GyroIOInputs inputs) {
         inputs.connected = true;
-        inputs.odometryYawPositions = gyroSimulation.getCachedGyroReadings();
+        final Rotation2d[] cachedGyroReadings = gyroSimulation.getCachedGyroReadings();
+        inputs.odometrySamplesCount = cachedGyroReadings.length;
+        inputs.odometryYawPositionsRad =
+                ArrayUtils.ensureCapacity(inputs.odometryYawPositionsRad, cachedGyroReadings.length);
+        for (int i = 0; i < cachedGyroReadings.length; i++)
+            inputs.odometryYawPositionsRad[i] = cachedGyroReadings[i].getRadians();
         inputs.yawPosition = gyroSimulation.getGyroReading();
         inputs.yawVelocityRadPerSec =
                 gyroSimulation.getMeasuredAngularVelocity().in(RadiansPerSecond);
@@ -6,11 +6,20 @@
 package frc.robot.subsystems.drive.IO;
 
 import edu.wpi.first.math.geometry.Rotation2d;
-import org.littletonrobotics.junction.AutoLog;
+import frc.robot.utils.ArrayUtils;
+import java.util.Arrays;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.inputs.LoggableInputs;
 
 public interface ModuleIO {
-    @AutoLog
-    class ModuleIOInputs {
+    /**
+     * The inputs of a module.
+     *
+     * <p>The odometry arrays are filled in place, only the first {@link #odometrySamplesCount} values are valid. The
+     * logs get copies of exactly that length, as the log table keeps a reference until it is written. The logs written
+     * before the steer positions were primitive, with the {@link Rotation2d} array, are still read in replay.
+     */
+    class ModuleIOInputs implements LoggableInputs {
         public double driveWheelFinalRevolutions = 0.0;
         public double driveWheelFinalVelocityRevolutionsPerSec = 0.0;
         public double driveMotorAppliedVolts = 0.0;
@@ -21,10 +30,47 @@ public interface ModuleIO {
         public double steerMotorAppliedVolts = 0.0;
         public double steerMotorCurrentAmps = 0.0;
 
+        public int odometrySamplesCount = 0;
         public double[] odometryDriveWheelRevolutions = new double[] {};
-        public Rotation2d[] odometrySteerPositions = new Rotation2d[] {};
+        public double[] odometrySteerPositionsRad = new double[] {};
 
         public boolean hardwareConnected = false;
+
+        @Override
+        public void toLog(LogTable table) {
+            table.put("DriveWheelFinalRevolutions", driveWheelFinalRevolutions);
+            table.put("DriveWheelFinalVelocityRevolutionsPerSec", driveWheelFinalVelocityRevolutionsPerSec);
+            table.put("DriveMotorAppliedVolts", driveMotorAppliedVolts);
+            table.put("DriveMotorCurrentAmps", driveMotorCurrentAmps);
+            table.put("SteerFacing", steerFacing);
+            table.put("SteerVelocityRadPerSec", steerVelocityRadPerSec);
+            table.put("SteerMotorAppliedVolts", steerMotorAppliedVolts);
+            table.put("SteerMotorCurrentAmps", steerMotorCurrentAmps);
+            table.put(
+                    "OdometryDriveWheelRevolutions",
+                    Arrays.copyOf(odometryDriveWheelRevolutions, odometrySamplesCount));
+            table.put("OdometrySteerPositionsRad", Arrays.copyOf(odometrySteerPositionsRad, odometrySamplesCount));
+            table.put("HardwareConnected", hardwareConnected);
+        }
+
+        @Override
+        public void fromLog(LogTable table) {
+            driveWheelFinalRevolutions = table.get("DriveWheelFinalRevolutions", driveWheelFinalRevolutions);
+            driveWheelFinalVelocityRevolutionsPerSec = table.get(
+                    "DriveWheelFinalVelocityRevolutionsPerSec", driveWheelFinalVelocityRevolutionsPerSec);
+            driveMotorAppliedVolts = table.get("DriveMotorAppliedVolts", driveMotorAppliedVolts);
+            driveMotorCurrentAmps = table.get("DriveMotorCurrentAmps", driveMotorCurrentAmps);
+            steerFacing = table.get("SteerFacing", steerFacing);
+            steerVelocityRadPerSec = table.get("SteerVelocityRadPerSec", steerVelocityRadPerSec);
+            steerMotorAppliedVolts = table.get("SteerMotorAppliedVolts", steerMotorAppliedVolts);
+            steerMotorCurrentAmps = table.get("SteerMotorCurrentAmps", steerMotorCurrentAmps);
+            odometryDriveWheelRevolutions = table.get("OdometryDriveWheelRevolutions", new double[] {});
+            odometrySteerPositionsRad = table.get("OdometrySteerPositionsRad") != null
+                    ? table.get("OdometrySteerPositionsRad", new double[] {})
+                    : ArrayUtils.toRadians(table.get("OdometrySteerPositions", new Rotation2d[] {}));
+            odometrySamplesCount = Math.min(odometryDriveWheelRevolutions.length, odometrySteerPositionsRad.length);
+            hardwareConnected = table.get("HardwareConnected", hardwareConnected);
+        }
     }
 
     /** Updates the inputs */
@@ -32,6 +78,29 @@ public interface ModuleIO {
 
     default void calibrate() {}
 
+    /** @return whether the IO can read the module position from the odometry frames, on the odometry thread */
+    default boolean supportsOdometryFrames() {
+        return false;
+    }
+
+    /**
+     * Called from the odometry thread, by a {@link OdometryThread.FrameListener}.
+     *
+     * @return the revolutions of the drive wheel in the frame being captured, or <code>NaN</code> if it's not available
+     */
+    default double getOdometryFrameDriveWheelRevolutions() {
+        return Double.NaN;
+    }
+
+    /**
+     * Called from the odometry thread, by a {@link OdometryThread.FrameListener}.
+     *
+     * @return the facing of the steer in the frame being captured, or <code>null</code> if it's not available
+     */
+    default Rotation2d getOdometryFrameSteerFacing() {
+        return null;
+    }
+
     /**
      * Run the drive motor at the specified percent speed.
      *
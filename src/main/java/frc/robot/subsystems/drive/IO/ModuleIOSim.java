@@ -6,8 +6,16 @@
 package frc.robot.subsystems.drive.IO;
 
 import static edu.wpi.first.units.Units.*;
+import static frc.robot.constants.DriveControlLoops.*;
+import static frc.robot.constants.DriveTrainConstants.WHEEL_RADIUS;
 
-import java.util.Arrays;
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.units.measure.Angle;
+import edu.wpi.first.units.measure.MutVoltage;
+import frc.robot.utils.ArrayUtils;
+import frc.robot.utils.CustomPIDs.MaplePIDController;
 import org.ironmaple.simulation.drivesims.SwerveModuleSimulation;
 import org.ironmaple.simulation.motorsims.ControlRequest;
 
@@ -17,8 +25,15 @@ import org.ironmaple.simulation.motorsims.ControlRequest;
  * <p>Uses two flywheel sims for the drive and turn motors, with the absolute position initialized to a random value.
  * The flywheel sims are not physically accurate, but provide a decent approximation for the behavior of the module.
  */
-public class ModuleIOSim implements ModuleIO {
+public class ModuleIOSim implements ClosedLoopModuleIO {
     private final SwerveModuleSimulation moduleSimulation;
+    /* the requests hold mutable voltages, so the same request objects are sent every time */
+    private final MutVoltage driveVoltage = Volts.mutable(0), steerVoltage = Volts.mutable(0);
+    private final ControlRequest.VoltageOut driveVoltageRequest = new ControlRequest.VoltageOut(driveVoltage),
+            steerVoltageRequest = new ControlRequest.VoltageOut(steerVoltage);
+    /* stand-ins for the closed loops of the motor controllers, with the same gains as the loops of the module */
+    private final PIDController driveVelocityCloseLoop = new MaplePIDController(DRIVE_CLOSE_LOOP),
+            steerFacingCloseLoop = new MaplePIDController(STEER_CLOSE_LOOP);
 
     public ModuleIOSim(SwerveModuleSimulation moduleSimulation) {
         this.moduleSimulation = moduleSimulation;
@@ -43,22 +58,47 @@ public class ModuleIOSim implements ModuleIO {
         inputs.steerMotorCurrentAmps =
                 moduleSimulation.getSteerMotorStatorCurrent().in(Amps);
 
-        inputs.odometryDriveWheelRevolutions = Arrays.stream(moduleSimulation.getCachedDriveWheelFinalPositions())
-                .mapToDouble(angle -> angle.in(Revolutions))
-                .toArray();
-        inputs.odometrySteerPositions = moduleSimulation.getCachedSteerAbsolutePositions();
+        final Angle[] cachedDriveWheelPositions = moduleSimulation.getCachedDriveWheelFinalPositions();
+        final Rotation2d[] cachedSteerPositions = moduleSimulation.getCachedSteerAbsolutePositions();
+        final int samplesCount = inputs.odometrySamplesCount =
+                Math.min(cachedDriveWheelPositions.length, cachedSteerPositions.length);
+        inputs.odometryDriveWheelRevolutions =
+                ArrayUtils.ensureCapacity(inputs.odometryDriveWheelRevolutions, samplesCount);
+        inputs.odometrySteerPositionsRad = ArrayUtils.ensureCapacity(inputs.odometrySteerPositionsRad, samplesCount);
+        for (int i = 0; i < samplesCount; i++) {
+            inputs.odometryDriveWheelRevolutions[i] = cachedDriveWheelPositions[i].in(Revolutions);
+            inputs.odometrySteerPositionsRad[i] = cachedSteerPositions[i].getRadians();
+        }
 
         inputs.hardwareConnected = true;
     }
 
     @Override
     public void setDriveVoltage(double volts) {
-        moduleSimulation.requestDriveControl(new ControlRequest.VoltageOut(Volts.of(volts)));
+        driveVoltage.mut_replace(volts, Volts);
+        moduleSimulation.requestDriveControl(driveVoltageRequest);
     }
 
     @Override
     public void setSteerPowerPercent(double powerPercent) {
-        moduleSimulation.requestSteerControl(
-                new ControlRequest.VoltageOut(Volts.of(12).times(powerPercent)));
+        steerVoltage.mut_replace(12 * powerPercent, Volts);
+        moduleSimulation.requestSteerControl(steerVoltageRequest);
+    }
+
+    @Override
+    public void requestDriveVelocity(double wheelVelocityRevolutionsPerSec, double feedforwardVolts) {
+        final double wheelRadiusMeters = WHEEL_RADIUS.in(Meters);
+        setDriveVoltage(feedforwardVolts
+                + driveVelocityCloseLoop.calculate(
+                        Units.rotationsToRadians(moduleSimulation.getDriveWheelFinalSpeed().in(RevolutionsPerSecond))
+                                * wheelRadiusMeters,
+                        Units.rotationsToRadians(wheelVelocityRevolutionsPerSec) * wheelRadiusMeters));
+    }
+
+    @Override
+    public void requestSteerFacing(Rotation2d steerFacing) {
+        steerFacingCloseLoop.setSetpoint(steerFacing.getRadians());
+        setSteerPowerPercent(steerFacingCloseLoop.calculate(
+                moduleSimulation.getSteerAbsoluteFacing().getRadians()));
     }
 }
@@ -6,21 +6,27 @@
 package frc.robot.subsystems.drive.IO;
 
 import static edu.wpi.first.units.Units.Degrees;
+import static edu.wpi.first.units.Units.Meters;
+import static frc.robot.constants.DriveControlLoops.*;
 import static frc.robot.constants.DriveTrainConstants.*;
 
 import com.ctre.phoenix6.hardware.CANcoder;
 import com.revrobotics.RelativeEncoder;
+import com.revrobotics.spark.ClosedLoopSlot;
 import com.revrobotics.spark.SparkBase;
+import com.revrobotics.spark.SparkClosedLoopController;
 import com.revrobotics.spark.SparkFlex;
 import com.revrobotics.spark.SparkLowLevel;
 import com.revrobotics.spark.SparkMax;
 import com.revrobotics.spark.config.SparkBaseConfig;
 import com.revrobotics.spark.config.SparkFlexConfig;
 import com.revrobotics.spark.config.SparkMaxConfig;
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.RobotController;
-import java.util.Queue;
+import frc.robot.utils.ArrayUtils;
+import frc.robot.utils.OutputChangeFilter;
 
 /**
  * Module IO implementation for SparkMax drive motor controller, SparkMax turn motor controller (NEO or NEO 550), and
@@ -33,10 +39,21 @@ import java.util.Queue;
  * will propel the robot forward) and copy the reported values from the absolute encoders using AdvantageScope. These
  * values are logged under "/Drive/ModuleX/TurnAbsolutePositionRad"
  */
-public class ModuleIOSpark implements ModuleIO {
+public class ModuleIOSpark implements ClosedLoopModuleIO {
     // Gear ratios for SDS MK4i L2, adjust as necessary
     private static final double DRIVE_GEAR_RATIO = (50.0 / 14.0) * (17.0 / 27.0) * (45.0 / 15.0);
     private static final double STEER_GEAR_RATIO = 150.0 / 7.0;
+    /*
+     * the gains of the onboard closed loops, converted from the loops that run on the RIO
+     * the sparks output duty cycle, from an error in RPM for the drive and in rotations of the motor for the steer
+     */
+    private static final double DRIVE_VELOCITY_KP = DRIVE_CLOSE_LOOP.Kp
+            / 12.0
+            * Units.rotationsToRadians(1)
+            * WHEEL_RADIUS.in(Meters)
+            / (60.0 * DRIVE_GEAR_RATIO);
+    private static final double STEER_POSITION_KP =
+            STEER_CLOSE_LOOP.Kp * Units.rotationsToRadians(1) / STEER_GEAR_RATIO;
 
     private final SparkFlex driveSparkFlex;
     private final SparkMax turnSparkMax;
@@ -44,13 +61,21 @@ public class ModuleIOSpark implements ModuleIO {
 
     private final RelativeEncoder driveEncoder;
     private final RelativeEncoder steerRelativeEncoder;
-    private final Queue<Double> drivePositionInput;
-    private final Queue<Double> steerRelativeEncoderPositionUngeared;
+    private final SparkClosedLoopController driveClosedLoop, steerClosedLoop;
+    private final OdometryThread.OdometryInput drivePositionInput;
+    private final OdometryThread.OdometryInput steerRelativeEncoderPositionUngeared;
 
     private final boolean isTurnMotorInverted = true;
+    private final OutputChangeFilter driveVoltageFilter =
+                    new OutputChangeFilter(DRIVE_VOLTAGE_OUTPUT_TOLERANCE, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS),
+            steerPowerFilter = new OutputChangeFilter(STEER_POWER_OUTPUT_TOLERANCE, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS),
+            driveVelocityFilter =
+                    new OutputChangeFilter(DRIVE_VELOCITY_SETPOINT_TOLERANCE_RPS, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS),
+            steerFacingFilter =
+                    new OutputChangeFilter(STEER_FACING_SETPOINT_TOLERANCE_ROTATIONS, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS);
     private final Rotation2d absoluteEncoderOffset;
 
-    public ModuleIOSpark(int index) {
+    public ModuleIOSpark(DriveIORegistry registry, int index) {
         switch (index) {
             case 0 -> {
                 driveSparkFlex = new SparkFlex(41, SparkLowLevel.MotorType.kBrushless);
@@ -81,13 +106,19 @@ public class ModuleIOSpark implements ModuleIO {
 
         driveEncoder = driveSparkFlex.getEncoder();
         steerRelativeEncoder = turnSparkMax.getEncoder();
+        driveClosedLoop = driveSparkFlex.getClosedLoopController();
+        steerClosedLoop = turnSparkMax.getClosedLoopController();
 
         SparkFlexConfig driveConfig = new SparkFlexConfig();
         SparkMaxConfig turnConfig = new SparkMaxConfig();
 
         driveConfig.smartCurrentLimit(40).voltageCompensation(12.0).idleMode(SparkBaseConfig.IdleMode.kBrake);
         driveConfig.encoder.quadratureMeasurementPeriod(10).quadratureAverageDepth(2);
-        driveConfig.signals.primaryEncoderPositionPeriodMs((int) (1000.0 / ODOMETRY_FREQUENCY));
+        driveConfig
+                .signals
+                .primaryEncoderPositionPeriodMs((int) (1000.0 / ODOMETRY_FREQUENCY))
+                .primaryEncoderPositionAlwaysOn(true);
+        driveConfig.closedLoop.pid(DRIVE_VELOCITY_KP, 0, 0);
 
         turnConfig
                 .inverted(isTurnMotorInverted)
@@ -95,66 +126,144 @@ public class ModuleIOSpark implements ModuleIO {
                 .voltageCompensation(12.0)
                 .idleMode(SparkBaseConfig.IdleMode.kBrake);
         turnConfig.encoder.quadratureMeasurementPeriod(10).quadratureAverageDepth(2);
-        driveConfig.signals.primaryEncoderPositionPeriodMs((int) (1000.0 / ODOMETRY_FREQUENCY));
+        /* the steer wraps around every rotation of the wheel, which is STEER_GEAR_RATIO rotations of the motor */
+        turnConfig
+                .closedLoop
+                .pid(STEER_POSITION_KP, 0, 0)
+                .positionWrappingEnabled(true)
+                .positionWrappingInputRange(0, STEER_GEAR_RATIO);
+        turnConfig
+                .signals
+                .primaryEncoderPositionPeriodMs((int) (1000.0 / ODOMETRY_FREQUENCY))
+                .primaryEncoderPositionAlwaysOn(true);
 
         driveSparkFlex.configure(
                 driveConfig, SparkBase.ResetMode.kResetSafeParameters, SparkBase.PersistMode.kPersistParameters);
         turnSparkMax.configure(
                 turnConfig, SparkBase.ResetMode.kResetSafeParameters, SparkBase.PersistMode.kPersistParameters);
 
-        this.drivePositionInput = OdometryThread.registerInput(driveEncoder::getPosition);
-        this.steerRelativeEncoderPositionUngeared = OdometryThread.registerInput(steerRelativeEncoder::getPosition);
+        this.drivePositionInput = registry.registerSparkInput(driveSparkFlex, driveEncoder::getPosition);
+        this.steerRelativeEncoderPositionUngeared =
+                registry.registerSparkInput(turnSparkMax, steerRelativeEncoder::getPosition);
     }
 
+    /*
+     * the sparks are also read by the odometry thread, which checks the error of its reads, so they are only used
+     * while holding their locks, see DriveIORegistry#registerSparkInput()
+     */
     @Override
     public void updateInputs(ModuleIOInputs inputs) {
-        inputs.driveWheelFinalRevolutions = driveEncoder.getPosition() / DRIVE_GEAR_RATIO;
-        final double RPM_TO_REVOLUTIONS_PER_SECOND = 1.0 / 60.0;
-        inputs.driveWheelFinalVelocityRevolutionsPerSec =
-                driveEncoder.getVelocity() / DRIVE_GEAR_RATIO * RPM_TO_REVOLUTIONS_PER_SECOND;
+        synchronized (driveSparkFlex) {
+            inputs.driveWheelFinalRevolutions = driveEncoder.getPosition() / DRIVE_GEAR_RATIO;
+            final double RPM_TO_REVOLUTIONS_PER_SECOND = 1.0 / 60.0;
+            inputs.driveWheelFinalVelocityRevolutionsPerSec =
+                    driveEncoder.getVelocity() / DRIVE_GEAR_RATIO * RPM_TO_REVOLUTIONS_PER_SECOND;
 
-        inputs.driveMotorAppliedVolts = driveSparkFlex.getAppliedOutput() * driveSparkFlex.getBusVoltage();
-        inputs.driveMotorCurrentAmps = driveSparkFlex.getOutputCurrent();
+            inputs.driveMotorAppliedVolts = driveSparkFlex.getAppliedOutput() * driveSparkFlex.getBusVoltage();
+            inputs.driveMotorCurrentAmps = driveSparkFlex.getOutputCurrent();
+        }
 
-        inputs.steerFacing = Rotation2d.fromRotations(steerRelativeEncoder.getPosition() / STEER_GEAR_RATIO)
-                .minus(steerRelativePositionEncoderOffset);
-        inputs.steerVelocityRadPerSec =
-                Units.rotationsPerMinuteToRadiansPerSecond(steerRelativeEncoder.getVelocity() / STEER_GEAR_RATIO);
-
-        inputs.steerMotorAppliedVolts = turnSparkMax.getAppliedOutput() * turnSparkMax.getBusVoltage();
-        inputs.steerMotorCurrentAmps = turnSparkMax.getOutputCurrent();
-
-        inputs.odometryDriveWheelRevolutions = drivePositionInput.stream()
-                .mapToDouble(value -> Units.rotationsToRadians(value) / DRIVE_GEAR_RATIO)
-                .toArray();
-        drivePositionInput.clear();
-        inputs.odometrySteerPositions = steerRelativeEncoderPositionUngeared.stream()
-                .map(value ->
-                        Rotation2d.fromRotations(value / STEER_GEAR_RATIO).minus(steerRelativePositionEncoderOffset))
-                .toArray(Rotation2d[]::new);
-        steerRelativeEncoderPositionUngeared.clear();
+        synchronized (turnSparkMax) {
+            inputs.steerFacing = Rotation2d.fromRotations(steerRelativeEncoder.getPosition() / STEER_GEAR_RATIO)
+                    .minus(steerRelativePositionEncoderOffset);
+            inputs.steerVelocityRadPerSec =
+                    Units.rotationsPerMinuteToRadiansPerSecond(steerRelativeEncoder.getVelocity() / STEER_GEAR_RATIO);
+
+            inputs.steerMotorAppliedVolts = turnSparkMax.getAppliedOutput() * turnSparkMax.getBusVoltage();
+            inputs.steerMotorCurrentAmps = turnSparkMax.getOutputCurrent();
+        }
+
+        final int samplesCount = inputs.odometrySamplesCount = drivePositionInput.getSamplesCount();
+        inputs.odometryDriveWheelRevolutions =
+                ArrayUtils.ensureCapacity(inputs.odometryDriveWheelRevolutions, samplesCount);
+        inputs.odometrySteerPositionsRad = ArrayUtils.ensureCapacity(inputs.odometrySteerPositionsRad, samplesCount);
+        final double steerOffsetRad = steerRelativePositionEncoderOffset.getRadians();
+        for (int i = 0; i < samplesCount; i++) {
+            inputs.odometryDriveWheelRevolutions[i] = drivePositionInput.getSample(i) / DRIVE_GEAR_RATIO;
+            inputs.odometrySteerPositionsRad[i] = Units.rotationsToRadians(
+                            steerRelativeEncoderPositionUngeared.getSample(i) / STEER_GEAR_RATIO)
+                    - steerOffsetRad;
+        }
     }
 
-    private Rotation2d steerRelativePositionEncoderOffset = new Rotation2d();
+    /* also read by the odometry thread */
+    private volatile Rotation2d steerRelativePositionEncoderOffset = new Rotation2d();
+
+    @Override
+    public boolean supportsOdometryFrames() {
+        return true;
+    }
+
+    @Override
+    public double getOdometryFrameDriveWheelRevolutions() {
+        return drivePositionInput.getFrameValue() / DRIVE_GEAR_RATIO;
+    }
+
+    @Override
+    public Rotation2d getOdometryFrameSteerFacing() {
+        return Rotation2d.fromRotations(steerRelativeEncoderPositionUngeared.getFrameValue() / STEER_GEAR_RATIO)
+                .minus(steerRelativePositionEncoderOffset);
+    }
 
     @Override
     public void calibrate() {
         final Rotation2d steerActualFacing = Rotation2d.fromDegrees(
                         cancoder.getPosition().getValue().in(Degrees))
                 .minus(absoluteEncoderOffset);
+        final double steerRelativeEncoderPosition;
+        synchronized (turnSparkMax) {
+            steerRelativeEncoderPosition = steerRelativeEncoder.getPosition();
+        }
         final Rotation2d relativeEncoderReportedFacing =
-                Rotation2d.fromRotations(steerRelativeEncoder.getPosition() / STEER_GEAR_RATIO);
+                Rotation2d.fromRotations(steerRelativeEncoderPosition / STEER_GEAR_RATIO);
         /* reported - offset = actual, so offset = reported - actual */
         steerRelativePositionEncoderOffset = relativeEncoderReportedFacing.minus(steerActualFacing);
     }
 
     @Override
     public void setDriveVoltage(double volts) {
-        driveSparkFlex.set(volts / RobotController.getBatteryVoltage());
+        if (!driveVoltageFilter.shouldSend(volts)) return;
+        final double dutyCycle = volts / RobotController.getBatteryVoltage();
+        synchronized (driveSparkFlex) {
+            driveSparkFlex.set(dutyCycle);
+        }
+        driveVelocityFilter.reset();
     }
 
     @Override
     public void setSteerPowerPercent(double powerPercent) {
-        turnSparkMax.set(powerPercent);
+        if (!steerPowerFilter.shouldSend(powerPercent)) return;
+        synchronized (turnSparkMax) {
+            turnSparkMax.set(powerPercent);
+        }
+        steerFacingFilter.reset();
+    }
+
+    @Override
+    public void requestDriveVelocity(double wheelVelocityRevolutionsPerSec, double feedforwardVolts) {
+        if (!driveVelocityFilter.shouldSend(wheelVelocityRevolutionsPerSec)) return;
+        synchronized (driveSparkFlex) {
+            driveClosedLoop.setReference(
+                    wheelVelocityRevolutionsPerSec * 60.0 * DRIVE_GEAR_RATIO,
+                    SparkBase.ControlType.kVelocity,
+                    ClosedLoopSlot.kSlot0,
+                    feedforwardVolts,
+                    SparkClosedLoopController.ArbFFUnits.kVoltage);
+        }
+        driveVoltageFilter.reset();
+    }
+
+    @Override
+    public void requestSteerFacing(Rotation2d steerFacing) {
+        if (!steerFacingFilter.shouldSend(steerFacing.getRotations())) return;
+        /* reported - offset = actual, so the relative encoder reports actual + offset */
+        final double steerMotorPositionSetpoint = MathUtil.inputModulus(
+                steerFacing.plus(steerRelativePositionEncoderOffset).getRotations() * STEER_GEAR_RATIO,
+                0,
+                STEER_GEAR_RATIO);
+        synchronized (turnSparkMax) {
+            steerClosedLoop.setReference(steerMotorPositionSetpoint, SparkBase.ControlType.kPosition);
+        }
+        steerPowerFilter.reset();
     }
 }
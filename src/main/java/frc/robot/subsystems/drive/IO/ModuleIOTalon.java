@@ -10,32 +10,38 @@ import static frc.robot.constants.DriveTrainConstants.*;
 
 import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.configs.Slot0Configs;
 import com.ctre.phoenix6.controls.DutyCycleOut;
+import com.ctre.phoenix6.controls.PositionVoltage;
+import com.ctre.phoenix6.controls.VelocityVoltage;
 import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.CANcoder;
 import com.ctre.phoenix6.hardware.TalonFX;
+import com.ctre.phoenix6.signals.FeedbackSensorSourceValue;
+import com.ctre.phoenix6.signals.InvertedValue;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import com.ctre.phoenix6.swerve.SwerveDrivetrainConstants;
 import com.ctre.phoenix6.swerve.SwerveModuleConstants;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.units.measure.Angle;
+import edu.wpi.first.math.util.Units;
 import edu.wpi.first.units.measure.AngularVelocity;
 import edu.wpi.first.units.measure.Current;
 import edu.wpi.first.units.measure.Voltage;
-import java.util.Queue;
+import frc.robot.utils.ArrayUtils;
+import frc.robot.utils.OutputChangeFilter;
 
-public class ModuleIOTalon implements ModuleIO {
+public class ModuleIOTalon implements ClosedLoopModuleIO {
     private final String name;
     private final TalonFX driveTalon;
     private final TalonFX steerTalon;
     private final CANcoder cancoder;
 
-    private final Queue<Angle> driveEncoderUngearedPosition;
+    private final OdometryThread.OdometryInput driveEncoderUngearedPosition;
     private final StatusSignal<AngularVelocity> driveEncoderUngearedVelocity;
     private final StatusSignal<Voltage> driveMotorAppliedVoltage;
     private final StatusSignal<Current> driveMotorCurrent;
 
-    private final Queue<Angle> steerEncoderAbsolutePosition;
+    private final OdometryThread.OdometryInput steerEncoderAbsolutePosition;
     private final StatusSignal<AngularVelocity> steerEncoderVelocity;
     private final StatusSignal<Voltage> steerMotorAppliedVolts;
     private final StatusSignal<Current> steerMotorCurrent;
@@ -44,8 +50,27 @@ public class ModuleIOTalon implements ModuleIO {
 
     private final double DRIVE_GEAR_RATIO;
 
+    /* the requests are only sent on change, so the periodic re-sending of phoenix is disabled */
+    private final VoltageOut driveVoltageRequest = new VoltageOut(0).withEnableFOC(false).withUpdateFreqHz(0);
+    private final DutyCycleOut steerPowerRequest = new DutyCycleOut(0).withEnableFOC(true).withUpdateFreqHz(0);
+    private final OutputChangeFilter driveVoltageFilter =
+                    new OutputChangeFilter(DRIVE_VOLTAGE_OUTPUT_TOLERANCE, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS),
+            steerPowerFilter = new OutputChangeFilter(STEER_POWER_OUTPUT_TOLERANCE, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS);
+    /* the closed loops run on the talons at 1 kHz, the velocity is in rotations of the motor per second */
+    private final VelocityVoltage driveVelocityRequest =
+            new VelocityVoltage(0).withEnableFOC(false).withUpdateFreqHz(0);
+    private final PositionVoltage steerPositionRequest =
+            new PositionVoltage(0).withEnableFOC(true).withUpdateFreqHz(0);
+    private final OutputChangeFilter driveVelocityFilter =
+                    new OutputChangeFilter(DRIVE_VELOCITY_SETPOINT_TOLERANCE_RPS, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS),
+            steerFacingFilter =
+                    new OutputChangeFilter(STEER_FACING_SETPOINT_TOLERANCE_ROTATIONS, MOTOR_OUTPUT_KEEP_ALIVE_SECONDS);
+
     public ModuleIOTalon(
-            SwerveDrivetrainConstants drivetrainConstants, SwerveModuleConstants moduleConstants, String name) {
+            DriveIORegistry registry,
+            SwerveDrivetrainConstants drivetrainConstants,
+            SwerveModuleConstants moduleConstants,
+            String name) {
         this.name = name;
         driveTalon = new TalonFX(moduleConstants.DriveMotorId, drivetrainConstants.CANBusName);
         steerTalon = new TalonFX(moduleConstants.SteerMotorId, drivetrainConstants.CANBusName);
@@ -54,12 +79,30 @@ public class ModuleIOTalon implements ModuleIO {
         var driveConfig = moduleConstants.DriveMotorInitialConfigs;
         driveConfig.CurrentLimits.StatorCurrentLimit = DRIVE_CURRENT_LIMIT.in(Amps);
         driveConfig.CurrentLimits.StatorCurrentLimitEnable = true;
+        /* the feedforward is calculated by the module, so only the feedback gains are used */
+        if (MODULE_CLOSED_LOOP_ON_CONTROLLER)
+            driveConfig.Slot0 = new Slot0Configs()
+                    .withKP(moduleConstants.DriveMotorGains.kP)
+                    .withKI(moduleConstants.DriveMotorGains.kI)
+                    .withKD(moduleConstants.DriveMotorGains.kD);
         driveTalon.getConfigurator().apply(driveConfig);
         driveTalon.setNeutralMode(NeutralModeValue.Brake);
 
         var steerConfig = moduleConstants.SteerMotorInitialConfigs;
         steerConfig.CurrentLimits.StatorCurrentLimit = STEER_CURRENT_LIMIT.in(Amps);
         steerConfig.CurrentLimits.StatorCurrentLimitEnable = true;
+        /* the positive direction of the steer motor must match the cancoder, whichever side closes the loop */
+        steerConfig.MotorOutput.Inverted = moduleConstants.SteerMotorInverted
+                ? InvertedValue.Clockwise_Positive
+                : InvertedValue.CounterClockwise_Positive;
+        /* the steer position is read from the cancoder, wrapped around every rotation of the steer */
+        if (MODULE_CLOSED_LOOP_ON_CONTROLLER) {
+            steerConfig.Slot0 = moduleConstants.SteerMotorGains;
+            steerConfig.Feedback.FeedbackRemoteSensorID = moduleConstants.CANcoderId;
+            steerConfig.Feedback.FeedbackSensorSource = FeedbackSensorSourceValue.RemoteCANcoder;
+            steerConfig.Feedback.RotorToSensorRatio = moduleConstants.SteerMotorGearRatio;
+            steerConfig.ClosedLoopGeneral.ContinuousWrap = true;
+        }
         steerTalon.getConfigurator().apply(steerConfig);
         steerTalon.setNeutralMode(NeutralModeValue.Brake);
 
@@ -67,12 +110,15 @@ public class ModuleIOTalon implements ModuleIO {
         encoderConfig.MagnetSensor.MagnetOffset = moduleConstants.CANcoderOffset;
         cancoder.getConfigurator().apply(encoderConfig);
 
-        driveEncoderUngearedPosition = OdometryThread.registerSignalInput(driveTalon.getPosition());
+        driveEncoderUngearedPosition =
+                registry.registerSignalInput(drivetrainConstants.CANBusName, driveTalon.getPosition());
         driveEncoderUngearedVelocity = driveTalon.getVelocity();
         driveMotorAppliedVoltage = driveTalon.getMotorVoltage();
         driveMotorCurrent = driveTalon.getStatorCurrent();
 
-        steerEncoderAbsolutePosition = OdometryThread.registerSignalInput(cancoder.getAbsolutePosition());
+        /* the absolute position wraps around every rotation */
+        steerEncoderAbsolutePosition =
+                registry.registerSignalInput(drivetrainConstants.CANBusName, cancoder.getAbsolutePosition(), 1.0);
         steerEncoderVelocity = cancoder.getVelocity();
         steerMotorAppliedVolts = steerTalon.getMotorVoltage();
         steerMotorCurrent = steerTalon.getStatorCurrent();
@@ -84,6 +130,7 @@ public class ModuleIOTalon implements ModuleIO {
         };
 
         BaseStatusSignal.setUpdateFrequencyForAll(50.0, periodicallyRefreshedSignals);
+        registry.getDriveStatusSignals().register(periodicallyRefreshedSignals);
         driveTalon.optimizeBusUtilization();
         steerTalon.optimizeBusUtilization();
 
@@ -92,22 +139,22 @@ public class ModuleIOTalon implements ModuleIO {
 
     @Override
     public void updateInputs(ModuleIOInputs inputs) {
-        inputs.hardwareConnected =
-                BaseStatusSignal.refreshAll(periodicallyRefreshedSignals).isOK();
-
-        inputs.odometryDriveWheelRevolutions = driveEncoderUngearedPosition.stream()
-                .mapToDouble(value -> value.in(Rotations) / DRIVE_GEAR_RATIO)
-                .toArray();
-        driveEncoderUngearedPosition.clear();
-        if (inputs.odometryDriveWheelRevolutions.length > 0)
-            inputs.driveWheelFinalRevolutions =
-                    inputs.odometryDriveWheelRevolutions[inputs.odometryDriveWheelRevolutions.length - 1];
-
-        inputs.odometrySteerPositions =
-                steerEncoderAbsolutePosition.stream().map(Rotation2d::new).toArray(Rotation2d[]::new);
-        steerEncoderAbsolutePosition.clear();
-        if (inputs.odometrySteerPositions.length > 0)
-            inputs.steerFacing = inputs.odometrySteerPositions[inputs.odometrySteerPositions.length - 1];
+        /* the signals are refreshed together with the rest of the drivetrain, see DriveStatusSignals */
+        inputs.hardwareConnected = BaseStatusSignal.isAllGood(periodicallyRefreshedSignals);
+
+        /* the position signals are in rotations */
+        final int samplesCount = inputs.odometrySamplesCount = driveEncoderUngearedPosition.getSamplesCount();
+        inputs.odometryDriveWheelRevolutions =
+                ArrayUtils.ensureCapacity(inputs.odometryDriveWheelRevolutions, samplesCount);
+        inputs.odometrySteerPositionsRad = ArrayUtils.ensureCapacity(inputs.odometrySteerPositionsRad, samplesCount);
+        for (int i = 0; i < samplesCount; i++) {
+            inputs.odometryDriveWheelRevolutions[i] = driveEncoderUngearedPosition.getSample(i) / DRIVE_GEAR_RATIO;
+            inputs.odometrySteerPositionsRad[i] = Units.rotationsToRadians(steerEncoderAbsolutePosition.getSample(i));
+        }
+        if (samplesCount > 0) {
+            inputs.driveWheelFinalRevolutions = inputs.odometryDriveWheelRevolutions[samplesCount - 1];
+            inputs.steerFacing = Rotation2d.fromRadians(inputs.odometrySteerPositionsRad[samplesCount - 1]);
+        }
 
         inputs.driveWheelFinalVelocityRevolutionsPerSec =
                 driveEncoderUngearedVelocity.getValue().in(RotationsPerSecond) / DRIVE_GEAR_RATIO;
@@ -119,14 +166,48 @@ public class ModuleIOTalon implements ModuleIO {
         inputs.steerMotorCurrentAmps = steerMotorCurrent.getValue().in(Amps);
     }
 
+    @Override
+    public boolean supportsOdometryFrames() {
+        return true;
+    }
+
+    @Override
+    public double getOdometryFrameDriveWheelRevolutions() {
+        return driveEncoderUngearedPosition.getFrameValue() / DRIVE_GEAR_RATIO;
+    }
+
+    @Override
+    public Rotation2d getOdometryFrameSteerFacing() {
+        return Rotation2d.fromRotations(steerEncoderAbsolutePosition.getFrameValue());
+    }
+
     @Override
     public void setDriveVoltage(double volts) {
-        final VoltageOut voltageOut = new VoltageOut(volts).withEnableFOC(false);
-        driveTalon.setControl(voltageOut);
+        if (!driveVoltageFilter.shouldSend(volts)) return;
+        driveTalon.setControl(driveVoltageRequest.withOutput(volts));
+        driveVelocityFilter.reset();
     }
 
     @Override
     public void setSteerPowerPercent(double powerPercent) {
-        steerTalon.setControl(new DutyCycleOut(powerPercent).withEnableFOC(true));
+        if (!steerPowerFilter.shouldSend(powerPercent)) return;
+        steerTalon.setControl(steerPowerRequest.withOutput(powerPercent));
+        steerFacingFilter.reset();
+    }
+
+    @Override
+    public void requestDriveVelocity(double wheelVelocityRevolutionsPerSec, double feedforwardVolts) {
+        if (!driveVelocityFilter.shouldSend(wheelVelocityRevolutionsPerSec)) return;
+        driveTalon.setControl(driveVelocityRequest
+                .withVelocity(wheelVelocityRevolutionsPerSec * DRIVE_GEAR_RATIO)
+                .withFeedForward(feedforwardVolts));
+        driveVoltageFilter.reset();
+    }
+
+    @Override
+    public void requestSteerFacing(Rotation2d steerFacing) {
+        if (!steerFacingFilter.shouldSend(steerFacing.getRotations())) return;
+        steerTalon.setControl(steerPositionRequest.withPosition(steerFacing.getRotations()));
+        steerPowerFilter.reset();
     }
 }
@@ -2,58 +2,194 @@ package frc.robot.subsystems.drive.IO;
 
 import static frc.robot.constants.DriveTrainConstants.*;
 
-import com.ctre.phoenix6.BaseStatusSignal;
-import com.ctre.phoenix6.StatusSignal;
+import edu.wpi.first.math.MathUtil;
 import frc.robot.Robot;
-import frc.robot.subsystems.drive.OdometryThreadReal;
-import frc.robot.subsystems.drive.SwerveDrive;
+import frc.robot.constants.DriveTrainConstants;
 import frc.robot.utils.MapleTimeUtils;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 import org.littletonrobotics.junction.AutoLog;
 
 public interface OdometryThread {
-    class OdometryInput<T> {
-        private final Supplier<T> supplier;
-        private final Queue<T> queue;
+    /**
+     * An input sampled by the odometry thread.
+     *
+     * <p>On every tick, the odometry thread captures all the inputs, each with its own capture time stamp, and then
+     * interpolates them to a common time stamp before writing them into one frame. In
+     * {@link #updateInputs(OdometryThreadInputs)}, the frames received are moved, on the main thread, to the sample
+     * arrays of the inputs, which the IO implementations read during the same cycle. All the inputs, as well as
+     * {@link OdometryThreadInputs#measurementTimeStamps}, always receive the same amount of samples.
+     */
+    final class OdometryInput {
+        private final DoubleSupplier supplier;
+        private final CaptureTimeStampEstimator captureTimeStampEstimator;
+        /* the period at which the value wraps around, or 0 if it does not */
+        private final double wrapPeriod;
+        private final double[] samples, samplesCaptureTimeStamps;
+        private int samplesCount = 0;
 
-        public OdometryInput(Supplier<T> signal) {
-            this.supplier = signal;
-            this.queue = new ArrayBlockingQueue<>(ODOMETRY_CACHE_CAPACITY);
+        /* accessed by the odometry thread only */
+        private double previousValue, previousCaptureTimeStamp = Double.NaN;
+        private double latestValue, latestCaptureTimeStamp = Double.NaN;
+        private double frameValue;
+
+        /* accessed by the main thread only, when the samples are re-sampled to the frames of another bus */
+        private double[] sourceSamples, sourceSamplesCaptureTimeStamps;
+        private double historyValue, historyTimeStamp = Double.NaN, historyCaptureTimeStamp;
+
+        /**
+         * @param supplier the supplier of the value
+         * @param captureTimeStampEstimator estimates when each value read from the supplier was measured
+         * @param wrapPeriod the period at which the value wraps around, or 0 if it does not
+         */
+        public OdometryInput(
+                DoubleSupplier supplier, CaptureTimeStampEstimator captureTimeStampEstimator, double wrapPeriod) {
+            this.supplier = supplier;
+            this.captureTimeStampEstimator = captureTimeStampEstimator;
+            this.wrapPeriod = wrapPeriod;
+            this.samples = new double[ODOMETRY_CACHE_CAPACITY];
+            this.samplesCaptureTimeStamps = new double[ODOMETRY_CACHE_CAPACITY];
         }
 
-        public void cacheInputToQueue() {
-            this.queue.offer(supplier.get());
+        /**
+         * Captures the current value, called from the odometry thread.
+         *
+         * @param currentTimeSeconds the current real time
+         * @return the time stamp at which the latest value was measured
+         */
+        public double capture(double currentTimeSeconds) {
+            final double value = supplier.getAsDouble(),
+                    captureTimeStamp = captureTimeStampEstimator.estimate(value, currentTimeSeconds);
+            /* not a new measurement, the input keeps its latest capture */
+            if (Double.isNaN(captureTimeStamp)) return latestCaptureTimeStamp;
+
+            previousValue = latestValue;
+            previousCaptureTimeStamp = latestCaptureTimeStamp;
+            latestValue = value;
+            latestCaptureTimeStamp = captureTimeStamp;
+            return latestCaptureTimeStamp;
         }
-    }
 
-    List<OdometryInput> registeredInputs = new ArrayList<>();
-    List<BaseStatusSignal> registeredStatusSignals = new ArrayList<>();
+        public double getLatestCaptureTimeStamp() {
+            return latestCaptureTimeStamp;
+        }
 
-    static <T> Queue<T> registerSignalInput(StatusSignal<T> signal) {
-        signal.setUpdateFrequency(ODOMETRY_FREQUENCY, ODOMETRY_WAIT_TIMEOUT_SECONDS);
-        registeredStatusSignals.add(signal);
-        return registerInput(signal.asSupplier());
-    }
+        /**
+         * Interpolates the value between the previous and the latest capture, called from the odometry thread.
+         *
+         * @param timeStamp the time stamp to interpolate to, clamped to the range of the two captures
+         * @return the value at the time stamp, which is also kept as the value of the current frame
+         */
+        public double interpolate(double timeStamp) {
+            final double captureInterval = latestCaptureTimeStamp - previousCaptureTimeStamp;
+            if (!(captureInterval > 0)) return frameValue = latestValue;
+
+            final double t = MathUtil.clamp((timeStamp - previousCaptureTimeStamp) / captureInterval, 0, 1);
+            return frameValue = interpolate(previousValue, latestValue, t);
+        }
+
+        private double interpolate(double startValue, double endValue, double t) {
+            double difference = endValue - startValue;
+            if (wrapPeriod > 0) difference -= wrapPeriod * Math.round(difference / wrapPeriod);
+            return startValue + difference * t;
+        }
+
+        /** @return the value in the frame being captured, called from the odometry thread (by a frame listener) */
+        public double getFrameValue() {
+            return frameValue;
+        }
+
+        /** Called from the main thread, the odometry thread drains the values to this array */
+        public double[] getSamplesBuffer() {
+            return samples;
+        }
+
+        /** Called from the main thread, the odometry thread drains the capture time stamps to this array */
+        public double[] getSamplesCaptureTimeStampsBuffer() {
+            return samplesCaptureTimeStamps;
+        }
+
+        /** Called from the main thread, after the frames are drained */
+        public void setSamplesCount(int samplesCount) {
+            this.samplesCount = samplesCount;
+        }
+
+        /**
+         * Re-samples the samples received this cycle to the time stamps of the frames of another CAN bus, called from
+         * the main thread after the frames are drained.
+         *
+         * <p>The values are interpolated between the two samples around each time stamp, the last sample of the
+         * previous cycle included, and held after the latest sample.
+         *
+         * @param sourceTimeStamps the time stamps of the samples received this cycle
+         * @param targetTimeStamps the time stamps to re-sample to, at most
+         *     {@link DriveTrainConstants#ODOMETRY_CACHE_CAPACITY} of them
+         * @return <code>false</code> if the input has never received any sample, the values are not valid in that case
+         */
+        public boolean resample(double[] sourceTimeStamps, double[] targetTimeStamps) {
+            final int sourceCount = Math.min(samplesCount, sourceTimeStamps.length);
+            if (sourceSamples == null) {
+                sourceSamples = new double[samples.length];
+                sourceSamplesCaptureTimeStamps = new double[samples.length];
+            }
+            System.arraycopy(samples, 0, sourceSamples, 0, sourceCount);
+            System.arraycopy(samplesCaptureTimeStamps, 0, sourceSamplesCaptureTimeStamps, 0, sourceCount);
+
+            int next = 0;
+            for (int i = 0; i < targetTimeStamps.length; i++) {
+                final double timeStamp = targetTimeStamps[i];
+                while (next < sourceCount && sourceTimeStamps[next] <= timeStamp) next++;
 
-    static <T> Queue<T> registerInput(Supplier<T> supplier) {
-        final OdometryInput odometryInput = new OdometryInput(supplier);
-        registeredInputs.add(odometryInput);
-        return odometryInput.queue;
+                final double previousTimeStamp = next == 0 ? historyTimeStamp : sourceTimeStamps[next - 1],
+                        previousValue = next == 0 ? historyValue : sourceSamples[next - 1],
+                        previousCaptureTimeStamp =
+                                next == 0 ? historyCaptureTimeStamp : sourceSamplesCaptureTimeStamps[next - 1];
+                if (next == sourceCount) {
+                    samples[i] = previousValue;
+                    samplesCaptureTimeStamps[i] = previousCaptureTimeStamp;
+                } else if (Double.isNaN(previousTimeStamp)) {
+                    samples[i] = sourceSamples[next];
+                    samplesCaptureTimeStamps[i] = sourceSamplesCaptureTimeStamps[next];
+                } else {
+                    final double t = (timeStamp - previousTimeStamp) / (sourceTimeStamps[next] - previousTimeStamp);
+                    samples[i] = interpolate(previousValue, sourceSamples[next], t);
+                    samplesCaptureTimeStamps[i] =
+                            t < 0.5 ? previousCaptureTimeStamp : sourceSamplesCaptureTimeStamps[next];
+                }
+            }
+
+            if (sourceCount > 0) {
+                historyValue = sourceSamples[sourceCount - 1];
+                historyTimeStamp = sourceTimeStamps[sourceCount - 1];
+                historyCaptureTimeStamp = sourceSamplesCaptureTimeStamps[sourceCount - 1];
+            }
+            samplesCount = targetTimeStamps.length;
+            return sourceCount > 0 || !Double.isNaN(historyTimeStamp);
+        }
+
+        /** @return the amount of samples received this cycle */
+        public int getSamplesCount() {
+            return samplesCount;
+        }
+
+        /** @return the value, interpolated to {@link OdometryThreadInputs#measurementTimeStamps}[index] */
+        public double getSample(int index) {
+            return samples[index];
+        }
+
+        /** @return the time stamp at which the hardware measured the value, before the interpolation */
+        public double getSampleCaptureTimeStamp(int index) {
+            return samplesCaptureTimeStamps[index];
+        }
     }
 
-    static OdometryThread createInstance(SwerveDrive.DriveType type) {
-        return switch (Robot.CURRENT_ROBOT_MODE) {
-            case REAL -> new OdometryThreadReal(
-                    type,
-                    registeredInputs.toArray(new OdometryInput[0]),
-                    registeredStatusSignals.toArray(new BaseStatusSignal[0]));
-            case SIM -> new OdometryThreadSim();
-            case REPLAY -> inputs -> {};
-        };
+    /** Estimates the time stamp at which the hardware measured a value, called from the odometry thread. */
+    interface CaptureTimeStampEstimator {
+        /**
+         * @param value the value just read from the hardware
+         * @param currentTimeSeconds the current real time
+         * @return the time stamp at which the value was measured, or NaN if it is not a new measurement
+         */
+        double estimate(double value, double currentTimeSeconds);
     }
 
     @AutoLog
@@ -63,11 +199,41 @@ public interface OdometryThread {
 
     void updateInputs(OdometryThreadInputs inputs);
 
+    /** Receives every frame as soon as it is captured, on the odometry thread. */
+    interface FrameListener {
+        /**
+         * Called from the odometry thread after a frame is captured, the values of the frame are available through
+         * {@link OdometryInput#getFrameValue()}.
+         *
+         * @param frameTimeStamp the time stamp of the frame
+         */
+        void onFrame(double frameTimeStamp);
+    }
+
+    /**
+     * Adds a listener that receives the frames on the odometry thread, must be called before {@link #start()}.
+     *
+     * @return whether the frames will be delivered, <code>false</code> if this odometry thread does not capture frames
+     */
+    default boolean addFrameListener(FrameListener frameListener) {
+        return false;
+    }
+
     default void start() {}
 
-    default void lockOdometry() {}
+    /**
+     * Adjusts the odometry frequency to the load of the CAN bus and the main loop, if
+     * {@link frc.robot.constants.DriveTrainConstants#ODOMETRY_FREQUENCY_GOVERNOR_ENABLED}, called from the main thread.
+     */
+    default void governFrequency() {}
 
-    default void unlockOdometry() {}
+    /** Logs the performance statistics of the thread, called from the main thread. */
+    default void logPerformance() {}
+
+    /** @return the total amount of frames discarded because the main thread did not fetch them in time */
+    default long getDroppedFramesCount() {
+        return 0;
+    }
 
     final class OdometryThreadSim implements OdometryThread {
         @Override
@@ -0,0 +1,40 @@
+package frc.robot.subsystems.drive.IO;
+
+/**
+ * Detects the new status frames of a REV spark, and estimates when they were measured.
+ *
+ * <p>The sparks do not time stamp their status frames, and reading a value only returns the latest frame received. A
+ * frame is considered new if its value changed since the previous read, or if a whole frame period has passed (the
+ * value of a still encoder does not change). The frame is assumed to have arrived halfway between the previous read
+ * and this one, so the error of the time stamp is at most half the polling period of the odometry thread.
+ *
+ * <p>The values read are NaN if the spark did not respond, see {@link DriveIORegistry#registerSparkInput}.
+ */
+final class SparkFrameTimeStampEstimator implements OdometryThread.CaptureTimeStampEstimator {
+    private final double framePeriodSeconds;
+
+    /* accessed by the odometry thread only */
+    private double previousValue = Double.NaN, previousReadTimeSeconds = Double.NaN;
+    private double latestFrameTimeStamp = Double.NEGATIVE_INFINITY;
+
+    SparkFrameTimeStampEstimator(double framePeriodSeconds) {
+        this.framePeriodSeconds = framePeriodSeconds;
+    }
+
+    @Override
+    public double estimate(double value, double currentTimeSeconds) {
+        final double previousReadTimeSeconds = this.previousReadTimeSeconds;
+        this.previousReadTimeSeconds = currentTimeSeconds;
+        /* the value is not valid if the spark did not respond */
+        if (Double.isNaN(value)) return Double.NaN;
+
+        final double frameTimeStamp = Double.isNaN(previousReadTimeSeconds)
+                ? currentTimeSeconds
+                : (previousReadTimeSeconds + currentTimeSeconds) / 2;
+        final boolean valueChanged = value != previousValue;
+        previousValue = value;
+        if (!valueChanged && frameTimeStamp - latestFrameTimeStamp < framePeriodSeconds) return Double.NaN;
+
+        return latestFrameTimeStamp = frameTimeStamp;
+    }
+}
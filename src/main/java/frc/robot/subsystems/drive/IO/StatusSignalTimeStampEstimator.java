@@ -0,0 +1,30 @@
+package frc.robot.subsystems.drive.IO;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+
+/**
+ * Detects the new frames of a CTRE status signal, and estimates when they were measured.
+ *
+ * <p>A frame is new if the time stamp of the signal advanced since the previous read, re-reading the same frame (e.g.
+ * when the signal is late, or the device is disconnected) is not a new measurement. The frame is measured the latency
+ * of the signal before the read, in the time base of the caller.
+ */
+final class StatusSignalTimeStampEstimator implements OdometryThread.CaptureTimeStampEstimator {
+    private final BaseStatusSignal signal;
+
+    /* accessed by the odometry thread only */
+    private double latestSignalTimeSeconds = Double.NaN;
+
+    StatusSignalTimeStampEstimator(BaseStatusSignal signal) {
+        this.signal = signal;
+    }
+
+    @Override
+    public double estimate(double value, double currentTimeSeconds) {
+        final double signalTimeSeconds = signal.getTimestamp().getTime();
+        if (signalTimeSeconds == latestSignalTimeSeconds) return Double.NaN;
+        latestSignalTimeSeconds = signalTimeSeconds;
+
+        return currentTimeSeconds - signal.getTimestamp().getLatency();
+    }
+}
@@ -0,0 +1,363 @@
+// By 5516 Iron Maple https://github.com/Shenzhen-Robotics-Alliance/
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.Optional;
+
+/**
+ * A pose estimator with the same model as the WPILib {@link edu.wpi.first.math.estimator.SwerveDrivePoseEstimator},
+ * keeping its history in fixed-capacity circular buffers of primitive doubles.
+ *
+ * <p>The odometry-only poses are recorded in a circular buffer spanning {@link #HISTORY_SECONDS}. Each vision
+ * measurement is fused with the estimation at its time stamp, found by binary search, and stored as a correction: the
+ * corrected pose together with the odometry pose at the same time. The current estimation is the latest correction,
+ * moved by the odometry since then, so later odometry samples are never replayed.
+ *
+ * <p>Not thread-safe, it must be confined to the thread that runs the estimation.
+ */
+public class MaplePoseEstimator implements DrivePoseEstimator {
+    public static final double HISTORY_SECONDS = 1.5;
+    private static final int HISTORY_CAPACITY = 1024, CORRECTIONS_CAPACITY = 512;
+
+    private final SwerveDriveKinematics kinematics;
+    private final double[] stateVariances = new double[3], visionGains = new double[3];
+
+    /* the odometry-only poses, circular */
+    private final double[] historyTimes, historyX, historyY, historyTheta;
+    private int historyStart = 0, historySize = 0;
+
+    /* the vision corrections sorted by time, circular: the corrected pose and the odometry pose at that time */
+    private final double[] correctionsTimes, correctedX, correctedY, correctedTheta;
+    private final double[] correctionsOdometryX, correctionsOdometryY, correctionsOdometryTheta;
+    private int correctionsStart = 0, correctionsSize = 0;
+
+    /* the odometry */
+    private final SwerveModulePosition[] previousModulePositions, moduleDeltas;
+    private double gyroOffsetRadians;
+    private double odometryX, odometryY, odometryTheta;
+
+    private Pose2d estimatedPose;
+    /* the results of the pose maths, to avoid allocating */
+    private double resultX, resultY, resultTheta;
+
+    /**
+     * @param kinematics the kinematics of the drivetrain
+     * @param gyroAngle the raw angle of the gyro
+     * @param modulePositions the positions of the modules
+     * @param initialPose the starting pose
+     * @param stateStandardDeviations the standard deviations of the odometry, x and y in meters and theta in radians
+     * @param visionStandardDeviations the default standard deviations of the vision measurements
+     */
+    public MaplePoseEstimator(
+            SwerveDriveKinematics kinematics,
+            Rotation2d gyroAngle,
+            SwerveModulePosition[] modulePositions,
+            Pose2d initialPose,
+            Matrix<N3, N1> stateStandardDeviations,
+            Matrix<N3, N1> visionStandardDeviations) {
+        this.kinematics = kinematics;
+        for (int i = 0; i < 3; i++)
+            stateVariances[i] = stateStandardDeviations.get(i, 0) * stateStandardDeviations.get(i, 0);
+        setVisionMeasurementStandardDeviations(visionStandardDeviations);
+
+        this.historyTimes = new double[HISTORY_CAPACITY];
+        this.historyX = new double[HISTORY_CAPACITY];
+        this.historyY = new double[HISTORY_CAPACITY];
+        this.historyTheta = new double[HISTORY_CAPACITY];
+
+        this.correctionsTimes = new double[CORRECTIONS_CAPACITY];
+        this.correctedX = new double[CORRECTIONS_CAPACITY];
+        this.correctedY = new double[CORRECTIONS_CAPACITY];
+        this.correctedTheta = new double[CORRECTIONS_CAPACITY];
+        this.correctionsOdometryX = new double[CORRECTIONS_CAPACITY];
+        this.correctionsOdometryY = new double[CORRECTIONS_CAPACITY];
+        this.correctionsOdometryTheta = new double[CORRECTIONS_CAPACITY];
+
+        this.previousModulePositions = new SwerveModulePosition[modulePositions.length];
+        this.moduleDeltas = new SwerveModulePosition[modulePositions.length];
+        for (int i = 0; i < modulePositions.length; i++) {
+            previousModulePositions[i] = new SwerveModulePosition();
+            moduleDeltas[i] = new SwerveModulePosition();
+        }
+
+        resetPosition(gyroAngle, modulePositions, initialPose);
+    }
+
+    /** Sets the vision standard deviations, the same way as the WPILib estimator computes its Kalman gains. */
+    private void setVisionMeasurementStandardDeviations(Matrix<N3, N1> visionStandardDeviations) {
+        for (int i = 0; i < 3; i++) {
+            final double visionVariance = visionStandardDeviations.get(i, 0) * visionStandardDeviations.get(i, 0);
+            visionGains[i] = stateVariances[i] == 0
+                    ? 0
+                    : stateVariances[i] / (stateVariances[i] + Math.sqrt(stateVariances[i] * visionVariance));
+        }
+    }
+
+    @Override
+    public void resetPosition(Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d pose) {
+        for (int i = 0; i < modulePositions.length; i++) {
+            previousModulePositions[i].distanceMeters = modulePositions[i].distanceMeters;
+            previousModulePositions[i].angle = modulePositions[i].angle;
+        }
+        gyroOffsetRadians = pose.getRotation().getRadians() - gyroAngle.getRadians();
+        odometryX = pose.getX();
+        odometryY = pose.getY();
+        odometryTheta = pose.getRotation().getRadians();
+
+        historySize = 0;
+        correctionsSize = 0;
+        estimatedPose = pose;
+    }
+
+    @Override
+    public void updateWithTime(double timeStamp, Rotation2d gyroAngle, SwerveModulePosition[] modulePositions) {
+        for (int i = 0; i < modulePositions.length; i++) {
+            moduleDeltas[i].distanceMeters =
+                    modulePositions[i].distanceMeters - previousModulePositions[i].distanceMeters;
+            moduleDeltas[i].angle = modulePositions[i].angle;
+            previousModulePositions[i].distanceMeters = modulePositions[i].distanceMeters;
+            previousModulePositions[i].angle = modulePositions[i].angle;
+        }
+        final Twist2d twist = kinematics.toTwist2d(moduleDeltas);
+
+        /* the rotation is measured by the gyro, like the WPILib odometry */
+        final double angle = gyroAngle.getRadians() + gyroOffsetRadians;
+        final double dTheta = MathUtil.angleModulus(angle - odometryTheta);
+        exp(odometryX, odometryY, odometryTheta, twist.dx, twist.dy, dTheta);
+        odometryX = resultX;
+        odometryY = resultY;
+        odometryTheta = angle;
+
+        recordHistory(timeStamp);
+        discardOldCorrections();
+        compensateWithLatestCorrection(odometryX, odometryY, odometryTheta, correctionsSize - 1);
+        estimatedPose = new Pose2d(resultX, resultY, Rotation2d.fromRadians(resultTheta));
+    }
+
+    private void recordHistory(double timeStamp) {
+        if (historySize > 0) {
+            final double latestTime = historyTimes[historyIndex(historySize - 1)];
+            if (timeStamp < latestTime) return;
+            /* same time stamp, the latest sample is overwritten */
+            if (timeStamp == latestTime) historySize--;
+        }
+        if (historySize == HISTORY_CAPACITY) {
+            historyStart = (historyStart + 1) % HISTORY_CAPACITY;
+            historySize--;
+        }
+        final int index = historyIndex(historySize++);
+        historyTimes[index] = timeStamp;
+        historyX[index] = odometryX;
+        historyY[index] = odometryY;
+        historyTheta[index] = odometryTheta;
+
+        /* the same condition as the WPILib TimeInterpolatableBuffer, so the same samples are kept */
+        while (historySize > 1 && timeStamp - historyTimes[historyStart] >= HISTORY_SECONDS) {
+            historyStart = (historyStart + 1) % HISTORY_CAPACITY;
+            historySize--;
+        }
+    }
+
+    /** Keeps the corrections within the history, plus the latest correction before it. */
+    private void discardOldCorrections() {
+        if (historySize == 0) return;
+        final double oldestTime = historyTimes[historyStart];
+        while (correctionsSize > 1 && correctionsTimes[correctionIndex(1)] <= oldestTime) {
+            correctionsStart = (correctionsStart + 1) % CORRECTIONS_CAPACITY;
+            correctionsSize--;
+        }
+    }
+
+    @Override
+    public Pose2d getEstimatedPosition() {
+        return estimatedPose;
+    }
+
+    @Override
+    public void addVisionMeasurement(Pose2d visionRobotPose, double timeStamp, Matrix<N3, N1> standardDeviations) {
+        setVisionMeasurementStandardDeviations(standardDeviations);
+        addVisionMeasurement(visionRobotPose, timeStamp);
+    }
+
+    private void addVisionMeasurement(Pose2d visionRobotPose, double timeStamp) {
+        if (historySize == 0) return;
+        final double latestTime = historyTimes[historyIndex(historySize - 1)];
+        if (timeStamp < latestTime - HISTORY_SECONDS) return;
+        discardOldCorrections();
+
+        sampleOdometry(timeStamp);
+        final double odometrySampleX = resultX, odometrySampleY = resultY, odometrySampleTheta = resultTheta;
+        final double clampedTimeStamp = MathUtil.clamp(timeStamp, historyTimes[historyStart], latestTime);
+        compensateWithLatestCorrection(
+                odometrySampleX, odometrySampleY, odometrySampleTheta, findLatestCorrectionBefore(clampedTimeStamp));
+        final double estimationX = resultX, estimationY = resultY, estimationTheta = resultTheta;
+
+        /* the twist from the estimation to the vision pose, scaled by the gains, like the WPILib estimator */
+        log(
+                estimationX,
+                estimationY,
+                estimationTheta,
+                visionRobotPose.getX(),
+                visionRobotPose.getY(),
+                visionRobotPose.getRotation().getRadians());
+        exp(
+                estimationX,
+                estimationY,
+                estimationTheta,
+                resultX * visionGains[0],
+                resultY * visionGains[1],
+                resultTheta * visionGains[2]);
+
+        /* the corrections after the measurement are based on the estimation before it, so they are discarded */
+        while (correctionsSize > 0 && correctionsTimes[correctionIndex(correctionsSize - 1)] >= timeStamp)
+            correctionsSize--;
+        if (correctionsSize == CORRECTIONS_CAPACITY) {
+            correctionsStart = (correctionsStart + 1) % CORRECTIONS_CAPACITY;
+            correctionsSize--;
+        }
+        final int index = correctionIndex(correctionsSize++);
+        correctionsTimes[index] = timeStamp;
+        correctedX[index] = resultX;
+        correctedY[index] = resultY;
+        correctedTheta[index] = resultTheta;
+        correctionsOdometryX[index] = odometrySampleX;
+        correctionsOdometryY[index] = odometrySampleY;
+        correctionsOdometryTheta[index] = odometrySampleTheta;
+
+        compensateWithLatestCorrection(odometryX, odometryY, odometryTheta, correctionsSize - 1);
+        estimatedPose = new Pose2d(resultX, resultY, Rotation2d.fromRadians(resultTheta));
+    }
+
+    @Override
+    public Optional<Pose2d> getPoseAt(double timeStamp) {
+        if (historySize == 0) return Optional.empty();
+        timeStamp = MathUtil.clamp(
+                timeStamp, historyTimes[historyStart], historyTimes[historyIndex(historySize - 1)]);
+        sampleOdometry(timeStamp);
+        compensateWithLatestCorrection(resultX, resultY, resultTheta, findLatestCorrectionBefore(timeStamp));
+        return Optional.of(new Pose2d(resultX, resultY, Rotation2d.fromRadians(resultTheta)));
+    }
+
+    /**
+     * Moves a correction by the odometry since the correction, the result is stored in {@link #resultX},
+     * {@link #resultY} and {@link #resultTheta}.
+     *
+     * @param correction the (logical) index of the correction, or -1 to return the odometry pose as-is
+     */
+    private void compensateWithLatestCorrection(double poseX, double poseY, double poseTheta, int correction) {
+        if (correction < 0) {
+            resultX = poseX;
+            resultY = poseY;
+            resultTheta = poseTheta;
+            return;
+        }
+        final int index = correctionIndex(correction);
+        relative(
+                correctionsOdometryX[index],
+                correctionsOdometryY[index],
+                correctionsOdometryTheta[index],
+                poseX,
+                poseY,
+                poseTheta);
+        plus(correctedX[index], correctedY[index], correctedTheta[index], resultX, resultY, resultTheta);
+    }
+
+    /** @return the (logical) index of the latest correction at or before the time stamp, or -1 if there is none */
+    private int findLatestCorrectionBefore(double timeStamp) {
+        int low = 0, high = correctionsSize - 1, found = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (correctionsTimes[correctionIndex(mid)] <= timeStamp) {
+                found = mid;
+                low = mid + 1;
+            } else high = mid - 1;
+        }
+        return found;
+    }
+
+    /**
+     * Interpolates the odometry history at the time stamp, clamped to the history, into the results. The poses are
+     * interpolated along the twist between them, like {@link Pose2d#interpolate(Pose2d, double)}.
+     */
+    private void sampleOdometry(double timeStamp) {
+        int low = 0, high = historySize - 1, before = 0;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (historyTimes[historyIndex(mid)] <= timeStamp) {
+                before = mid;
+                low = mid + 1;
+            } else high = mid - 1;
+        }
+
+        final int i0 = historyIndex(before), i1 = historyIndex(Math.min(before + 1, historySize - 1));
+        final double interval = historyTimes[i1] - historyTimes[i0];
+        final double t = interval > 0 ? (timeStamp - historyTimes[i0]) / interval : 0;
+        if (t <= 0 || t >= 1) {
+            final int index = t <= 0 ? i0 : i1;
+            resultX = historyX[index];
+            resultY = historyY[index];
+            resultTheta = historyTheta[index];
+            return;
+        }
+        log(historyX[i0], historyY[i0], historyTheta[i0], historyX[i1], historyY[i1], historyTheta[i1]);
+        exp(historyX[i0], historyY[i0], historyTheta[i0], resultX * t, resultY * t, resultTheta * t);
+    }
+
+    private int historyIndex(int logicalIndex) {
+        return (historyStart + logicalIndex) % HISTORY_CAPACITY;
+    }
+
+    private int correctionIndex(int logicalIndex) {
+        return (correctionsStart + logicalIndex) % CORRECTIONS_CAPACITY;
+    }
+
+    /** The transform from pose a to pose b, in the frame of pose a, into the results. */
+    private void relative(double ax, double ay, double aTheta, double bx, double by, double bTheta) {
+        final double cos = Math.cos(aTheta), sin = Math.sin(aTheta), dx = bx - ax, dy = by - ay;
+        resultX = cos * dx + sin * dy;
+        resultY = -sin * dx + cos * dy;
+        resultTheta = MathUtil.angleModulus(bTheta - aTheta);
+    }
+
+    /** Applies a transform, in the frame of the pose, to the pose, into the results. */
+    private void plus(double x, double y, double theta, double dx, double dy, double dTheta) {
+        final double cos = Math.cos(theta), sin = Math.sin(theta);
+        resultX = x + cos * dx - sin * dy;
+        resultY = y + sin * dx + cos * dy;
+        resultTheta = theta + dTheta;
+    }
+
+    /** The twist from pose a to pose b, the same as {@link Pose2d#log(Pose2d)}, into the results. */
+    private void log(double ax, double ay, double aTheta, double bx, double by, double bTheta) {
+        relative(ax, ay, aTheta, bx, by, bTheta);
+        final double dTheta = resultTheta, halfDTheta = dTheta / 2, cosMinusOne = Math.cos(dTheta) - 1;
+        final double halfThetaByTanOfHalfDTheta = Math.abs(cosMinusOne) < 1E-9
+                ? 1.0 - 1.0 / 12.0 * dTheta * dTheta
+                : -(halfDTheta * Math.sin(dTheta)) / cosMinusOne;
+        final double dx = resultX, dy = resultY;
+        resultX = halfThetaByTanOfHalfDTheta * dx + halfDTheta * dy;
+        resultY = -halfDTheta * dx + halfThetaByTanOfHalfDTheta * dy;
+    }
+
+    /** Applies a twist to the pose, the same as {@link Pose2d#exp(Twist2d)}, into the results. */
+    private void exp(double x, double y, double theta, double dx, double dy, double dTheta) {
+        final double sinTheta = Math.sin(dTheta), cosTheta = Math.cos(dTheta);
+        final double s, c;
+        if (Math.abs(dTheta) < 1E-9) {
+            s = 1.0 - 1.0 / 6.0 * dTheta * dTheta;
+            c = 0.5 * dTheta;
+        } else {
+            s = sinTheta / dTheta;
+            c = (1 - cosTheta) / dTheta;
+        }
+        plus(x, y, theta, dx * s - dy * c, dx * c + dy * s, dTheta);
+    }
+}
@@ -0,0 +1,219 @@
+// By 5516 Iron Maple https://github.com/Shenzhen-Robotics-Alliance/
+package frc.robot.subsystems.drive;
+
+import static edu.wpi.first.units.Units.MetersPerSecond;
+import static frc.robot.constants.DriveTrainConstants.*;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.robot.subsystems.drive.IO.OdometryThread;
+import frc.robot.utils.MapleTimeUtils;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the control loops of the swerve modules on a dedicated thread, once after every odometry frame.
+ *
+ * <p>The main thread only posts the requested chassis speeds, or a stop. On every frame, the odometry thread publishes
+ * the module positions of the frame and wakes this thread up, which converts the latest request to module states,
+ * optimizes them against the measured steer facings and runs the module control loops. This thread is then the only
+ * one that drives the module IOs. The setpoints are exposed back to the main thread, read-only, for telemetry.
+ *
+ * <p>A request that is not renewed within {@link #REQUEST_TIMEOUT_SECONDS} is dropped, and the modules are stopped.
+ *
+ * <p>The frames are handed over through a triple buffer, and the kinematics run on primitive buffers, so a control
+ * tick allocates nothing but the module setpoints.
+ */
+public class ModuleControlThread extends Thread implements OdometryThread.FrameListener {
+    private static final double REQUEST_TIMEOUT_SECONDS = 0.1;
+    /* the drive velocities are differentiated from the positions of the frames, and smoothed with this time constant */
+    private static final double DRIVE_VELOCITY_FILTER_TIME_CONSTANT_SECONDS = 0.02;
+    private static final SwerveModuleState STOPPED = new SwerveModuleState();
+
+    private record Request(ChassisSpeeds speeds, double timeStamp) {}
+
+    private record SetPoints(SwerveModuleState[] setPoints, SwerveModuleState[] optimizedSetPoints) {}
+
+    private static final class Frame {
+        private final double[] driveDistancesMeters;
+        private final Rotation2d[] steerFacings;
+        private double timeStamp;
+
+        private Frame(int modulesCount) {
+            this.driveDistancesMeters = new double[modulesCount];
+            this.steerFacings = new Rotation2d[modulesCount];
+        }
+    }
+
+    private final SwerveModule[] swerveModules;
+
+    private final AtomicReference<Request> latestRequest = new AtomicReference<>(null);
+    private final AtomicReference<Rotation2d[]> pendingHeadingsReset = new AtomicReference<>(null);
+    private final AtomicLong controlTicksCount = new AtomicLong(0);
+
+    /*
+     * the frames of the triple buffer, the odometry thread writes the back frame and the control thread reads the
+     * front frame, the ready frame is exchanged atomically with either of them, flagged if it's newer than the front
+     */
+    private static final int FRAME_INDEX_MASK = 0b11, NEW_FRAME_FLAG = 0b100;
+    private final Frame[] frames;
+    private final AtomicInteger readyFrameIndex = new AtomicInteger(2);
+    private int backFrameIndex = 0; // accessed by the odometry thread only
+    private int frontFrameIndex = 1; // accessed by the module control thread only
+
+    /* the setpoints are published only after the main thread has taken the previous ones, so once per main cycle */
+    private final AtomicReference<SetPoints> pendingSetPoints = new AtomicReference<>(null);
+    private SetPoints latestSetPoints; // accessed by the main thread only
+
+    /* accessed by the module control thread only, the kinematics is not shared as it remembers the module headings */
+    private final FourModuleSwerveKinematics kinematics = new FourModuleSwerveKinematics(MODULE_TRANSLATIONS);
+    private final double[] setPointSpeedsBuffer = new double[FourModuleSwerveKinematics.MODULES_COUNT],
+            setPointHeadingsBuffer = new double[FourModuleSwerveKinematics.MODULES_COUNT];
+    private final SwerveModuleState[] setPointStates = new SwerveModuleState[FourModuleSwerveKinematics.MODULES_COUNT];
+    private final double[] previousDriveDistancesMeters, driveVelocitiesMetersPerSec;
+    private double previousFrameTimeStamp = Double.NaN;
+    private boolean modulesStopped = true;
+
+    public ModuleControlThread(SwerveModule[] swerveModules) {
+        this.swerveModules = swerveModules;
+        this.frames = new Frame[] {
+            new Frame(swerveModules.length), new Frame(swerveModules.length), new Frame(swerveModules.length)
+        };
+        this.previousDriveDistancesMeters = new double[swerveModules.length];
+        this.driveVelocitiesMetersPerSec = new double[swerveModules.length];
+        for (int i = 0; i < setPointStates.length; i++) setPointStates[i] = new SwerveModuleState();
+
+        final SwerveModuleState[] emptyStates = new SwerveModuleState[swerveModules.length];
+        for (int i = 0; i < emptyStates.length; i++) emptyStates[i] = new SwerveModuleState();
+        this.latestSetPoints = new SetPoints(emptyStates, emptyStates);
+
+        setName("ModuleControlThread");
+        setDaemon(true);
+    }
+
+    /** @return whether all the modules can be read from the odometry frames */
+    public static boolean isSupported(SwerveModule[] swerveModules) {
+        return swerveModules.length == FourModuleSwerveKinematics.MODULES_COUNT
+                && ThreadedPoseEstimator.isSupported(swerveModules);
+    }
+
+    @Override
+    public void onFrame(double frameTimeStamp) {
+        final Frame frame = frames[backFrameIndex];
+        for (int i = 0; i < swerveModules.length; i++) {
+            frame.driveDistancesMeters[i] = swerveModules[i].getOdometryFrameDriveDistanceMeters();
+            frame.steerFacings[i] = swerveModules[i].getOdometryFrameSteerFacing();
+        }
+        frame.timeStamp = frameTimeStamp;
+        backFrameIndex = readyFrameIndex.getAndSet(backFrameIndex | NEW_FRAME_FLAG) & FRAME_INDEX_MASK;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            LockSupport.park(this);
+            if ((readyFrameIndex.get() & NEW_FRAME_FLAG) == 0) continue;
+            frontFrameIndex = readyFrameIndex.getAndSet(frontFrameIndex) & FRAME_INDEX_MASK;
+            final Frame frame = frames[frontFrameIndex];
+            updateDriveVelocities(frame);
+            runModules(frame);
+            controlTicksCount.incrementAndGet();
+        }
+    }
+
+    /* differentiates the drive positions, through a first-order low-pass filter as the frames are only ms apart */
+    private void updateDriveVelocities(Frame frame) {
+        final double dt = frame.timeStamp - previousFrameTimeStamp;
+        final boolean hasPreviousFrame = dt > 0;
+        final double smoothing = hasPreviousFrame ? dt / (DRIVE_VELOCITY_FILTER_TIME_CONSTANT_SECONDS + dt) : 0;
+        for (int i = 0; i < swerveModules.length; i++) {
+            if (hasPreviousFrame) {
+                final double rawVelocity = (frame.driveDistancesMeters[i] - previousDriveDistancesMeters[i]) / dt;
+                driveVelocitiesMetersPerSec[i] += smoothing * (rawVelocity - driveVelocitiesMetersPerSec[i]);
+            }
+            previousDriveDistancesMeters[i] = frame.driveDistancesMeters[i];
+        }
+        previousFrameTimeStamp = frame.timeStamp;
+    }
+
+    private void runModules(Frame frame) {
+        final Rotation2d[] headingsReset = pendingHeadingsReset.getAndSet(null);
+        if (headingsReset != null) kinematics.resetHeadings(headingsReset);
+
+        final Request request = latestRequest.get();
+        if (request == null || MapleTimeUtils.getRealTimeSeconds() - request.timeStamp > REQUEST_TIMEOUT_SECONDS) {
+            stopModules(frame);
+            return;
+        }
+
+        kinematics.toModuleStates(
+                request.speeds.vxMetersPerSecond,
+                request.speeds.vyMetersPerSecond,
+                request.speeds.omegaRadiansPerSecond,
+                setPointSpeedsBuffer,
+                setPointHeadingsBuffer);
+        FourModuleSwerveKinematics.desaturate(setPointSpeedsBuffer, CHASSIS_MAX_VELOCITY.in(MetersPerSecond));
+
+        final boolean publishSetPoints = pendingSetPoints.get() == null;
+        final SwerveModuleState[] setPoints = publishSetPoints ? new SwerveModuleState[swerveModules.length] : null,
+                optimizedSetPoints = publishSetPoints ? new SwerveModuleState[swerveModules.length] : null;
+        for (int i = 0; i < swerveModules.length; i++) {
+            setPointStates[i].speedMetersPerSecond = setPointSpeedsBuffer[i];
+            setPointStates[i].angle = Rotation2d.fromRadians(setPointHeadingsBuffer[i]);
+            final SwerveModuleState optimizedSetPoint = swerveModules[i].runSetPoint(
+                    setPointStates[i], frame.steerFacings[i], driveVelocitiesMetersPerSec[i]);
+            if (publishSetPoints) {
+                setPoints[i] = new SwerveModuleState(setPointStates[i].speedMetersPerSecond, setPointStates[i].angle);
+                optimizedSetPoints[i] = optimizedSetPoint;
+            }
+        }
+        modulesStopped = false;
+
+        if (publishSetPoints) pendingSetPoints.set(new SetPoints(setPoints, optimizedSetPoints));
+    }
+
+    private void stopModules(Frame frame) {
+        if (modulesStopped) return;
+        for (int i = 0; i < swerveModules.length; i++) swerveModules[i].runSetPoint(STOPPED, frame.steerFacings[i], 0);
+        modulesStopped = true;
+    }
+
+    /** Posts the requested chassis speeds, robot-centric, called from the main thread. */
+    public void requestSpeeds(ChassisSpeeds speeds) {
+        latestRequest.set(new Request(speeds, MapleTimeUtils.getRealTimeSeconds()));
+    }
+
+    /** Stops the modules on the next frame, until new speeds are requested, called from the main thread. */
+    public void requestStop() {
+        latestRequest.set(null);
+    }
+
+    /** Resets the headings the modules hold while the robot is not moving, called from the main thread. */
+    public void resetHeadings(Rotation2d[] moduleHeadings) {
+        pendingHeadingsReset.set(moduleHeadings);
+    }
+
+    /** @return the module setpoints of the latest control tick, called from the main thread */
+    public SwerveModuleState[] getLatestSetPoints() {
+        final SetPoints setPoints = pendingSetPoints.getAndSet(null);
+        if (setPoints != null) latestSetPoints = setPoints;
+        return latestSetPoints.setPoints;
+    }
+
+    /**
+     * @return the optimized module setpoints of the same tick as {@link #getLatestSetPoints()}, called from the main
+     *     thread
+     */
+    public SwerveModuleState[] getLatestOptimizedSetPoints() {
+        return latestSetPoints.optimizedSetPoints;
+    }
+
+    /** @return the total amount of control ticks */
+    public long getControlTicksCount() {
+        return controlTicksCount.get();
+    }
+}
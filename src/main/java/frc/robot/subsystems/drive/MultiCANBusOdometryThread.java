@@ -0,0 +1,84 @@
+// By 5516 Iron Maple https://github.com/Shenzhen-Robotics-Alliance/
+package frc.robot.subsystems.drive;
+
+import frc.robot.subsystems.drive.IO.OdometryThread;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The odometry of a drivetrain whose devices are on several CAN buses, with one {@link OdometryThreadReal} per bus.
+ *
+ * <p>Each bus is captured in the best way it allows (see {@link OdometryThreadReal#forCANBus}), so a slow bus never
+ * holds the others back. The frames are merged on the main thread: the frames of the primary thread, preferably the
+ * one on a CANivore, give the time stamps of the samples, and the inputs of the other buses are re-sampled to them
+ * (see {@link OdometryInput#resample(double[], double[])}).
+ *
+ * <p>Frame listeners are not supported, since the inputs of a frame are captured by different threads.
+ */
+public class MultiCANBusOdometryThread implements OdometryThread {
+    private final OdometryThreadReal primaryThread;
+    private final OdometryThreadReal[] secondaryThreads;
+    private final OdometryThreadInputs[] secondaryThreadsInputs;
+
+    public MultiCANBusOdometryThread(List<OdometryThreadReal> odometryThreads) {
+        final List<OdometryThreadReal> secondaryThreads = new ArrayList<>(odometryThreads);
+        OdometryThreadReal primaryThread = secondaryThreads.get(0);
+        for (OdometryThreadReal odometryThread : odometryThreads)
+            if (odometryThread.getDriveType() == SwerveDrive.DriveType.CTRE_ON_CANIVORE) {
+                primaryThread = odometryThread;
+                break;
+            }
+        secondaryThreads.remove(primaryThread);
+
+        this.primaryThread = primaryThread;
+        this.secondaryThreads = secondaryThreads.toArray(new OdometryThreadReal[0]);
+        this.secondaryThreadsInputs = new OdometryThreadInputs[this.secondaryThreads.length];
+        for (int i = 0; i < secondaryThreadsInputs.length; i++) secondaryThreadsInputs[i] = new OdometryThreadInputs();
+    }
+
+    @Override
+    public void updateInputs(OdometryThreadInputs inputs) {
+        primaryThread.updateInputs(inputs);
+
+        boolean allInputsSampled = true;
+        for (int i = 0; i < secondaryThreads.length; i++) {
+            secondaryThreads[i].updateInputs(secondaryThreadsInputs[i]);
+            for (OdometryInput odometryInput : secondaryThreads[i].getOdometryInputs())
+                allInputsSampled &= odometryInput.resample(
+                        secondaryThreadsInputs[i].measurementTimeStamps, inputs.measurementTimeStamps);
+        }
+
+        /* until every bus has been sampled, some inputs have no value to merge */
+        if (allInputsSampled) return;
+        inputs.measurementTimeStamps = new double[0];
+        for (OdometryInput odometryInput : primaryThread.getOdometryInputs()) odometryInput.setSamplesCount(0);
+        for (OdometryThreadReal secondaryThread : secondaryThreads)
+            for (OdometryInput odometryInput : secondaryThread.getOdometryInputs()) odometryInput.setSamplesCount(0);
+    }
+
+    @Override
+    public void start() {
+        primaryThread.start();
+        for (OdometryThreadReal secondaryThread : secondaryThreads) secondaryThread.start();
+    }
+
+    @Override
+    public void governFrequency() {
+        primaryThread.governFrequency();
+        for (OdometryThreadReal secondaryThread : secondaryThreads) secondaryThread.governFrequency();
+    }
+
+    @Override
+    public void logPerformance() {
+        primaryThread.logPerformance();
+        for (OdometryThreadReal secondaryThread : secondaryThreads) secondaryThread.logPerformance();
+    }
+
+    @Override
+    public long getDroppedFramesCount() {
+        long droppedFramesCount = primaryThread.getDroppedFramesCount();
+        for (OdometryThreadReal secondaryThread : secondaryThreads)
+            droppedFramesCount += secondaryThread.getDroppedFramesCount();
+        return droppedFramesCount;
+    }
+}
@@ -0,0 +1,88 @@
+// By 5516 Iron Maple https://github.com/Shenzhen-Robotics-Alliance/
+package frc.robot.subsystems.drive;
+
+import static frc.robot.constants.DriveTrainConstants.*;
+
+import frc.robot.Robot;
+import frc.robot.utils.MapleTimeUtils;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Adjusts the odometry frequency at runtime, from the utilization of the CAN bus and the CPU time of the main loop.
+ *
+ * <p>The frequency is lowered multiplicatively as soon as the bus or the main loop is overloaded, and raised in small
+ * steps while both have spare capacity, so it settles just below the highest rate the robot can sustain.
+ *
+ * <p>Runs on the main thread, a decision is made once every {@link #WINDOW_SECONDS}, from the utilization of the bus at
+ * the end of the window and the longest main loop during the window.
+ */
+public class OdometryFrequencyGovernor {
+    public static final double WINDOW_SECONDS = 1.0;
+    private static final double DECREASE_RATIO = 0.8, INCREASE_STEP_HZ = 25;
+
+    private final DoubleSupplier canBusUtilizationSupplier;
+    private final double minFrequency, maxFrequency;
+
+    private double frequency;
+    private double windowStartTimeSeconds = -1, windowMaxLoopCPUTimeSeconds = 0;
+    private double canBusUtilization = 0, loopCPUTimeSeconds = 0;
+
+    /**
+     * @param canBusUtilizationSupplier the utilization of the odometry CAN bus, from 0 to 1
+     * @param initialFrequency the frequency to start with
+     * @param minFrequency the lowest frequency the governor can set
+     * @param maxFrequency the highest frequency the governor can set
+     */
+    public OdometryFrequencyGovernor(
+            DoubleSupplier canBusUtilizationSupplier,
+            double initialFrequency,
+            double minFrequency,
+            double maxFrequency) {
+        this.canBusUtilizationSupplier = canBusUtilizationSupplier;
+        this.minFrequency = minFrequency;
+        this.maxFrequency = maxFrequency;
+        this.frequency = Math.max(minFrequency, Math.min(maxFrequency, initialFrequency));
+    }
+
+    /**
+     * Called every robot period from the main thread.
+     *
+     * @return the frequency the odometry should run at
+     */
+    public double update() {
+        windowMaxLoopCPUTimeSeconds = Math.max(windowMaxLoopCPUTimeSeconds, Robot.getMainLoopCPUTimeSeconds());
+
+        final double now = MapleTimeUtils.getRealTimeSeconds();
+        if (windowStartTimeSeconds == -1) windowStartTimeSeconds = now;
+        if (now - windowStartTimeSeconds < WINDOW_SECONDS) return frequency;
+        windowStartTimeSeconds = now;
+
+        canBusUtilization = canBusUtilizationSupplier.getAsDouble();
+        loopCPUTimeSeconds = windowMaxLoopCPUTimeSeconds;
+        windowMaxLoopCPUTimeSeconds = 0;
+        final double loopBudgetUsage = loopCPUTimeSeconds / Robot.defaultPeriodSecs;
+
+        if (canBusUtilization > ODOMETRY_GOVERNOR_CAN_UTILIZATION_HIGH
+                || loopBudgetUsage > ODOMETRY_GOVERNOR_LOOP_BUDGET_HIGH)
+            frequency = Math.max(minFrequency, frequency * DECREASE_RATIO);
+        else if (canBusUtilization < ODOMETRY_GOVERNOR_CAN_UTILIZATION_LOW
+                && loopBudgetUsage < ODOMETRY_GOVERNOR_LOOP_BUDGET_LOW)
+            frequency = Math.min(maxFrequency, frequency + INCREASE_STEP_HZ);
+
+        return frequency;
+    }
+
+    public double getFrequency() {
+        return frequency;
+    }
+
+    /** @return the utilization of the CAN bus measured at the end of the last complete window */
+    public double getCANBusUtilization() {
+        return canBusUtilization;
+    }
+
+    /** @return the longest main loop during the last complete window */
+    public double getLoopCPUTimeSeconds() {
+        return loopCPUTimeSeconds;
+    }
+}
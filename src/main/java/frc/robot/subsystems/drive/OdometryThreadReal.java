@@ -2,34 +2,154 @@
 package frc.robot.subsystems.drive;
 
 import static frc.robot.constants.DriveTrainConstants.*;
+import static frc.robot.constants.LogPaths.SYSTEM_PERFORMANCE_PATH;
 
 import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.CANBus;
+import edu.wpi.first.wpilibj.RobotController;
 import frc.robot.subsystems.drive.IO.OdometryThread;
+import frc.robot.utils.Alert;
+import frc.robot.utils.DeadlineScheduler;
+import frc.robot.utils.DoubleFrameRingBuffer;
 import frc.robot.utils.MapleTimeUtils;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import frc.robot.utils.PeriodHistogram;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import org.littletonrobotics.junction.Logger;
 
 public class OdometryThreadReal extends Thread implements OdometryThread {
     private final SwerveDrive.DriveType driveType;
+    private final String name, logPath;
 
     private final OdometryInput[] odometryDoubleInputs;
     private final BaseStatusSignal[] statusSignals;
-    private final Queue<Double> timeStampsQueue;
-    private final Lock lock = new ReentrantLock();
 
+    /* frame layout: [time stamp, input 0 value, input 0 capture time stamp, input 1 value, ...] */
+    private final DoubleFrameRingBuffer framesBuffer;
+    private final double[] pendingFrame;
+    private final double[][] drainDestinations;
+    private final double[] timeStampsDrained;
+    private double previousFrameTimeStamp = Double.NEGATIVE_INFINITY;
+    private volatile FrameListener[] frameListeners = new FrameListener[0];
+
+    private final DeadlineScheduler scheduler;
+    private final PeriodHistogram tickPeriodHistogram;
+    /*
+     * the frequency is decided by the main thread, which also configures the status signals, as it blocks until the
+     * devices acknowledge; the odometry thread only retimes its scheduler
+     */
+    private final OdometryFrequencyGovernor frequencyGovernor;
+    private volatile double targetFrequency = ODOMETRY_FREQUENCY;
+    private double appliedFrequency = ODOMETRY_FREQUENCY;
+    private final AtomicLong publishedFramesCount = new AtomicLong(0),
+            waitForAllTimeoutsCount = new AtomicLong(0),
+            maxFrameCaptureTimeNanos = new AtomicLong(0);
+
+    /* accessed by the main thread only */
+    private final Alert odometryStarvingAlert;
+    private double rateWindowStartTimeSeconds = -1, achievedFrequency = 0;
+    private long publishedFramesCountAtWindowStart = 0,
+            droppedFramesCountAtWindowStart = 0,
+            waitForAllTimeoutsCountAtWindowStart = 0;
+
+    /**
+     * @param driveType the way the thread waits for the inputs, see {@link #refreshSignalsAndBlockThread()}
+     * @param name the name of the thread, the performance is logged under this name
+     * @param odometryInputs the inputs, all on the same CAN bus
+     * @param statusSignals the status signals of the inputs that are status signals
+     * @param canBusUtilizationSupplier the utilization of the CAN bus, from 0 to 1
+     */
     public OdometryThreadReal(
-            SwerveDrive.DriveType driveType, OdometryInput[] odometryInputs, BaseStatusSignal[] statusSignals) {
+            SwerveDrive.DriveType driveType,
+            String name,
+            OdometryInput[] odometryInputs,
+            BaseStatusSignal[] statusSignals,
+            DoubleSupplier canBusUtilizationSupplier) {
         this.driveType = driveType;
-        this.timeStampsQueue = new ArrayBlockingQueue<>(ODOMETRY_CACHE_CAPACITY);
+        this.name = name;
+        this.logPath = SYSTEM_PERFORMANCE_PATH + name + "/";
         this.odometryDoubleInputs = odometryInputs;
         this.statusSignals = statusSignals;
 
-        setName("OdometryThread");
+        this.framesBuffer = new DoubleFrameRingBuffer(odometryInputs.length * 2 + 1, ODOMETRY_CACHE_CAPACITY);
+        this.pendingFrame = new double[framesBuffer.frameWidth()];
+        this.timeStampsDrained = new double[ODOMETRY_CACHE_CAPACITY];
+        this.drainDestinations = new double[framesBuffer.frameWidth()][];
+        drainDestinations[0] = timeStampsDrained;
+        for (int i = 0; i < odometryInputs.length; i++) {
+            drainDestinations[i * 2 + 1] = odometryInputs[i].getSamplesBuffer();
+            drainDestinations[i * 2 + 2] = odometryInputs[i].getSamplesCaptureTimeStampsBuffer();
+        }
+
+        this.scheduler = new DeadlineScheduler(pollingPeriod(ODOMETRY_FREQUENCY), ODOMETRY_SPIN_WAIT_SECONDS);
+        this.tickPeriodHistogram = new PeriodHistogram(ODOMETRY_WAIT_TIMEOUT_SECONDS * 2);
+        this.frequencyGovernor = new OdometryFrequencyGovernor(
+                canBusUtilizationSupplier,
+                ODOMETRY_FREQUENCY,
+                ODOMETRY_MIN_FREQUENCY,
+                /* the status frames of REV devices are configured once, so there's no point running faster */
+                driveType == SwerveDrive.DriveType.GENERIC ? ODOMETRY_FREQUENCY : ODOMETRY_MAX_FREQUENCY);
+
+        this.odometryStarvingAlert = new Alert(name + " Thread Starving", Alert.AlertType.WARNING);
+        odometryStarvingAlert.setActivated(false);
+
+        setName(name.replace('/', '-') + "Thread");
         setDaemon(true);
     }
 
+    /**
+     * Creates the odometry thread of a CAN bus, which waits for the inputs in the best way the bus allows.
+     *
+     * <p>The inputs on a CANivore are all status signals, the thread waits for them to arrive together. On the bus of
+     * the roboRIO, the status signals are refreshed periodically, unless there are inputs from other devices (e.g. REV
+     * sparks) which are then polled.
+     *
+     * @param canBusName the name of the CAN bus
+     * @param odometryInputs the inputs registered on the bus
+     * @param statusSignals the status signals registered on the bus
+     * @param multipleCANBuses whether the drivetrain has other CAN buses, the bus is then included in the name
+     */
+    public static OdometryThreadReal forCANBus(
+            String canBusName,
+            List<OdometryInput> odometryInputs,
+            List<BaseStatusSignal> statusSignals,
+            boolean multipleCANBuses) {
+        final CANBus canBus = new CANBus(canBusName);
+        final boolean onlyStatusSignals = odometryInputs.size() == statusSignals.size();
+        final SwerveDrive.DriveType driveType;
+        if (!onlyStatusSignals) driveType = SwerveDrive.DriveType.GENERIC;
+        else if (canBus.isNetworkFD()) driveType = SwerveDrive.DriveType.CTRE_ON_CANIVORE;
+        else driveType = SwerveDrive.DriveType.CTRE_ON_RIO;
+
+        return new OdometryThreadReal(
+                driveType,
+                multipleCANBuses ? "Odometry/" + canBusName : "Odometry",
+                odometryInputs.toArray(new OdometryInput[0]),
+                statusSignals.toArray(new BaseStatusSignal[0]),
+                canBus.isNetworkFD()
+                        ? () -> canBus.getStatus().BusUtilization
+                        : () -> RobotController.getCANStatus().percentBusUtilization);
+    }
+
+    public SwerveDrive.DriveType getDriveType() {
+        return driveType;
+    }
+
+    /** @return the inputs captured by this thread */
+    public OdometryInput[] getOdometryInputs() {
+        return odometryDoubleInputs;
+    }
+
+    @Override
+    public boolean addFrameListener(FrameListener frameListener) {
+        final FrameListener[] frameListeners = Arrays.copyOf(this.frameListeners, this.frameListeners.length + 1);
+        frameListeners[frameListeners.length - 1] = frameListener;
+        this.frameListeners = frameListeners;
+        return odometryDoubleInputs.length > 0;
+    }
+
     @Override
     public synchronized void start() {
         if (odometryDoubleInputs.length > 0) super.start();
@@ -41,48 +161,146 @@ public class OdometryThreadReal extends Thread implements OdometryThread {
     }
 
     private void odometryPeriodic() {
+        applyTargetFrequency();
         refreshSignalsAndBlockThread();
+        final long tickTimeNanos = System.nanoTime();
+        tickPeriodHistogram.record(tickTimeNanos);
+
+        final double frameTimeStamp = captureInputsAndFindCommonTimeStamp();
+        /* none of the inputs has been measured since the previous frame */
+        if (frameTimeStamp <= previousFrameTimeStamp) return;
+        previousFrameTimeStamp = frameTimeStamp;
 
-        lock.lock();
-        timeStampsQueue.offer(estimateAverageTimeStamps());
-        for (OdometryInput odometryInput : odometryDoubleInputs) odometryInput.cacheInputToQueue();
-        lock.unlock();
+        pendingFrame[0] = frameTimeStamp;
+        for (int i = 0; i < odometryDoubleInputs.length; i++) {
+            pendingFrame[i * 2 + 1] = odometryDoubleInputs[i].interpolate(frameTimeStamp);
+            pendingFrame[i * 2 + 2] = odometryDoubleInputs[i].getLatestCaptureTimeStamp();
+        }
+        if (framesBuffer.offer(pendingFrame)) publishedFramesCount.incrementAndGet();
+        for (FrameListener frameListener : frameListeners) frameListener.onFrame(frameTimeStamp);
+        maxFrameCaptureTimeNanos.accumulateAndGet(System.nanoTime() - tickTimeNanos, Math::max);
+    }
+
+    /**
+     * Captures all the inputs, each with its own time stamp, and finds the time stamp of the frame.
+     *
+     * <p>The frame is placed at the oldest capture, so that every input is interpolated between its previous and its
+     * latest capture rather than extrapolated. Captures that are too old (e.g. from a disconnected device) are ignored,
+     * so they can't hold the frames back.
+     */
+    private double captureInputsAndFindCommonTimeStamp() {
+        final double currentTime = MapleTimeUtils.getRealTimeSeconds();
+        double commonTimeStamp = currentTime;
+        for (OdometryInput odometryInput : odometryDoubleInputs) {
+            final double captureTimeStamp = odometryInput.capture(currentTime);
+            if (currentTime - captureTimeStamp < ODOMETRY_WAIT_TIMEOUT_SECONDS)
+                commonTimeStamp = Math.min(commonTimeStamp, captureTimeStamp);
+        }
+        return commonTimeStamp;
+    }
+
+    private void applyTargetFrequency() {
+        final double frequency = targetFrequency;
+        if (frequency == appliedFrequency) return;
+        appliedFrequency = frequency;
+        scheduler.setPeriod(pollingPeriod(frequency));
+    }
+
+    /* the REV inputs only sample the new status frames, see SparkFrameTimeStampEstimator */
+    private double pollingPeriod(double frequency) {
+        return driveType == SwerveDrive.DriveType.GENERIC
+                ? 1.0 / (frequency * ODOMETRY_REV_POLLS_PER_FRAME)
+                : 1.0 / frequency;
     }
 
     private void refreshSignalsAndBlockThread() {
         switch (driveType) {
-            case GENERIC -> MapleTimeUtils.delay(1.0 / ODOMETRY_FREQUENCY);
+            case GENERIC -> {
+                scheduler.waitForNextDeadline();
+                if (statusSignals.length > 0) BaseStatusSignal.refreshAll(statusSignals);
+            }
             case CTRE_ON_RIO -> {
-                MapleTimeUtils.delay(1.0 / ODOMETRY_FREQUENCY);
-                BaseStatusSignal.refreshAll();
+                scheduler.waitForNextDeadline();
+                BaseStatusSignal.refreshAll(statusSignals);
+            }
+            case CTRE_ON_CANIVORE -> {
+                if (!BaseStatusSignal.waitForAll(ODOMETRY_WAIT_TIMEOUT_SECONDS, statusSignals).isOK())
+                    waitForAllTimeoutsCount.incrementAndGet();
             }
-            case CTRE_ON_CANIVORE -> BaseStatusSignal.waitForAll(ODOMETRY_WAIT_TIMEOUT_SECONDS, statusSignals);
         }
     }
 
-    private double estimateAverageTimeStamps() {
-        double currentTime = MapleTimeUtils.getRealTimeSeconds(), totalLatency = 0;
-        for (BaseStatusSignal signal : statusSignals)
-            totalLatency += signal.getTimestamp().getLatency();
-
-        if (statusSignals.length == 0) return currentTime;
-        return currentTime - totalLatency / statusSignals.length;
+    @Override
+    public void updateInputs(OdometryThreadInputs inputs) {
+        final int framesCount = framesBuffer.drainTo(drainDestinations, ODOMETRY_CACHE_CAPACITY);
+        for (OdometryInput odometryInput : odometryDoubleInputs) odometryInput.setSamplesCount(framesCount);
+        inputs.measurementTimeStamps = Arrays.copyOf(timeStampsDrained, framesCount);
     }
 
     @Override
-    public void updateInputs(OdometryThreadInputs inputs) {
-        inputs.measurementTimeStamps = new double[timeStampsQueue.size()];
-        for (int i = 0; i < inputs.measurementTimeStamps.length && !timeStampsQueue.isEmpty(); i++)
-            inputs.measurementTimeStamps[i] = timeStampsQueue.poll();
+    public long getDroppedFramesCount() {
+        return framesBuffer.getDroppedFramesCount();
     }
 
     @Override
-    public void lockOdometry() {
-        lock.lock();
+    public void governFrequency() {
+        if (!ODOMETRY_FREQUENCY_GOVERNOR_ENABLED) return;
+        final double frequency = frequencyGovernor.update();
+        if (frequency == targetFrequency) return;
+
+        /* the signals run at the new frequency before the thread polls them at it */
+        if (statusSignals.length > 0) BaseStatusSignal.setUpdateFrequencyForAll(frequency, statusSignals);
+        targetFrequency = frequency;
     }
 
     @Override
-    public void unlockOdometry() {
-        lock.unlock();
+    public void logPerformance() {
+        tickPeriodHistogram.update();
+        updateAchievedFrequencyAndAlert();
+
+        Logger.recordOutput(logPath + "TargetFrequencyHz", targetFrequency);
+        Logger.recordOutput(logPath + "AchievedFrequencyHz", achievedFrequency);
+        Logger.recordOutput(logPath + "CANBusUtilization", frequencyGovernor.getCANBusUtilization());
+        Logger.recordOutput(logPath + "MainLoopCPUTimeMaxMS", frequencyGovernor.getLoopCPUTimeSeconds() * 1000);
+        Logger.recordOutput(logPath + "TickPeriodP50MS", tickPeriodHistogram.getP50Millis());
+        Logger.recordOutput(logPath + "TickPeriodP99MS", tickPeriodHistogram.getP99Millis());
+        Logger.recordOutput(logPath + "TickPeriodMaxMS", tickPeriodHistogram.getMaxMillis());
+        Logger.recordOutput(logPath + "MissedDeadlines", scheduler.getMissedDeadlinesCount());
+        Logger.recordOutput(logPath + "WaitForAllTimeouts", waitForAllTimeoutsCount.get());
+        Logger.recordOutput(logPath + "DroppedFrames", framesBuffer.getDroppedFramesCount());
+        Logger.recordOutput(logPath + "MaxFrameCaptureTimeMS", maxFrameCaptureTimeNanos.getAndSet(0) / 1_000_000.0);
+    }
+
+    /** The odometry is considered starving if it falls behind the configured frequency, or loses any frame. */
+    private void updateAchievedFrequencyAndAlert() {
+        final double now = MapleTimeUtils.getRealTimeSeconds();
+        if (rateWindowStartTimeSeconds == -1) rateWindowStartTimeSeconds = now;
+        final double windowLengthSeconds = now - rateWindowStartTimeSeconds;
+        if (windowLengthSeconds < PeriodHistogram.WINDOW_SECONDS) return;
+
+        final double expectedFrequency = targetFrequency;
+        final long publishedFrames = publishedFramesCount.get(),
+                droppedFrames = framesBuffer.getDroppedFramesCount(),
+                waitForAllTimeouts = waitForAllTimeoutsCount.get();
+        achievedFrequency = (publishedFrames - publishedFramesCountAtWindowStart) / windowLengthSeconds;
+        final long droppedFramesInWindow = droppedFrames - droppedFramesCountAtWindowStart,
+                timeoutsInWindow = waitForAllTimeouts - waitForAllTimeoutsCountAtWindowStart;
+
+        odometryStarvingAlert.setText(String.format(
+                "%s Thread Starving: %.0f/%.0f Hz, %d frames dropped, %d CAN timeouts in the last second",
+                name,
+                achievedFrequency,
+                expectedFrequency,
+                droppedFramesInWindow,
+                timeoutsInWindow));
+        odometryStarvingAlert.setActivated(isAlive()
+                && (achievedFrequency < expectedFrequency * ODOMETRY_STARVING_FREQUENCY_RATIO
+                        || droppedFramesInWindow > 0
+                        || timeoutsInWindow > 0));
+
+        rateWindowStartTimeSeconds = now;
+        publishedFramesCountAtWindowStart = publishedFrames;
+        droppedFramesCountAtWindowStart = droppedFrames;
+        waitForAllTimeoutsCountAtWindowStart = waitForAllTimeouts;
     }
 }
@@ -7,19 +7,22 @@ package frc.robot.subsystems.drive;
 
 import static edu.wpi.first.units.Units.*;
 import static frc.robot.constants.DriveTrainConstants.*;
+import static frc.robot.constants.LogPaths.SYSTEM_PERFORMANCE_PATH;
 import static frc.robot.constants.VisionConstants.*;
 
+import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Twist2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import frc.robot.Robot;
 import frc.robot.constants.DriveControlLoops;
 import frc.robot.constants.FieldConstants;
 import frc.robot.subsystems.MapleSubsystem;
@@ -27,39 +30,104 @@ import frc.robot.subsystems.drive.IO.*;
 import frc.robot.subsystems.vision.apriltags.MapleMultiTagPoseEstimator;
 import frc.robot.utils.Alert;
 import frc.robot.utils.ChassisHeadingController;
+import frc.robot.utils.CustomMaths.MutableChassisSpeeds;
 import frc.robot.utils.MapleTimeUtils;
+import java.util.Optional;
 import java.util.OptionalDouble;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
 public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsystem {
+    /* the way an odometry thread waits for the inputs of its CAN bus, decided for each bus */
     public enum DriveType {
         GENERIC,
         CTRE_ON_RIO,
         CTRE_ON_CANIVORE
     }
 
+    /**
+     * The state of the robot, computed once per cycle after the estimation, so that all the consumers of a cycle read
+     * the same values without computing them again.
+     *
+     * @param timeStampSeconds the log time of the cycle, in seconds
+     * @param moduleStates the measured module states, in FL, FR, BL, BR, the array must not be modified
+     */
+    public record RobotState(
+            double timeStampSeconds,
+            Pose2d pose,
+            ChassisSpeeds speedsRobotRelative,
+            ChassisSpeeds speedsFieldRelative,
+            SwerveModuleState[] moduleStates) {
+        public Rotation2d facing() {
+            return pose.getRotation();
+        }
+    }
+
     private final GyroIO gyroIO;
-    private final GyroIOInputsAutoLogged gyroInputs;
+    private final GyroIO.GyroIOInputs gyroInputs;
     private final OdometryThreadInputsAutoLogged odometryThreadInputs;
     private final SwerveModule[] swerveModules;
 
     private Rotation2d rawGyroRotation;
-    private final SwerveModulePosition[] lastModulePositions;
-    private final SwerveDrivePoseEstimator poseEstimator;
+    private final SwerveModulePosition[] lastModulePositions, modulesPosition, modulesDelta;
+    private final DrivePoseEstimator poseEstimator;
 
+    private final DriveStatusSignals driveStatusSignals;
     private final OdometryThread odometryThread;
+    /* null if the pose is estimated on the main thread */
+    private final ThreadedPoseEstimator threadedPoseEstimator;
+    /* null if the modules are controlled from the main thread */
+    private final ModuleControlThread moduleControlThread;
     private final Alert gyroDisconnectedAlert = new Alert("Gyro Hardware Fault", Alert.AlertType.ERROR),
-            visionNoResultAlert = new Alert("Vision No Result", Alert.AlertType.INFO);
-    public static final ChassisHeadingController swerveHeadingController = new ChassisHeadingController(
+            visionNoResultAlert = new Alert("Vision No Result", Alert.AlertType.INFO),
+            odometryStaleAlert = new Alert("Odometry Samples Stale", Alert.AlertType.WARNING);
+    private double newestOdometrySampleTimeStamp = Double.NEGATIVE_INFINITY;
+    private RobotState robotState;
+    private final ChassisHeadingController headingController = new ChassisHeadingController(
             new TrapezoidProfile.Constraints(
                     CHASSIS_MAX_ANGULAR_VELOCITY.in(RadiansPerSecond),
                     CHASSIS_MAX_ANGULAR_ACCELERATION.in(RadiansPerSecondPerSecond)),
             DriveControlLoops.CHASSIS_ROTATION_CLOSE_LOOP,
             new Rotation2d());
+    /* the kinematics of the main thread, with its buffers */
+    private final MutableChassisSpeeds setPointSpeeds = new MutableChassisSpeeds();
+    private final FourModuleSwerveKinematics kinematics = new FourModuleSwerveKinematics(MODULE_TRANSLATIONS);
+    private final double[] moduleVectorsBuffer = new double[FourModuleSwerveKinematics.MODULES_COUNT * 2],
+            chassisMotionBuffer = new double[3],
+            setPointSpeedsBuffer = new double[FourModuleSwerveKinematics.MODULES_COUNT],
+            setPointHeadingsBuffer = new double[FourModuleSwerveKinematics.MODULES_COUNT];
 
+    /**
+     * @param registry the registry passed to the constructors of the IOs, owned by this drive
+     */
     public SwerveDrive(
-            DriveType type,
+            DriveIORegistry registry,
+            GyroIO gyroIO,
+            ModuleIO frontLeftModuleIO,
+            ModuleIO frontRightModuleIO,
+            ModuleIO backLeftModuleIO,
+            ModuleIO backRightModuleIO) {
+        this(
+                registry,
+                registry.createOdometryThread(),
+                createPoseEstimator(),
+                gyroIO,
+                frontLeftModuleIO,
+                frontRightModuleIO,
+                backLeftModuleIO,
+                backRightModuleIO);
+    }
+
+    /**
+     * Creates a drive with the given odometry and pose estimator, which the tests replace.
+     *
+     * @param odometryThread the odometry of the IOs, not started yet
+     * @param poseEstimator the pose estimator, initialized with zero gyro rotation and zero module positions
+     */
+    SwerveDrive(
+            DriveIORegistry registry,
+            OdometryThread odometryThread,
+            DrivePoseEstimator poseEstimator,
             GyroIO gyroIO,
             ModuleIO frontLeftModuleIO,
             ModuleIO frontRightModuleIO,
@@ -67,7 +135,7 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
             ModuleIO backRightModuleIO) {
         super("Drive");
         this.gyroIO = gyroIO;
-        this.gyroInputs = new GyroIOInputsAutoLogged();
+        this.gyroInputs = new GyroIO.GyroIOInputs();
         this.rawGyroRotation = new Rotation2d();
         this.swerveModules = new SwerveModule[] {
             new SwerveModule(frontLeftModuleIO, "FrontLeft"),
@@ -82,30 +150,81 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
             new SwerveModulePosition(),
             new SwerveModulePosition()
         };
-        this.poseEstimator = new SwerveDrivePoseEstimator(
-                DRIVE_KINEMATICS,
-                rawGyroRotation,
-                lastModulePositions,
-                new Pose2d(),
-                VecBuilder.fill(
-                        ODOMETRY_TRANSLATIONAL_STANDARD_ERROR_METERS,
-                        ODOMETRY_TRANSLATIONAL_STANDARD_ERROR_METERS,
-                        GYRO_ROTATIONAL_STANDARD_ERROR_RADIANS),
-                VecBuilder.fill(
-                        TRANSLATIONAL_STANDARD_ERROR_METERS_FOR_SINGLE_OBSERVATION,
-                        TRANSLATIONAL_STANDARD_ERROR_METERS_FOR_SINGLE_OBSERVATION,
-                        ROTATIONAL_STANDARD_ERROR_RADIANS_FOR_SINGLE_OBSERVATION));
-
-        this.odometryThread = OdometryThread.createInstance(type);
+        modulesPosition = new SwerveModulePosition[4];
+        modulesDelta = new SwerveModulePosition[4];
+        for (int i = 0; i < 4; i++) {
+            modulesPosition[i] = new SwerveModulePosition();
+            modulesDelta[i] = new SwerveModulePosition();
+        }
+        this.poseEstimator = poseEstimator;
+
+        this.driveStatusSignals = registry.getDriveStatusSignals();
+        this.odometryThread = odometryThread;
         this.odometryThreadInputs = new OdometryThreadInputsAutoLogged();
+        this.threadedPoseEstimator = createThreadedPoseEstimator();
+        this.moduleControlThread = createModuleControlThread();
         this.odometryThread.start();
+        if (moduleControlThread != null) moduleControlThread.start();
 
         gyroDisconnectedAlert.setActivated(false);
         visionNoResultAlert.setActivated(false);
+        odometryStaleAlert.setActivated(false);
 
+        updateRobotState(getEstimatedPose());
         startDashboardDisplay();
     }
 
+    private static DrivePoseEstimator createPoseEstimator() {
+        final Rotation2d gyroRotation = new Rotation2d();
+        final SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
+        for (int i = 0; i < 4; i++) modulePositions[i] = new SwerveModulePosition();
+        final Matrix<N3, N1> stateStandardDeviations = VecBuilder.fill(
+                ODOMETRY_TRANSLATIONAL_STANDARD_ERROR_METERS,
+                ODOMETRY_TRANSLATIONAL_STANDARD_ERROR_METERS,
+                GYRO_ROTATIONAL_STANDARD_ERROR_RADIANS);
+        final Matrix<N3, N1> visionStandardDeviations = VecBuilder.fill(
+                TRANSLATIONAL_STANDARD_ERROR_METERS_FOR_SINGLE_OBSERVATION,
+                TRANSLATIONAL_STANDARD_ERROR_METERS_FOR_SINGLE_OBSERVATION,
+                ROTATIONAL_STANDARD_ERROR_RADIANS_FOR_SINGLE_OBSERVATION);
+        return USE_MAPLE_POSE_ESTIMATOR
+                ? new MaplePoseEstimator(
+                        DRIVE_KINEMATICS,
+                        gyroRotation,
+                        modulePositions,
+                        new Pose2d(),
+                        stateStandardDeviations,
+                        visionStandardDeviations)
+                : DrivePoseEstimator.of(new SwerveDrivePoseEstimator(
+                        DRIVE_KINEMATICS,
+                        gyroRotation,
+                        modulePositions,
+                        new Pose2d(),
+                        stateStandardDeviations,
+                        visionStandardDeviations));
+    }
+
+    /** @return the estimator on the odometry thread, or <code>null</code> if the pose is estimated on this thread */
+    private ThreadedPoseEstimator createThreadedPoseEstimator() {
+        if (!ODOMETRY_POSE_ESTIMATION_ON_THREAD || !ThreadedPoseEstimator.isSupported(swerveModules)) return null;
+        final ThreadedPoseEstimator estimator = new ThreadedPoseEstimator(swerveModules, gyroIO, poseEstimator);
+        return odometryThread.addFrameListener(estimator) ? estimator : null;
+    }
+
+    /** @return the thread that controls the modules, or <code>null</code> if they are controlled from this thread */
+    private ModuleControlThread createModuleControlThread() {
+        if (!MODULE_CONTROL_ON_THREAD || !ModuleControlThread.isSupported(swerveModules)) return null;
+        final ModuleControlThread controlThread = new ModuleControlThread(swerveModules);
+        if (!odometryThread.addFrameListener(controlThread)) return null;
+        for (SwerveModule module : swerveModules) module.setControlledOnThread();
+        return controlThread;
+    }
+
+    @Override
+    public void onDisable() {
+        /* the modules are driven by the control thread only, so they are stopped through it */
+        if (moduleControlThread != null) moduleControlThread.requestStop();
+    }
+
     @Override
     public void periodic(double dt, boolean enabled) {
         final double t0 = MapleTimeUtils.getRealTimeSeconds();
@@ -114,9 +233,11 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
                 "SystemPerformance/OdometryFetchingTimeMS", (MapleTimeUtils.getRealTimeSeconds() - t0) * 1000);
         modulesPeriodic(dt, enabled);
 
-        for (int timeStampIndex = 0;
-                timeStampIndex < odometryThreadInputs.measurementTimeStamps.length;
-                timeStampIndex++) feedSingleOdometryDataToPositionEstimator(timeStampIndex);
+        /* the samples are still fetched and logged, but they are already in the estimation of the odometry thread */
+        final int odometrySamplesCount = threadedPoseEstimator == null ? getOdometrySamplesCount() : 0;
+        for (int timeStampIndex = 0; timeStampIndex < odometrySamplesCount; timeStampIndex++)
+            feedSingleOdometryDataToPositionEstimator(timeStampIndex);
+        updateRobotState(getEstimatedPose());
 
         final double timeNotVisionResultSeconds = MapleTimeUtils.getLogTimeSeconds() - previousMeasurementTimeStamp;
         visionNoResultAlert.setText(
@@ -125,50 +246,82 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
     }
 
     private void fetchOdometryInputs() {
-        odometryThread.lockOdometry();
+        /* moves the frames out of the odometry thread's ring buffer, must be called before the IOs read them */
         odometryThread.updateInputs(odometryThreadInputs);
         Logger.processInputs("Drive/OdometryThread", odometryThreadInputs);
+        odometryThread.governFrequency();
+        odometryThread.logPerformance();
+        logOdometrySamplesHealth();
 
+        /* refreshes the signals of all the modules and the gyro in one call, before the IOs read them */
+        driveStatusSignals.refreshAll();
         for (var module : swerveModules) module.updateOdometryInputs();
 
         gyroIO.updateInputs(gyroInputs);
         Logger.processInputs("Drive/Gyro", gyroInputs);
         gyroDisconnectedAlert.setActivated(!gyroInputs.connected);
+    }
 
-        odometryThread.unlockOdometry();
+    private void logOdometrySamplesHealth() {
+        final double[] timeStamps = odometryThreadInputs.measurementTimeStamps;
+        if (timeStamps.length > 0)
+            newestOdometrySampleTimeStamp = Math.max(newestOdometrySampleTimeStamp, timeStamps[timeStamps.length - 1]);
+        final double newestSampleAgeSeconds = MapleTimeUtils.getLogTimeSeconds() - newestOdometrySampleTimeStamp;
+
+        Logger.recordOutput(SYSTEM_PERFORMANCE_PATH + "Odometry/SamplesPerCycle", timeStamps.length);
+        Logger.recordOutput(SYSTEM_PERFORMANCE_PATH + "Odometry/NewestSampleAgeMS", newestSampleAgeSeconds * 1000);
+        odometryStaleAlert.setText(
+                String.format("Odometry Samples Stale, Newest Sample %.0f (ms) Old", newestSampleAgeSeconds * 1000));
+        odometryStaleAlert.setActivated(newestSampleAgeSeconds > ODOMETRY_STALE_SAMPLE_AGE_SECONDS);
     }
 
     private void modulesPeriodic(double dt, boolean enabled) {
         for (var module : swerveModules) module.periodic(dt, enabled);
     }
 
+    /**
+     * The odometry thread always delivers the same amount of samples for every input, but the sample arrays can differ
+     * in length in logs and simulations, so the shortest one is used.
+     */
+    private int getOdometrySamplesCount() {
+        int samplesCount = odometryThreadInputs.measurementTimeStamps.length;
+        for (SwerveModule module : swerveModules)
+            samplesCount = Math.min(samplesCount, module.getOdometrySamplesCount());
+        if (gyroInputs.connected)
+            samplesCount = Math.min(
+                    samplesCount,
+                    Math.min(gyroInputs.odometrySamplesCount, gyroInputs.odometryYawPositionsRad.length));
+        return samplesCount;
+    }
+
     private void feedSingleOdometryDataToPositionEstimator(int timeStampIndex) {
-        final SwerveModulePosition[] modulePositions = getModulesPosition(timeStampIndex),
-                moduleDeltas = getModulesDelta(modulePositions);
+        updateModulesPositionAndDelta(timeStampIndex);
 
-        if (!updateRobotFacingWithGyroReading(timeStampIndex)) updateRobotFacingWithOdometry(moduleDeltas);
+        if (!updateRobotFacingWithGyroReading(timeStampIndex)) updateRobotFacingWithOdometry(modulesDelta);
 
         poseEstimator.updateWithTime(
-                odometryThreadInputs.measurementTimeStamps[timeStampIndex], rawGyroRotation, modulePositions);
-    }
-
-    private SwerveModulePosition[] getModulesPosition(int timeStampIndex) {
-        SwerveModulePosition[] swerveModulePositions = new SwerveModulePosition[swerveModules.length];
-        for (int moduleIndex = 0; moduleIndex < 4; moduleIndex++)
-            swerveModulePositions[moduleIndex] = swerveModules[moduleIndex].getOdometryPositions()[timeStampIndex];
-        return swerveModulePositions;
+                odometryThreadInputs.measurementTimeStamps[timeStampIndex], rawGyroRotation, modulesPosition);
     }
 
-    private SwerveModulePosition[] getModulesDelta(SwerveModulePosition[] freshModulesPosition) {
-        SwerveModulePosition[] deltas = new SwerveModulePosition[swerveModules.length];
+    /**
+     * Updates {@link #modulesPosition} and {@link #modulesDelta} to a sample, in place.
+     *
+     * <p>The pose estimator copies the positions it keeps, so the same buffers are reused for every sample.
+     */
+    private void updateModulesPositionAndDelta(int timeStampIndex) {
         for (int moduleIndex = 0; moduleIndex < 4; moduleIndex++) {
-            final double deltaDistanceMeters =
-                    freshModulesPosition[moduleIndex].distanceMeters - lastModulePositions[moduleIndex].distanceMeters;
-            deltas[moduleIndex] =
-                    new SwerveModulePosition(deltaDistanceMeters, freshModulesPosition[moduleIndex].angle);
-            lastModulePositions[moduleIndex] = freshModulesPosition[moduleIndex];
+            final SwerveModulePosition freshPosition =
+                    swerveModules[moduleIndex].getOdometryPositions()[timeStampIndex];
+            modulesPosition[moduleIndex].distanceMeters = freshPosition.distanceMeters;
+            modulesPosition[moduleIndex].angle = freshPosition.angle;
+
+            modulesDelta[moduleIndex].distanceMeters =
+                    freshPosition.distanceMeters - lastModulePositions[moduleIndex].distanceMeters;
+            modulesDelta[moduleIndex].angle = freshPosition.angle;
+
+            lastModulePositions[moduleIndex].distanceMeters = freshPosition.distanceMeters;
+            lastModulePositions[moduleIndex].angle = freshPosition.angle;
         }
-        return deltas;
     }
 
     /**
@@ -179,7 +332,9 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
      */
     private boolean updateRobotFacingWithGyroReading(int timeStampIndex) {
         if (!gyroInputs.connected) return false;
-        rawGyroRotation = gyroInputs.odometryYawPositions[timeStampIndex];
+        /* the rotation is immutable, it's only created again if the gyro has turned */
+        final double yawRad = gyroInputs.odometryYawPositionsRad[timeStampIndex];
+        if (rawGyroRotation.getRadians() != yawRad) rawGyroRotation = Rotation2d.fromRadians(yawRad);
         return true;
     }
 
@@ -189,24 +344,52 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
      * @param modulesDelta the delta of the swerve modules calculated from the odometry
      */
     private void updateRobotFacingWithOdometry(SwerveModulePosition[] modulesDelta) {
-        Twist2d twist = DRIVE_KINEMATICS.toTwist2d(modulesDelta);
-        rawGyroRotation = rawGyroRotation.plus(new Rotation2d(twist.dtheta));
+        for (int i = 0; i < modulesDelta.length; i++)
+            FourModuleSwerveKinematics.setModuleVector(
+                    moduleVectorsBuffer, i, modulesDelta[i].distanceMeters, modulesDelta[i].angle);
+        rawGyroRotation = rawGyroRotation.plus(new Rotation2d(kinematics.toChassisRotation(moduleVectorsBuffer)));
     }
 
     @Override
     public void runRawChassisSpeeds(ChassisSpeeds speeds) {
+        runRawChassisSpeeds(setPointSpeeds.set(speeds));
+    }
+
+    @Override
+    public void runRobotCentricChassisSpeeds(ChassisSpeeds speeds, boolean discretize) {
+        setPointSpeeds.set(speeds);
+        if (discretize) setPointSpeeds.discretize(Robot.defaultPeriodSecs);
+        runRawChassisSpeeds(setPointSpeeds);
+    }
+
+    private void runRawChassisSpeeds(MutableChassisSpeeds speeds) {
         OptionalDouble angularVelocityOverride =
-                swerveHeadingController.calculate(getMeasuredChassisSpeedsFieldRelative(), getPose());
-        if (angularVelocityOverride.isPresent())
-            speeds = new ChassisSpeeds(
-                    speeds.vxMetersPerSecond, speeds.vyMetersPerSecond, angularVelocityOverride.getAsDouble());
+                headingController.calculate(getMeasuredChassisSpeedsFieldRelative(), getPose());
+        if (angularVelocityOverride.isPresent()) speeds.omegaRadiansPerSecond = angularVelocityOverride.getAsDouble();
+
+        if (moduleControlThread != null) {
+            moduleControlThread.requestSpeeds(speeds.toChassisSpeeds());
+            Logger.recordOutput("SwerveStates/Setpoints", moduleControlThread.getLatestSetPoints());
+            Logger.recordOutput("SwerveStates/SetpointsOptimized", moduleControlThread.getLatestOptimizedSetPoints());
+            return;
+        }
 
-        SwerveModuleState[] setPointStates = DRIVE_KINEMATICS.toSwerveModuleStates(speeds);
-        SwerveDriveKinematics.desaturateWheelSpeeds(setPointStates, CHASSIS_MAX_VELOCITY);
+        kinematics.toModuleStates(
+                speeds.vxMetersPerSecond,
+                speeds.vyMetersPerSecond,
+                speeds.omegaRadiansPerSecond,
+                setPointSpeedsBuffer,
+                setPointHeadingsBuffer);
+        FourModuleSwerveKinematics.desaturate(setPointSpeedsBuffer, CHASSIS_MAX_VELOCITY.in(MetersPerSecond));
 
         // Send setpoints to modules
+        SwerveModuleState[] setPointStates = new SwerveModuleState[4];
         SwerveModuleState[] optimizedSetpointStates = new SwerveModuleState[4];
-        for (int i = 0; i < 4; i++) optimizedSetpointStates[i] = swerveModules[i].runSetPoint(setPointStates[i]);
+        for (int i = 0; i < 4; i++) {
+            setPointStates[i] = new SwerveModuleState(
+                    setPointSpeedsBuffer[i], Rotation2d.fromRadians(setPointHeadingsBuffer[i]));
+            optimizedSetpointStates[i] = swerveModules[i].runSetPoint(setPointStates[i]);
+        }
 
         Logger.recordOutput("SwerveStates/Setpoints", setPointStates);
         Logger.recordOutput("SwerveStates/SetpointsOptimized", optimizedSetpointStates);
@@ -216,7 +399,7 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
     public void stop() {
         Rotation2d[] swerveHeadings = new Rotation2d[swerveModules.length];
         for (int i = 0; i < swerveHeadings.length; i++) swerveHeadings[i] = new Rotation2d();
-        DRIVE_KINEMATICS.resetHeadings(swerveHeadings);
+        resetModuleHeadings(swerveHeadings);
         HolonomicDriveSubsystem.super.stop();
     }
 
@@ -227,16 +410,44 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
     public void lockChassisWithXFormation() {
         Rotation2d[] swerveHeadings = new Rotation2d[swerveModules.length];
         for (int i = 0; i < swerveHeadings.length; i++) swerveHeadings[i] = MODULE_TRANSLATIONS[i].getAngle();
-        DRIVE_KINEMATICS.resetHeadings(swerveHeadings);
+        resetModuleHeadings(swerveHeadings);
         HolonomicDriveSubsystem.super.stop();
     }
 
+    private void resetModuleHeadings(Rotation2d[] swerveHeadings) {
+        if (moduleControlThread != null) moduleControlThread.resetHeadings(swerveHeadings);
+        else kinematics.resetHeadings(swerveHeadings);
+    }
+
     /** Returns the module states (turn angles and drive velocities) for all the modules. */
     @AutoLogOutput(key = "SwerveStates/Measured")
     private SwerveModuleState[] getModuleStates() {
-        SwerveModuleState[] states = new SwerveModuleState[swerveModules.length];
-        for (int i = 0; i < states.length; i++) states[i] = swerveModules[i].getMeasuredState();
-        return states;
+        return robotState.moduleStates();
+    }
+
+    /** Computes the state of the robot from the measured modules, after the estimation. */
+    private void updateRobotState(Pose2d pose) {
+        final SwerveModuleState[] moduleStates = new SwerveModuleState[swerveModules.length];
+        for (int i = 0; i < moduleStates.length; i++) {
+            moduleStates[i] = swerveModules[i].getMeasuredState();
+            FourModuleSwerveKinematics.setModuleVector(
+                    moduleVectorsBuffer, i, moduleStates[i].speedMetersPerSecond, moduleStates[i].angle);
+        }
+        kinematics.toChassisMotion(moduleVectorsBuffer, chassisMotionBuffer);
+        final ChassisSpeeds speedsRobotRelative =
+                new ChassisSpeeds(chassisMotionBuffer[0], chassisMotionBuffer[1], chassisMotionBuffer[2]);
+
+        robotState = new RobotState(
+                MapleTimeUtils.getLogTimeSeconds(),
+                pose,
+                speedsRobotRelative,
+                ChassisSpeeds.fromRobotRelativeSpeeds(speedsRobotRelative, pose.getRotation()),
+                moduleStates);
+    }
+
+    /** @return the state of the robot in this cycle */
+    public RobotState getRobotState() {
+        return robotState;
     }
 
     /** Returns the module positions (turn angles and drive positions) for all the modules. */
@@ -249,17 +460,48 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
     @AutoLogOutput(key = "Odometry/RobotPosition")
     @Override
     public Pose2d getPose() {
+        return robotState.pose();
+    }
+
+    @Override
+    public Rotation2d getFacing() {
+        return robotState.facing();
+    }
+
+    private Pose2d getEstimatedPose() {
+        if (threadedPoseEstimator != null) return threadedPoseEstimator.getLatestSnapshot().pose();
         return poseEstimator.getEstimatedPosition();
     }
 
+    /**
+     * Looks up the estimated pose in the past, from the history published by the odometry thread if the pose is
+     * estimated there.
+     *
+     * @param timeStamp the time stamp, in seconds
+     * @return the estimated pose at the time stamp, or empty if not available
+     */
+    @Override
+    public Optional<Pose2d> getPoseAt(double timeStamp) {
+        if (threadedPoseEstimator != null) return threadedPoseEstimator.getPoseAt(timeStamp);
+        return poseEstimator.getPoseAt(timeStamp);
+    }
+
     @Override
     public void setPose(Pose2d pose) {
-        poseEstimator.resetPosition(rawGyroRotation, getModuleLatestPositions(), pose);
+        if (threadedPoseEstimator != null) threadedPoseEstimator.resetPose(pose);
+        else poseEstimator.resetPosition(rawGyroRotation, getModuleLatestPositions(), pose);
+        /* the reset is visible to the consumers right away, even if the odometry thread has not applied it yet */
+        updateRobotState(pose);
     }
 
     @Override
     public ChassisSpeeds getMeasuredChassisSpeedsRobotRelative() {
-        return DRIVE_KINEMATICS.toChassisSpeeds(getModuleStates());
+        return robotState.speedsRobotRelative();
+    }
+
+    @Override
+    public ChassisSpeeds getMeasuredChassisSpeedsFieldRelative() {
+        return robotState.speedsFieldRelative();
     }
 
     @Override
@@ -282,12 +524,21 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
         return CHASSIS_MAX_ANGULAR_ACCELERATION.in(RadiansPerSecondPerSecond);
     }
 
+    @Override
+    public ChassisHeadingController getHeadingController() {
+        return headingController;
+    }
+
     @Override
     public void addVisionMeasurement(
             MapleMultiTagPoseEstimator.RobotPoseEstimationResult poseEstimationResult, double timestamp) {
         previousMeasurementTimeStamp = Math.max(timestamp, previousMeasurementTimeStamp);
-        poseEstimator.addVisionMeasurement(
-                poseEstimationResult.pointEstimation, timestamp, poseEstimationResult.getEstimationStandardError());
+        if (threadedPoseEstimator != null)
+            threadedPoseEstimator.addVisionMeasurement(
+                    poseEstimationResult.pointEstimation, timestamp, poseEstimationResult.getEstimationStandardError());
+        else
+            poseEstimator.addVisionMeasurement(
+                    poseEstimationResult.pointEstimation, timestamp, poseEstimationResult.getEstimationStandardError());
     }
 
     private double previousMeasurementTimeStamp = -1;
@@ -297,24 +548,24 @@ public class SwerveDrive extends MapleSubsystem implements HolonomicDriveSubsyst
             builder.setSmartDashboardType("SwerveDrive");
 
             builder.addDoubleProperty(
-                    "Front Left Angle", () -> swerveModules[0].getSteerFacing().getRadians(), null);
+                    "Front Left Angle", () -> robotState.moduleStates()[0].angle.getRadians(), null);
             builder.addDoubleProperty(
-                    "Front Left Velocity", () -> swerveModules[0].getDriveVelocityMetersPerSec(), null);
+                    "Front Left Velocity", () -> robotState.moduleStates()[0].speedMetersPerSecond, null);
 
             builder.addDoubleProperty(
-                    "Front Right Angle", () -> swerveModules[0].getSteerFacing().getRadians(), null);
+                    "Front Right Angle", () -> robotState.moduleStates()[1].angle.getRadians(), null);
             builder.addDoubleProperty(
-                    "Front Right Velocity", () -> swerveModules[0].getDriveVelocityMetersPerSec(), null);
+                    "Front Right Velocity", () -> robotState.moduleStates()[1].speedMetersPerSecond, null);
 
             builder.addDoubleProperty(
-                    "Back Left Angle", () -> swerveModules[0].getSteerFacing().getRadians(), null);
+                    "Back Left Angle", () -> robotState.moduleStates()[2].angle.getRadians(), null);
             builder.addDoubleProperty(
-                    "Back Left Velocity", () -> swerveModules[0].getDriveVelocityMetersPerSec(), null);
+                    "Back Left Velocity", () -> robotState.moduleStates()[2].speedMetersPerSecond, null);
 
             builder.addDoubleProperty(
-                    "Back Right Angle", () -> swerveModules[0].getSteerFacing().getRadians(), null);
+                    "Back Right Angle", () -> robotState.moduleStates()[3].angle.getRadians(), null);
             builder.addDoubleProperty(
-                    "Back Right Velocity", () -> swerveModules[0].getDriveVelocityMetersPerSec(), null);
+                    "Back Right Velocity", () -> robotState.moduleStates()[3].speedMetersPerSecond, null);
 
             builder.addDoubleProperty(
                     "Robot Angle",
@@ -16,21 +16,28 @@ import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import frc.robot.constants.DriveTrainConstants;
 import frc.robot.subsystems.MapleSubsystem;
+import frc.robot.subsystems.drive.IO.ClosedLoopModuleIO;
 import frc.robot.subsystems.drive.IO.ModuleIO;
-import frc.robot.subsystems.drive.IO.ModuleIOInputsAutoLogged;
 import frc.robot.utils.Alert;
 import frc.robot.utils.CustomMaths.SwerveStateProjection;
 import frc.robot.utils.CustomPIDs.MaplePIDController;
+import java.util.Arrays;
 import org.littletonrobotics.junction.Logger;
 
 public class SwerveModule extends MapleSubsystem {
     private final ModuleIO io;
     private final String name;
-    private final ModuleIOInputsAutoLogged inputs = new ModuleIOInputsAutoLogged();
+    private final ModuleIO.ModuleIOInputs inputs = new ModuleIO.ModuleIOInputs();
 
     private final PIDController turnCloseLoop, driveCloseLoop;
+    /* the io, if the module loops are closed on the motor controllers, or null */
+    private final ClosedLoopModuleIO closedLoopIO;
     private SwerveModuleState setPoint;
+    /* whether the module is run by the module control thread, in which case this thread must not touch the io */
+    private boolean controlledOnThread = false;
+    /* the positions are reused across cycles, only the first odometrySamplesCount of them are valid */
     private SwerveModulePosition[] odometryPositions = new SwerveModulePosition[] {};
+    private int odometrySamplesCount = 0;
 
     private final Alert hardwareFaultAlert;
 
@@ -43,6 +50,9 @@ public class SwerveModule extends MapleSubsystem {
 
         turnCloseLoop = new MaplePIDController(STEER_CLOSE_LOOP);
         driveCloseLoop = new MaplePIDController(DRIVE_CLOSE_LOOP);
+        closedLoopIO = DriveTrainConstants.MODULE_CLOSED_LOOP_ON_CONTROLLER && io instanceof ClosedLoopModuleIO
+                ? (ClosedLoopModuleIO) io
+                : null;
 
         CommandScheduler.getInstance().unregisterSubsystem(this);
 
@@ -62,42 +72,83 @@ public class SwerveModule extends MapleSubsystem {
     }
 
     private void updateOdometryPositions() {
-        odometryPositions = new SwerveModulePosition[inputs.odometryDriveWheelRevolutions.length];
-        for (int i = 0; i < odometryPositions.length; i++) {
-            double positionMeters = driveWheelRevolutionsToMeters(inputs.odometryDriveWheelRevolutions[i]);
-            Rotation2d angle = inputs.odometrySteerPositions[i];
-            odometryPositions[i] = new SwerveModulePosition(positionMeters, angle);
+        /* the arrays in the logs are never shorter than the samples count, unless the log is corrupted */
+        odometrySamplesCount = Math.min(
+                inputs.odometrySamplesCount,
+                Math.min(inputs.odometryDriveWheelRevolutions.length, inputs.odometrySteerPositionsRad.length));
+        if (odometryPositions.length < odometrySamplesCount) {
+            final int previousLength = odometryPositions.length;
+            odometryPositions = Arrays.copyOf(odometryPositions, odometrySamplesCount);
+            for (int i = previousLength; i < odometrySamplesCount; i++)
+                odometryPositions[i] = new SwerveModulePosition();
+        }
+
+        /* the angles are immutable, they are only created again for the samples where the module has turned */
+        for (int i = 0; i < odometrySamplesCount; i++) {
+            final SwerveModulePosition position = odometryPositions[i];
+            final double steerRad = inputs.odometrySteerPositionsRad[i];
+            position.distanceMeters = driveWheelRevolutionsToMeters(inputs.odometryDriveWheelRevolutions[i]);
+            if (position.angle.getRadians() != steerRad) position.angle = Rotation2d.fromRadians(steerRad);
         }
     }
 
-    private void runSteerCloseLoop() {
+    private void runSteerCloseLoop(Rotation2d steerFacing) {
         turnCloseLoop.setSetpoint(setPoint.angle.getRadians());
-        io.setSteerPowerPercent(turnCloseLoop.calculate(getSteerFacing().getRadians()));
+        io.setSteerPowerPercent(turnCloseLoop.calculate(steerFacing.getRadians()));
     }
 
-    private void runDriveControlLoop() {
-        final double adjustSpeedSetpointMetersPerSec = SwerveStateProjection.project(setPoint, getSteerFacing());
+    private void runDriveControlLoop(Rotation2d steerFacing, double driveVelocityMetersPerSec) {
+        final double adjustSpeedSetpointMetersPerSec = SwerveStateProjection.project(setPoint, steerFacing);
         io.setDriveVoltage(DRIVE_OPEN_LOOP.calculate(adjustSpeedSetpointMetersPerSec)
-                + driveCloseLoop.calculate(getDriveVelocityMetersPerSec(), adjustSpeedSetpointMetersPerSec));
+                + driveCloseLoop.calculate(driveVelocityMetersPerSec, adjustSpeedSetpointMetersPerSec));
+    }
+
+    /* the feedforward is still calculated here, only the feedback runs on the motor controllers */
+    private void requestSetPointOnController(Rotation2d steerFacing) {
+        final double adjustSpeedSetpointMetersPerSec = SwerveStateProjection.project(setPoint, steerFacing);
+        closedLoopIO.requestDriveVelocity(
+                metersToDriveWheelRevolutions(adjustSpeedSetpointMetersPerSec),
+                DRIVE_OPEN_LOOP.calculate(adjustSpeedSetpointMetersPerSec));
+        closedLoopIO.requestSteerFacing(setPoint.angle);
     }
 
     /** Runs the module with the specified setpoint state. Returns the optimized state. */
     public SwerveModuleState runSetPoint(SwerveModuleState state) {
-        this.setPoint = SwerveModuleState.optimize(state, getSteerFacing());
+        return runSetPoint(state, getSteerFacing(), getDriveVelocityMetersPerSec());
+    }
+
+    /**
+     * Runs the module with the specified setpoint state, using the given measurements. Returns the optimized state.
+     *
+     * <p>Called from the module control thread if it's enabled, the main thread must not run the module in that case.
+     */
+    public SwerveModuleState runSetPoint(
+            SwerveModuleState state, Rotation2d steerFacing, double driveVelocityMetersPerSec) {
+        this.setPoint = SwerveModuleState.optimize(state, steerFacing);
 
         if (Math.abs(state.speedMetersPerSecond) < 0.01) {
             io.setDriveVoltage(0);
             io.setSteerPowerPercent(0);
             return this.setPoint = new SwerveModuleState();
         }
-        runDriveControlLoop();
-        runSteerCloseLoop();
+        if (closedLoopIO != null) requestSetPointOnController(steerFacing);
+        else {
+            runDriveControlLoop(steerFacing, driveVelocityMetersPerSec);
+            runSteerCloseLoop(steerFacing);
+        }
 
         return this.setPoint;
     }
 
+    /** Hands the control of the module over to the {@link ModuleControlThread}, before it starts. */
+    void setControlledOnThread() {
+        this.controlledOnThread = true;
+    }
+
     @Override
     public void onDisable() {
+        /* the module control thread stops the module, see ModuleControlThread#requestStop() */
+        if (controlledOnThread) return;
         io.setSteerPowerPercent(0);
         io.setDriveVoltage(0);
     }
@@ -120,6 +171,10 @@ public class SwerveModule extends MapleSubsystem {
         return Units.rotationsToRadians(driveWheelRevolutions) * DriveTrainConstants.WHEEL_RADIUS.in(Meters);
     }
 
+    private double metersToDriveWheelRevolutions(double meters) {
+        return Units.radiansToRotations(meters / DriveTrainConstants.WHEEL_RADIUS.in(Meters));
+    }
+
     /** Returns the current drive velocity of the module in meters per second. */
     public double getDriveVelocityMetersPerSec() {
         return driveWheelRevolutionsToMeters(inputs.driveWheelFinalVelocityRevolutionsPerSec);
@@ -135,8 +190,39 @@ public class SwerveModule extends MapleSubsystem {
         return new SwerveModuleState(getDriveVelocityMetersPerSec(), getSteerFacing());
     }
 
-    /** Returns the module positions received this cycle. */
+    /** @return whether the module position can be read from the odometry frames, on the odometry thread */
+    public boolean supportsOdometryFrames() {
+        return io.supportsOdometryFrames();
+    }
+
+    /** Returns the drive position in the odometry frame being captured, called from the odometry thread. */
+    public double getOdometryFrameDriveDistanceMeters() {
+        return driveWheelRevolutionsToMeters(io.getOdometryFrameDriveWheelRevolutions());
+    }
+
+    /** Returns the steer facing in the odometry frame being captured, called from the odometry thread. */
+    public Rotation2d getOdometryFrameSteerFacing() {
+        return io.getOdometryFrameSteerFacing();
+    }
+
+    /** Returns the module position in the odometry frame being captured, called from the odometry thread. */
+    public SwerveModulePosition getOdometryFramePosition() {
+        return new SwerveModulePosition(
+                driveWheelRevolutionsToMeters(io.getOdometryFrameDriveWheelRevolutions()),
+                io.getOdometryFrameSteerFacing());
+    }
+
+    /**
+     * Returns the module positions received this cycle, the array and the positions are reused in the next cycles.
+     *
+     * @return the positions, of which only the first {@link #getOdometrySamplesCount()} are valid
+     */
     public SwerveModulePosition[] getOdometryPositions() {
         return odometryPositions;
     }
+
+    /** Returns the amount of module positions received this cycle. */
+    public int getOdometrySamplesCount() {
+        return odometrySamplesCount;
+    }
 }
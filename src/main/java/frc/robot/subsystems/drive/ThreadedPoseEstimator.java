@@ -0,0 +1,209 @@
+// By 5516 Iron Maple https://github.com/Shenzhen-Robotics-Alliance/
+package frc.robot.subsystems.drive;
+
+import static frc.robot.constants.DriveTrainConstants.MODULE_TRANSLATIONS;
+import static frc.robot.constants.DriveTrainConstants.ODOMETRY_MAX_FREQUENCY;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.subsystems.drive.IO.GyroIO;
+import frc.robot.subsystems.drive.IO.OdometryThread;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the pose estimation on the odometry thread, integrating every frame as soon as it is captured.
+ *
+ * <p>The pose estimator is confined to the odometry thread. The main thread reads the latest {@link Snapshot} through
+ * an atomic reference, and hands the vision measurements and the pose resets over to the odometry thread through
+ * queues, which are applied on the next frame.
+ *
+ * <p>The odometry thread also publishes the odometry poses of the recent frames, so that the main thread can look up
+ * the pose at the capture time of each vision frame, see {@link #getPoseAt(double)}.
+ */
+public class ThreadedPoseEstimator implements OdometryThread.FrameListener {
+    /**
+     * An immutable snapshot of the estimation.
+     *
+     * @param pose the estimated pose of the robot
+     * @param robotRelativeSpeeds the speeds of the robot, measured from the odometry between the last two frames
+     * @param timeStamp the time stamp of the frame the snapshot is estimated from
+     */
+    public record Snapshot(Pose2d pose, ChassisSpeeds robotRelativeSpeeds, double timeStamp) {}
+
+    private record VisionMeasurement(Pose2d pose, double timeStamp, Matrix<N3, N1> standardDeviations) {}
+
+    private final SwerveModule[] swerveModules;
+    private final GyroIO gyroIO;
+
+    /* accessed by the odometry thread only */
+    private final DrivePoseEstimator poseEstimator;
+    private final SwerveModulePosition[] modulePositions;
+    private final FourModuleSwerveKinematics kinematics = new FourModuleSwerveKinematics(MODULE_TRANSLATIONS);
+    private final double[] moduleDeltasBuffer = new double[FourModuleSwerveKinematics.MODULES_COUNT * 2],
+            twistBuffer = new double[3];
+    private Rotation2d rawGyroRotation = new Rotation2d();
+    private double previousFrameTimeStamp = Double.NaN;
+    /* the pose integrated from the odometry only, its motion between two frames is never corrected by the vision */
+    private Pose2d odometryPose = new Pose2d();
+
+    /* the odometry poses of the frames in the history, circular, guarded by the history lock */
+    private static final int HISTORY_CAPACITY =
+            (int) Math.ceil(ODOMETRY_MAX_FREQUENCY * MaplePoseEstimator.HISTORY_SECONDS);
+    private final Object historyLock = new Object();
+    private final double[] historyTimes = new double[HISTORY_CAPACITY],
+            historyX = new double[HISTORY_CAPACITY],
+            historyY = new double[HISTORY_CAPACITY],
+            historyTheta = new double[HISTORY_CAPACITY];
+    private int historyStart = 0, historySize = 0;
+    /* the estimated pose at the newest frame of the history */
+    private Pose2d historyLatestEstimation = new Pose2d();
+
+    private final AtomicReference<Snapshot> latestSnapshot;
+    private final AtomicReference<Pose2d> pendingPoseReset = new AtomicReference<>(null);
+    private final Queue<VisionMeasurement> pendingVisionMeasurements = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param swerveModules the swerve modules, all of them must support odometry frames
+     * @param gyroIO the gyro, its yaw is used if available in the frames
+     * @param poseEstimator the pose estimator, initialized with zero gyro rotation and zero module positions, which is
+     *     handed over to the odometry thread and must no longer be accessed by the caller
+     */
+    public ThreadedPoseEstimator(SwerveModule[] swerveModules, GyroIO gyroIO, DrivePoseEstimator poseEstimator) {
+        this.swerveModules = swerveModules;
+        this.gyroIO = gyroIO;
+        this.poseEstimator = poseEstimator;
+        this.modulePositions = new SwerveModulePosition[swerveModules.length];
+        for (int i = 0; i < swerveModules.length; i++) modulePositions[i] = new SwerveModulePosition();
+        this.latestSnapshot =
+                new AtomicReference<>(new Snapshot(poseEstimator.getEstimatedPosition(), new ChassisSpeeds(), 0));
+    }
+
+    /** @return whether all the modules can be read from the odometry frames */
+    public static boolean isSupported(SwerveModule[] swerveModules) {
+        for (SwerveModule module : swerveModules) if (!module.supportsOdometryFrames()) return false;
+        return true;
+    }
+
+    @Override
+    public void onFrame(double frameTimeStamp) {
+        final Pose2d poseReset = pendingPoseReset.getAndSet(null);
+        if (poseReset != null) poseEstimator.resetPosition(rawGyroRotation, modulePositions, poseReset);
+
+        for (int i = 0; i < swerveModules.length; i++) {
+            final SwerveModulePosition freshPosition = swerveModules[i].getOdometryFramePosition();
+            FourModuleSwerveKinematics.setModuleVector(
+                    moduleDeltasBuffer,
+                    i,
+                    freshPosition.distanceMeters - modulePositions[i].distanceMeters,
+                    freshPosition.angle);
+            modulePositions[i] = freshPosition;
+        }
+        kinematics.toChassisMotion(moduleDeltasBuffer, twistBuffer);
+
+        final Rotation2d gyroYaw = gyroIO.getOdometryFrameYaw(), previousGyroRotation = rawGyroRotation;
+        rawGyroRotation = gyroYaw != null ? gyroYaw : rawGyroRotation.plus(new Rotation2d(twistBuffer[2]));
+        poseEstimator.updateWithTime(frameTimeStamp, rawGyroRotation, modulePositions);
+        /* the first frame moves the modules from the zero positions the estimation starts from */
+        if (!Double.isNaN(previousFrameTimeStamp))
+            odometryPose = odometryPose.exp(new Twist2d(
+                    twistBuffer[0], twistBuffer[1], rawGyroRotation.minus(previousGyroRotation).getRadians()));
+
+        VisionMeasurement visionMeasurement;
+        while ((visionMeasurement = pendingVisionMeasurements.poll()) != null)
+            poseEstimator.addVisionMeasurement(
+                    visionMeasurement.pose, visionMeasurement.timeStamp, visionMeasurement.standardDeviations);
+
+        final double dt = frameTimeStamp - previousFrameTimeStamp;
+        previousFrameTimeStamp = frameTimeStamp;
+        final ChassisSpeeds speeds = dt > 0
+                ? new ChassisSpeeds(twistBuffer[0] / dt, twistBuffer[1] / dt, twistBuffer[2] / dt)
+                : new ChassisSpeeds();
+        latestSnapshot.set(new Snapshot(poseEstimator.getEstimatedPosition(), speeds, frameTimeStamp));
+        recordHistory(frameTimeStamp, poseEstimator.getEstimatedPosition());
+    }
+
+    private void recordHistory(double frameTimeStamp, Pose2d estimation) {
+        synchronized (historyLock) {
+            if (historySize == HISTORY_CAPACITY) {
+                historyStart = (historyStart + 1) % HISTORY_CAPACITY;
+                historySize--;
+            }
+            final int index = historyIndex(historySize++);
+            historyTimes[index] = frameTimeStamp;
+            historyX[index] = odometryPose.getX();
+            historyY[index] = odometryPose.getY();
+            historyTheta[index] = odometryPose.getRotation().getRadians();
+            historyLatestEstimation = estimation;
+
+            while (historySize > 1
+                    && frameTimeStamp - historyTimes[historyStart] >= MaplePoseEstimator.HISTORY_SECONDS) {
+                historyStart = (historyStart + 1) % HISTORY_CAPACITY;
+                historySize--;
+            }
+        }
+    }
+
+    /**
+     * Looks up the estimated pose at a time stamp, called from the main thread.
+     *
+     * <p>The pose is the latest estimation, moved back by the odometry since the time stamp. So the motion between any
+     * two time stamps is the motion measured by the odometry, the same as in the pose estimators between two vision
+     * measurements.
+     *
+     * @param timeStamp the time stamp, in seconds, clamped to the history
+     * @return the estimated pose at the time stamp, or empty if no frame has been received yet
+     */
+    public Optional<Pose2d> getPoseAt(double timeStamp) {
+        synchronized (historyLock) {
+            if (historySize == 0) return Optional.empty();
+            final int newest = historyIndex(historySize - 1);
+            timeStamp = MathUtil.clamp(timeStamp, historyTimes[historyStart], historyTimes[newest]);
+
+            int before = 0;
+            while (before + 1 < historySize && historyTimes[historyIndex(before + 1)] <= timeStamp) before++;
+            final int i0 = historyIndex(before), i1 = historyIndex(Math.min(before + 1, historySize - 1));
+            final double interval = historyTimes[i1] - historyTimes[i0];
+            final double t = interval > 0 ? (timeStamp - historyTimes[i0]) / interval : 0;
+            final Pose2d odometryPoseAtTimeStamp = new Pose2d(
+                    historyX[i0] + (historyX[i1] - historyX[i0]) * t,
+                    historyY[i0] + (historyY[i1] - historyY[i0]) * t,
+                    Rotation2d.fromRadians(historyTheta[i0]
+                            + MathUtil.angleModulus(historyTheta[i1] - historyTheta[i0]) * t));
+            final Pose2d newestOdometryPose = new Pose2d(
+                    historyX[newest], historyY[newest], Rotation2d.fromRadians(historyTheta[newest]));
+
+            return Optional.of(historyLatestEstimation.transformBy(
+                    new Transform2d(newestOdometryPose, odometryPoseAtTimeStamp)));
+        }
+    }
+
+    private int historyIndex(int logicalIndex) {
+        return (historyStart + logicalIndex) % HISTORY_CAPACITY;
+    }
+
+    /** @return the latest estimation, called from any thread */
+    public Snapshot getLatestSnapshot() {
+        return latestSnapshot.get();
+    }
+
+    /** Resets the estimated pose on the next frame, called from the main thread. */
+    public void resetPose(Pose2d pose) {
+        pendingPoseReset.set(pose);
+    }
+
+    /** Adds a vision measurement to the estimator on the next frame, called from the main thread. */
+    public void addVisionMeasurement(Pose2d pose, double timeStamp, Matrix<N3, N1> standardDeviations) {
+        pendingVisionMeasurements.offer(new VisionMeasurement(pose, timeStamp, standardDeviations));
+    }
+}
@@ -49,12 +49,12 @@ public class AprilTagVision extends MapleSubsystem {
         io.updateInputs(inputs);
         Logger.processInputs(APRIL_TAGS_VISION_PATH + "Inputs", inputs);
 
-        for (int i = 0; i < inputs.camerasInputs.length; i++)
-            this.camerasDisconnectedAlerts[i].setActivated(!inputs.camerasInputs[i].cameraConnected);
+        for (int i = 0; i < inputs.camerasAmount; i++)
+            this.camerasDisconnectedAlerts[i].setActivated(!inputs.camerasConnected[i]);
 
-        result = multiTagPoseEstimator.estimateRobotPose(inputs.camerasInputs, driveSubsystem.getPose());
-        result.ifPresent(robotPoseEstimationResult ->
-                driveSubsystem.addVisionMeasurement(robotPoseEstimationResult, getResultsTimeStamp()));
+        result = multiTagPoseEstimator.estimateRobotPose(inputs, driveSubsystem.getPose(), driveSubsystem::getPoseAt);
+        result.ifPresent(robotPoseEstimationResult -> driveSubsystem.addVisionMeasurement(
+                robotPoseEstimationResult, robotPoseEstimationResult.timeStampSeconds));
 
         Logger.recordOutput(
                 APRIL_TAGS_VISION_PATH + "Results/Estimated Pose", displayVisionPointEstimateResult(result));
@@ -69,17 +69,4 @@ public class AprilTagVision extends MapleSubsystem {
             return new Pose2d(result.get().pointEstimation.getTranslation(), driveSubsystem.getFacing());
         return result.get().pointEstimation;
     }
-
-    private double getResultsTimeStamp() {
-        return inputs.inputsFetchedRealTimeStampSeconds - getResultsAverageLatencySeconds(inputs.camerasInputs);
-    }
-
-    private static double getResultsAverageLatencySeconds(AprilTagVisionIO.CameraInputs[] camerasInputs) {
-        if (camerasInputs.length == 0) return 0;
-        double totalLatencySeconds = 0;
-        for (AprilTagVisionIO.CameraInputs cameraInputs : camerasInputs)
-            totalLatencySeconds += cameraInputs.resultsDelaySeconds;
-
-        return totalLatencySeconds / camerasInputs.length;
-    }
 }
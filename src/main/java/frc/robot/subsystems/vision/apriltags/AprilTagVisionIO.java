@@ -1,104 +1,241 @@
 package frc.robot.subsystems.vision.apriltags;
 
+import edu.wpi.first.math.geometry.Quaternion;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.wpilibj.DriverStation;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import org.littletonrobotics.junction.LogTable;
 import org.littletonrobotics.junction.inputs.LoggableInputs;
 import org.photonvision.targeting.PhotonPipelineResult;
 
 public interface AprilTagVisionIO {
+    /**
+     * The inputs of a frame of a camera.
+     *
+     * <p>The transforms are stored as primitives, {@code [x, y, z, qw, qx, qy, qz]}, so that a frame can be filled and
+     * logged without allocating; {@link #getBestCameraToTarget(int)} and {@link #getBestFieldToCamera()} build them
+     * on demand.
+     */
     class CameraInputs {
         public static final int MAX_TARGET_PER_CAMERA = 5;
-        public boolean cameraConnected;
+        private static final int TRANSFORM_LENGTH = 7;
+        /* capture time stamp, results delay, targets count, field-to-camera present, field-to-camera transform */
+        private static final int PACKED_HEADER_LENGTH = 4 + TRANSFORM_LENGTH;
+        /* fiducial id, camera-to-target transform */
+        private static final int PACKED_TARGET_LENGTH = 1 + TRANSFORM_LENGTH;
+
         public double resultsDelaySeconds;
+        /* the time at which the frame was captured, in the time base of the real time stamps, in seconds */
+        public double captureTimeStampSeconds;
         public int currentTargetsCount;
-        public final int[] fiducialMarksID;
-        public final Transform3d[] bestCameraToTargets;
-        public Optional<Transform3d> bestFieldToCamera = Optional.empty();
+        public final int[] fiducialMarksID = new int[MAX_TARGET_PER_CAMERA];
+        private final double[] bestCameraToTargets = new double[MAX_TARGET_PER_CAMERA * TRANSFORM_LENGTH];
+        private boolean bestFieldToCameraPresent;
+        private final double[] bestFieldToCamera = new double[TRANSFORM_LENGTH];
 
         public CameraInputs() {
-            this.fiducialMarksID = new int[MAX_TARGET_PER_CAMERA];
-            this.bestCameraToTargets = new Transform3d[MAX_TARGET_PER_CAMERA];
             clear();
         }
 
         public void clear() {
-            this.cameraConnected = false;
             this.resultsDelaySeconds = 0;
+            this.captureTimeStampSeconds = 0;
             this.currentTargetsCount = 0;
             Arrays.fill(fiducialMarksID, -1);
-            Arrays.fill(bestCameraToTargets, new Transform3d());
+            this.bestFieldToCameraPresent = false;
         }
 
-        public void fromPhotonPipeLine(PhotonPipelineResult pipelineResult, boolean cameraConnected) {
-            this.cameraConnected = cameraConnected;
+        public void fromPhotonPipeLine(PhotonPipelineResult pipelineResult) {
+            clear();
             this.resultsDelaySeconds = pipelineResult.getLatencyMillis() / 1000.0;
+            this.captureTimeStampSeconds = pipelineResult.getTimestampSeconds();
             this.currentTargetsCount = Math.min(pipelineResult.getTargets().size(), MAX_TARGET_PER_CAMERA);
-            Arrays.fill(fiducialMarksID, -1);
-            Arrays.fill(bestCameraToTargets, new Transform3d());
-            for (int i = 0; i < currentTargetsCount && i < MAX_TARGET_PER_CAMERA; i++) {
+            for (int i = 0; i < currentTargetsCount; i++) {
                 this.fiducialMarksID[i] = pipelineResult.getTargets().get(i).getFiducialId();
-                this.bestCameraToTargets[i] = pipelineResult.getTargets().get(i).getBestCameraToTarget();
+                writeTransform(
+                        pipelineResult.getTargets().get(i).getBestCameraToTarget(),
+                        bestCameraToTargets,
+                        i * TRANSFORM_LENGTH);
             }
-            this.bestFieldToCamera = pipelineResult.getMultiTagResult().estimatedPose.isPresent
-                    ? Optional.of(pipelineResult.getMultiTagResult().estimatedPose.best)
-                    : Optional.empty();
+            this.bestFieldToCameraPresent = pipelineResult.getMultiTagResult().estimatedPose.isPresent;
+            if (bestFieldToCameraPresent)
+                writeTransform(pipelineResult.getMultiTagResult().estimatedPose.best, bestFieldToCamera, 0);
+        }
+
+        /** @return the transform from the camera to the target at the index, which must be below the targets count */
+        public Transform3d getBestCameraToTarget(int targetIndex) {
+            return readTransform(bestCameraToTargets, targetIndex * TRANSFORM_LENGTH);
+        }
+
+        /** @return the transform from the field origin to the camera, solved with all the targets, if any */
+        public Optional<Transform3d> getBestFieldToCamera() {
+            return bestFieldToCameraPresent ? Optional.of(readTransform(bestFieldToCamera, 0)) : Optional.empty();
         }
 
-        private static final Transform3d NULL_TRANSFORM = new Transform3d(-114514, -114514, -114514, new Rotation3d());
+        /** @return the amount of values of the packed frame, see {@link #pack(double[], int)} */
+        public int packedLength() {
+            return PACKED_HEADER_LENGTH + currentTargetsCount * PACKED_TARGET_LENGTH;
+        }
+
+        /**
+         * Writes the frame to an array of primitives, so that it is logged as part of a single entry.
+         *
+         * @return the offset following the frame
+         */
+        public int pack(double[] packed, int offset) {
+            packed[offset++] = captureTimeStampSeconds;
+            packed[offset++] = resultsDelaySeconds;
+            packed[offset++] = currentTargetsCount;
+            packed[offset++] = bestFieldToCameraPresent ? 1 : 0;
+            System.arraycopy(bestFieldToCamera, 0, packed, offset, TRANSFORM_LENGTH);
+            offset += TRANSFORM_LENGTH;
+            for (int i = 0; i < currentTargetsCount; i++) {
+                packed[offset++] = fiducialMarksID[i];
+                System.arraycopy(bestCameraToTargets, i * TRANSFORM_LENGTH, packed, offset, TRANSFORM_LENGTH);
+                offset += TRANSFORM_LENGTH;
+            }
+            return offset;
+        }
+
+        /**
+         * Reads a frame written by {@link #pack(double[], int)}.
+         *
+         * @return the offset following the frame
+         */
+        public int unpack(double[] packed, int offset) {
+            clear();
+            this.captureTimeStampSeconds = packed[offset++];
+            this.resultsDelaySeconds = packed[offset++];
+            this.currentTargetsCount = Math.min((int) packed[offset++], MAX_TARGET_PER_CAMERA);
+            this.bestFieldToCameraPresent = packed[offset++] != 0;
+            System.arraycopy(packed, offset, bestFieldToCamera, 0, TRANSFORM_LENGTH);
+            offset += TRANSFORM_LENGTH;
+            for (int i = 0; i < currentTargetsCount; i++) {
+                fiducialMarksID[i] = (int) packed[offset++];
+                System.arraycopy(packed, offset, bestCameraToTargets, i * TRANSFORM_LENGTH, TRANSFORM_LENGTH);
+                offset += TRANSFORM_LENGTH;
+            }
+            return offset;
+        }
 
-        public void fromLog(LogTable table, int cameraID) {
-            final String cameraKey = "camera" + cameraID;
-            this.cameraConnected = table.get(cameraKey + "Connected", false);
+        /**
+         * Reads a frame from the logs written before the frames were packed, with one entry per field.
+         *
+         * @param captureTimeStampSeconds the capture time stamp, which these logs do not have
+         */
+        void fromLegacyLog(LogTable table, String cameraKey, double captureTimeStampSeconds) {
+            clear();
             this.resultsDelaySeconds = table.get(cameraKey + "ResultsDelaySeconds", 0.0);
-            this.currentTargetsCount = table.get(cameraKey + "CurrentTargetsCount", 0);
-            final int[] fiducialMarkIDLogged = table.get(cameraKey + "FiducialMarksID", new int[MAX_TARGET_PER_CAMERA]);
+            this.captureTimeStampSeconds = captureTimeStampSeconds;
+            this.currentTargetsCount = Math.min(table.get(cameraKey + "CurrentTargetsCount", 0), MAX_TARGET_PER_CAMERA);
+            final int[] fiducialMarkIDLogged = table.get(cameraKey + "FiducialMarksID", new int[0]);
             final Transform3d[] bestCameraToTargetsLogged =
-                    table.get(cameraKey + "bestCameraToTargets", new Transform3d[MAX_TARGET_PER_CAMERA]);
-            if (fiducialMarkIDLogged.length != MAX_TARGET_PER_CAMERA
-                    || bestCameraToTargetsLogged.length != MAX_TARGET_PER_CAMERA)
+                    table.get(cameraKey + "bestCameraToTargets", new Transform3d[0]);
+            if (fiducialMarkIDLogged.length < currentTargetsCount
+                    || bestCameraToTargetsLogged.length < currentTargetsCount) {
                 DriverStation.reportError("vision log length not match", false);
-            for (int i = 0; i < MAX_TARGET_PER_CAMERA; i++) {
+                currentTargetsCount = Math.min(fiducialMarkIDLogged.length, bestCameraToTargetsLogged.length);
+            }
+            for (int i = 0; i < currentTargetsCount; i++) {
                 fiducialMarksID[i] = fiducialMarkIDLogged[i];
-                bestCameraToTargets[i] = bestCameraToTargetsLogged[i];
+                writeTransform(bestCameraToTargetsLogged[i], bestCameraToTargets, i * TRANSFORM_LENGTH);
             }
 
-            if (table.get(cameraKey + "bestCameraToFieldPresents", false))
-                this.bestFieldToCamera = Optional.of(table.get(cameraKey + "bestCameraToField", new Transform3d()));
-            else this.bestFieldToCamera = Optional.empty();
+            this.bestFieldToCameraPresent = table.get(cameraKey + "bestCameraToFieldPresents", false);
+            if (bestFieldToCameraPresent)
+                writeTransform(table.get(cameraKey + "bestCameraToField", new Transform3d()), bestFieldToCamera, 0);
+        }
+
+        private static void writeTransform(Transform3d transform, double[] values, int offset) {
+            final Quaternion quaternion = transform.getRotation().getQuaternion();
+            values[offset] = transform.getX();
+            values[offset + 1] = transform.getY();
+            values[offset + 2] = transform.getZ();
+            values[offset + 3] = quaternion.getW();
+            values[offset + 4] = quaternion.getX();
+            values[offset + 5] = quaternion.getY();
+            values[offset + 6] = quaternion.getZ();
         }
 
-        public void writeToLog(LogTable table, int cameraID) {
-            final String cameraKey = "camera" + cameraID;
-            table.put(cameraKey + "Connected", cameraConnected);
-            table.put(cameraKey + "ResultsDelaySeconds", resultsDelaySeconds);
-            table.put(cameraKey + "CurrentTargetsCount", currentTargetsCount);
-            table.put(cameraKey + "FiducialMarksID", fiducialMarksID);
-            table.put(cameraKey + "bestCameraToTargets", bestCameraToTargets);
-            table.put(cameraKey + "bestCameraToFieldPresents", bestFieldToCamera.isPresent());
-            table.put(cameraKey + "bestCameraToField", bestFieldToCamera.orElse(new Transform3d()));
+        private static Transform3d readTransform(double[] values, int offset) {
+            return new Transform3d(
+                    new Translation3d(values[offset], values[offset + 1], values[offset + 2]),
+                    new Rotation3d(new Quaternion(
+                            values[offset + 3], values[offset + 4], values[offset + 5], values[offset + 6])));
         }
     }
 
+    /**
+     * The inputs of all the cameras, with the frames received by each camera since the previous cycle.
+     *
+     * <p>The frames of a camera are in {@link #camerasObservations}, oldest first, of which only the first
+     * {@link #camerasObservationsCount} are valid for this cycle.
+     *
+     * <p>The frames of a camera are logged as a single array, {@code [frames count, frame 0, frame 1, ...]}, with each
+     * frame packed by {@link CameraInputs#pack(double[], int)}. The logs written with one entry per field are still
+     * read in replay.
+     */
     class VisionInputs implements LoggableInputs {
+        /* the maximum amount of frames of a camera per cycle, the older ones are dropped */
+        public static final int MAX_OBSERVATIONS_PER_CAMERA = 4;
         public final int camerasAmount;
-        public final CameraInputs[] camerasInputs;
+        public final boolean[] camerasConnected;
+        public final int[] camerasObservationsCount;
+        public final CameraInputs[][] camerasObservations;
         public double inputsFetchedRealTimeStampSeconds = 0;
 
+        private final String[] cameraConnectedKeys, cameraObservationsKeys;
+
         public VisionInputs(int camerasAmount) {
             this.camerasAmount = camerasAmount;
-            this.camerasInputs = new CameraInputs[camerasAmount];
-            for (int i = 0; i < camerasAmount; i++) camerasInputs[i] = new CameraInputs();
+            this.camerasConnected = new boolean[camerasAmount];
+            this.camerasObservationsCount = new int[camerasAmount];
+            this.camerasObservations = new CameraInputs[camerasAmount][MAX_OBSERVATIONS_PER_CAMERA];
+            this.cameraConnectedKeys = new String[camerasAmount];
+            this.cameraObservationsKeys = new String[camerasAmount];
+            for (int i = 0; i < camerasAmount; i++) {
+                for (int j = 0; j < MAX_OBSERVATIONS_PER_CAMERA; j++) camerasObservations[i][j] = new CameraInputs();
+                cameraConnectedKeys[i] = "camera" + i + "Connected";
+                cameraObservationsKeys[i] = "camera" + i + "Observations";
+            }
+        }
+
+        /**
+         * Sets the frames of a camera received in this cycle.
+         *
+         * @param pipelineResults the new results of the camera, oldest first, at most
+         *     {@link #MAX_OBSERVATIONS_PER_CAMERA}
+         */
+        public void setCameraObservations(
+                int cameraIndex, boolean cameraConnected, List<PhotonPipelineResult> pipelineResults) {
+            camerasConnected[cameraIndex] = cameraConnected;
+            camerasObservationsCount[cameraIndex] = Math.min(pipelineResults.size(), MAX_OBSERVATIONS_PER_CAMERA);
+            for (int j = 0; j < camerasObservationsCount[cameraIndex]; j++)
+                camerasObservations[cameraIndex][j].fromPhotonPipeLine(pipelineResults.get(j));
         }
 
         @Override
         public void toLog(LogTable table) {
             table.put("camerasAmount", camerasAmount);
             table.put("inputsFetchedTimeStamp", inputsFetchedRealTimeStampSeconds);
-            for (int i = 0; i < camerasAmount; i++) camerasInputs[i].writeToLog(table, i);
+            for (int i = 0; i < camerasAmount; i++) {
+                table.put(cameraConnectedKeys[i], camerasConnected[i]);
+
+                int packedLength = 1;
+                for (int j = 0; j < camerasObservationsCount[i]; j++)
+                    packedLength += camerasObservations[i][j].packedLength();
+                /* a new array every cycle, as the log table keeps a reference until it is written */
+                final double[] packed = new double[packedLength];
+                packed[0] = camerasObservationsCount[i];
+                int offset = 1;
+                for (int j = 0; j < camerasObservationsCount[i]; j++)
+                    offset = camerasObservations[i][j].pack(packed, offset);
+                table.put(cameraObservationsKeys[i], packed);
+            }
         }
 
         @Override
@@ -111,7 +248,29 @@ public interface AprilTagVisionIO {
                         + "\n check if the code have changed");
 
             inputsFetchedRealTimeStampSeconds = table.get("inputsFetchedTimeStamp", 0.0);
-            for (int i = 0; i < camerasAmount; i++) camerasInputs[i].fromLog(table, i);
+            for (int i = 0; i < camerasAmount; i++) {
+                camerasConnected[i] = table.get(cameraConnectedKeys[i], false);
+                final double[] packed = table.get(cameraObservationsKeys[i], (double[]) null);
+                if (packed == null) {
+                    fromLegacyLog(table, i);
+                    continue;
+                }
+
+                camerasObservationsCount[i] =
+                        packed.length == 0 ? 0 : Math.min((int) packed[0], MAX_OBSERVATIONS_PER_CAMERA);
+                int offset = 1;
+                for (int j = 0; j < camerasObservationsCount[i]; j++)
+                    offset = camerasObservations[i][j].unpack(packed, offset);
+            }
+        }
+
+        /* reads the frame of a camera from the logs written with one entry per field, one frame per cycle */
+        private void fromLegacyLog(LogTable table, int cameraIndex) {
+            final String cameraKey = "camera" + cameraIndex;
+            camerasObservationsCount[cameraIndex] = camerasConnected[cameraIndex] ? 1 : 0;
+            final double captureTimeStampSeconds =
+                    inputsFetchedRealTimeStampSeconds - table.get(cameraKey + "ResultsDelaySeconds", 0.0);
+            camerasObservations[cameraIndex][0].fromLegacyLog(table, cameraKey, captureTimeStampSeconds);
         }
     }
 
@@ -1,18 +1,29 @@
 package frc.robot.subsystems.vision.apriltags;
 
+import static frc.robot.constants.LogPaths.SYSTEM_PERFORMANCE_PATH;
+
 import edu.wpi.first.net.PortForwarder;
 import frc.robot.utils.MapleTimeUtils;
 import java.util.List;
+import org.littletonrobotics.junction.Logger;
 import org.photonvision.PhotonCamera;
+import org.photonvision.targeting.PhotonPipelineResult;
 
 public class AprilTagVisionIOReal implements AprilTagVisionIO {
     protected final PhotonCamera[] cameras;
+    private final PhotonCameraResultsReader[] resultsReaders;
 
     public AprilTagVisionIOReal(List<PhotonCameraProperties> cameraProperties) {
         if (cameraProperties.size() > 16) throw new IllegalArgumentException("max supported camera count is 16");
         cameras = new PhotonCamera[cameraProperties.size()];
 
-        for (int i = 0; i < cameraProperties.size(); i++) cameras[i] = new PhotonCamera(cameraProperties.get(i).name);
+        resultsReaders = new PhotonCameraResultsReader[cameraProperties.size()];
+
+        for (int i = 0; i < cameraProperties.size(); i++) {
+            cameras[i] = new PhotonCamera(cameraProperties.get(i).name);
+            resultsReaders[i] = new PhotonCameraResultsReader(
+                    cameraProperties.get(i).name, VisionInputs.MAX_OBSERVATIONS_PER_CAMERA);
+        }
 
         PortForwarder.add(5800, "photonvision", 5800);
     }
@@ -23,15 +34,23 @@ public class AprilTagVisionIOReal implements AprilTagVisionIO {
             throw new IllegalStateException(
                     "inputs camera amount (" + inputs.camerasAmount + ") does not match actual cameras amount");
 
-        for (int i = 0; i < cameras.length; i++)
-            if (cameras[i].isConnected())
-                inputs.camerasInputs[i].fromPhotonPipeLine(cameras[i].getLatestResult(), cameras[i].isConnected());
-            else inputs.camerasInputs[i].clear();
+        /* the results are drained even if the camera is disconnected, so that they are not processed late */
+        for (int i = 0; i < cameras.length; i++) {
+            final List<PhotonPipelineResult> newResults = resultsReaders[i].readNewResults();
+            final boolean connected = cameras[i].isConnected();
+            inputs.setCameraObservations(i, connected, connected ? newResults : List.of());
+        }
         inputs.inputsFetchedRealTimeStampSeconds = MapleTimeUtils.getRealTimeSeconds();
+
+        long droppedResultsCount = 0;
+        for (PhotonCameraResultsReader resultsReader : resultsReaders)
+            droppedResultsCount += resultsReader.getDroppedResultsCount();
+        Logger.recordOutput(SYSTEM_PERFORMANCE_PATH + "Vision/DroppedResultsCount", droppedResultsCount);
     }
 
     @Override
     public void close() {
         for (PhotonCamera camera : cameras) camera.close();
+        for (PhotonCameraResultsReader resultsReader : resultsReaders) resultsReader.close();
     }
 }
@@ -3,6 +3,7 @@ package frc.robot.subsystems.vision.apriltags;
 import static frc.robot.constants.LogPaths.APRIL_TAGS_VISION_PATH;
 import static frc.robot.constants.VisionConstants.*;
 
+import edu.wpi.first.apriltag.AprilTag;
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.VecBuilder;
@@ -13,6 +14,13 @@ import frc.robot.utils.CustomMaths.Statistics;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleFunction;
 import org.littletonrobotics.junction.Logger;
 
 public class MapleMultiTagPoseEstimator {
@@ -21,16 +29,20 @@ public class MapleMultiTagPoseEstimator {
         public double translationXStandardDeviationMeters,
                 translationYStandardDeviationMeters,
                 rotationalStandardDeviationRadians;
+        /* the time of the estimation, which the observations were aligned to, in seconds */
+        public double timeStampSeconds;
 
         public RobotPoseEstimationResult(
                 Pose2d pointEstimation,
                 double translationXStandardDeviationMeters,
                 double translationYStandardDeviationMeters,
-                double rotationalStandardDeviationRadians) {
+                double rotationalStandardDeviationRadians,
+                double timeStampSeconds) {
             this.pointEstimation = pointEstimation;
             this.translationXStandardDeviationMeters = translationXStandardDeviationMeters;
             this.translationYStandardDeviationMeters = translationYStandardDeviationMeters;
             this.rotationalStandardDeviationRadians = rotationalStandardDeviationRadians;
+            this.timeStampSeconds = timeStampSeconds;
         }
 
         public Matrix<N3, N1> getEstimationStandardError() {
@@ -44,130 +56,279 @@ public class MapleMultiTagPoseEstimator {
     public static final boolean LOG_DETAILED_FILTERING_DATA = true;
     // Robot.CURRENT_ROBOT_MODE != RobotMode.REAL;
 
-    private final AprilTagFieldLayout fieldLayout;
     private final VisionResultsFilter filter;
     private final List<PhotonCameraProperties> camerasProperties;
+    /* the poses of the tags on the field, indexed by their ids, null if the layout has no tag of the id */
+    private final Pose3d[] tagPosesByID;
+    /* the inverses of the robot-to-camera transforms, by camera index */
+    private final Transform3d[] camerasToRobot;
+    private final List<CameraObservations> camerasObservations;
+    /* the workers that solve the cameras, or null to solve them on the main thread */
+    private final ExecutorService solverThreads;
 
     public MapleMultiTagPoseEstimator(
             AprilTagFieldLayout aprilTagFieldLayout,
             VisionResultsFilter filter,
             List<PhotonCameraProperties> camerasProperties) {
-        this.fieldLayout = aprilTagFieldLayout;
+        this(aprilTagFieldLayout, filter, camerasProperties, VISION_SOLVER_THREADS);
+    }
+
+    /**
+     * Creates an estimator with a given amount of worker threads, so that the benchmark can compare them.
+     *
+     * @param solverThreadsCount the amount of worker threads, 0 to solve the cameras on the calling thread
+     */
+    MapleMultiTagPoseEstimator(
+            AprilTagFieldLayout aprilTagFieldLayout,
+            VisionResultsFilter filter,
+            List<PhotonCameraProperties> camerasProperties,
+            int solverThreadsCount) {
         this.filter = filter;
         this.camerasProperties = camerasProperties;
+
+        int maxTagID = -1;
+        for (AprilTag tag : aprilTagFieldLayout.getTags()) maxTagID = Math.max(maxTagID, tag.ID);
+        this.tagPosesByID = new Pose3d[maxTagID + 1];
+        for (AprilTag tag : aprilTagFieldLayout.getTags())
+            if (tag.ID >= 0) tagPosesByID[tag.ID] = aprilTagFieldLayout.getTagPose(tag.ID).orElse(null);
+
+        this.camerasToRobot = new Transform3d[camerasProperties.size()];
+        for (int i = 0; i < camerasProperties.size(); i++)
+            camerasToRobot[i] = camerasProperties.get(i).robotToCamera.inverse();
+
+        this.camerasObservations = new ArrayList<>(camerasProperties.size());
+        for (int i = 0; i < camerasProperties.size(); i++) camerasObservations.add(new CameraObservations(i));
+        this.solverThreads = solverThreadsCount > 0 && camerasProperties.size() > 1
+                ? Executors.newFixedThreadPool(
+                        Math.min(solverThreadsCount, camerasProperties.size()),
+                        MapleMultiTagPoseEstimator::newSolverThread)
+                : null;
+    }
+
+    private static final AtomicInteger solverThreadsCreated = new AtomicInteger(0);
+
+    private static Thread newSolverThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, "VisionSolverThread-" + solverThreadsCreated.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
     }
 
-    final List<Pose3d> robotPose3dObservationsMultiTag = new ArrayList<>(),
-            robotPose3dObservationsSingleTag = new ArrayList<>(),
-            observedAprilTagsPoses = new ArrayList<>(),
+    /* the pose of a tag on the field, or null if the layout has no tag of the id */
+    private Pose3d getTagPose(int tagID) {
+        return tagID >= 0 && tagID < tagPosesByID.length ? tagPosesByID[tagID] : null;
+    }
+
+    private final List<Pose3d> observedAprilTagsPoses = new ArrayList<>(),
             observedVisionTargetPoseInFieldLayout = new ArrayList<>();
 
-    private void fetchRobotPose3dEstimationsFromCameraInputs(
-            AprilTagVisionIO.CameraInputs[] cameraInputs, Pose2d currentOdometryPose) {
-        robotPose3dObservationsMultiTag.clear();
-        robotPose3dObservationsSingleTag.clear();
-        observedAprilTagsPoses.clear();
-        observedVisionTargetPoseInFieldLayout.clear();
+    private static final Transform3d NO_MOTION = new Transform3d();
+    private double observationsTimeStampSeconds = 0;
 
-        if (cameraInputs.length != camerasProperties.size())
-            throw new IllegalArgumentException("camera inputs length "
-                    + cameraInputs.length
-                    + " does not match camera properties size "
-                    + camerasProperties.size());
+    /**
+     * The observations of a camera in a cycle, solved and filtered on a worker thread when there are several cameras.
+     *
+     * <p>The main thread sets the frames and their motions before submitting it, and reads the results after it has
+     * completed, so each instance is only accessed by one thread at a time.
+     */
+    private final class CameraObservations implements Callable<CameraObservations> {
+        private final int cameraIndex;
+        private final AprilTagVisionIO.CameraInputs[] frames;
+        private final Transform3d[] robotMotionsSinceCapture;
+        private int framesCount = 0;
+        private Pose2d currentOdometryPose = new Pose2d();
+
+        private final List<Pose3d> validMultiTag = new ArrayList<>(),
+                validSingleTag = new ArrayList<>(),
+                invalidMultiTag = new ArrayList<>(),
+                invalidSingleTag = new ArrayList<>(),
+                observedAprilTagsPoses = new ArrayList<>(),
+                visibleFieldTargets = new ArrayList<>();
+
+        private CameraObservations(int cameraIndex) {
+            this.cameraIndex = cameraIndex;
+            this.frames = new AprilTagVisionIO.CameraInputs[AprilTagVisionIO.VisionInputs.MAX_OBSERVATIONS_PER_CAMERA];
+            this.robotMotionsSinceCapture =
+                    new Transform3d[AprilTagVisionIO.VisionInputs.MAX_OBSERVATIONS_PER_CAMERA];
+        }
 
-        for (int i = 0; i < cameraInputs.length; i++)
-            fetchSingleCameraInputs(cameraInputs[i], camerasProperties.get(i), currentOdometryPose);
+        private void clear() {
+            framesCount = 0;
+            validMultiTag.clear();
+            validSingleTag.clear();
+            invalidMultiTag.clear();
+            invalidSingleTag.clear();
+            observedAprilTagsPoses.clear();
+            visibleFieldTargets.clear();
+        }
+
+        @Override
+        public CameraObservations call() {
+            for (int j = 0; j < framesCount; j++) fetchSingleCameraInputs(frames[j], robotMotionsSinceCapture[j]);
+            return this;
+        }
+
+        private void fetchSingleCameraInputs(
+                AprilTagVisionIO.CameraInputs cameraInput, Transform3d robotMotionSinceCapture) {
+            calculateVisibleTagsPosesForLog(cameraInput);
+
+            /* if there is multi-solvepnp result, we only trust that */
+            Optional<Pose3d> multiSolvePNPPoseEstimation = calculateRobotPose3dFromMultiSolvePNPResult(
+                    camerasToRobot[cameraIndex], cameraInput.getBestFieldToCamera());
+            if (multiSolvePNPPoseEstimation.isPresent()) {
+                final Pose3d estimation = multiSolvePNPPoseEstimation.get().transformBy(robotMotionSinceCapture);
+                if (filter.isResultValid(estimation)) validMultiTag.add(estimation);
+                else invalidMultiTag.add(estimation);
+                return;
+            }
+
+            for (int i = 0; i < cameraInput.currentTargetsCount; i++) {
+                final Pose3d tagPose = getTagPose(cameraInput.fiducialMarksID[i]);
+                if (tagPose == null) continue;
+                final Pose3d estimation = calculateRobotPose3dFromSingleObservation(
+                                tagPose, cameraInput.getBestCameraToTarget(i), camerasToRobot[cameraIndex])
+                        .transformBy(robotMotionSinceCapture);
+                if (filter.isResultValid(estimation)) validSingleTag.add(estimation);
+                else invalidSingleTag.add(estimation);
+            }
+        }
+
+        private void calculateVisibleTagsPosesForLog(AprilTagVisionIO.CameraInputs cameraInput) {
+            if (!LOG_DETAILED_FILTERING_DATA || cameraInput.currentTargetsCount == 0) return;
+            final Pose3d cameraPose =
+                    new Pose3d(currentOdometryPose).transformBy(camerasProperties.get(cameraIndex).robotToCamera);
+            for (int i = 0; i < cameraInput.currentTargetsCount; i++) {
+                final Pose3d tagPose = getTagPose(cameraInput.fiducialMarksID[i]);
+                if (tagPose != null) visibleFieldTargets.add(tagPose);
+                observedAprilTagsPoses.add(cameraPose.transformBy(cameraInput.getBestCameraToTarget(i)));
+            }
+        }
     }
 
-    private void fetchSingleCameraInputs(
-            AprilTagVisionIO.CameraInputs cameraInput,
-            PhotonCameraProperties cameraProperty,
-            Pose2d currentOdometryPose) {
-        calculateVisibleTagsPosesForLog(cameraInput, cameraProperty, currentOdometryPose);
-
-        /* if there is multi-solvepnp result, we only trust that */
-        Optional<Pose3d> multiSolvePNPPoseEstimation = calculateRobotPose3dFromMultiSolvePNPResult(
-                cameraProperty.robotToCamera, cameraInput.bestFieldToCamera);
-        if (multiSolvePNPPoseEstimation.isPresent()) {
-            robotPose3dObservationsMultiTag.add(multiSolvePNPPoseEstimation.get());
-            return;
+    /**
+     * Fetches the robot poses observed by the frames, aligned to the capture time of the newest frame.
+     *
+     * <p>The robot moves between the frames, so each observed pose is moved by the motion of the robot from the
+     * capture time of its frame to the newest one, looked up in the pose history. Without a history, the observations
+     * are fused as they are, at the average capture time.
+     *
+     * <p>The motions are looked up on the main thread, then the frames of each camera are solved and filtered, on the
+     * worker threads if there are any. The results are joined in the order of the cameras, so they do not depend on
+     * the scheduling of the threads.
+     */
+    private void fetchRobotPose3dEstimationsFromCameraInputs(
+            AprilTagVisionIO.VisionInputs visionInputs,
+            Pose2d currentOdometryPose,
+            DoubleFunction<Optional<Pose2d>> poseHistory) {
+        for (CameraObservations cameraObservations : camerasObservations) cameraObservations.clear();
+
+        double newestCaptureTimeStamp = Double.NEGATIVE_INFINITY, captureTimeStampsSum = 0;
+        int observationsCount = 0;
+        for (int i = 0; i < visionInputs.camerasAmount; i++)
+            for (int j = 0; j < visionInputs.camerasObservationsCount[i]; j++) {
+                final double captureTimeStamp = visionInputs.camerasObservations[i][j].captureTimeStampSeconds;
+                newestCaptureTimeStamp = Math.max(newestCaptureTimeStamp, captureTimeStamp);
+                captureTimeStampsSum += captureTimeStamp;
+                observationsCount++;
+            }
+        if (observationsCount == 0) return;
+
+        final Optional<Pose2d> poseAtNewestCapture = poseHistory.apply(newestCaptureTimeStamp);
+        observationsTimeStampSeconds = poseAtNewestCapture.isPresent()
+                ? newestCaptureTimeStamp
+                : captureTimeStampsSum / observationsCount;
+
+        for (int i = 0; i < visionInputs.camerasAmount; i++) {
+            final CameraObservations cameraObservations = camerasObservations.get(i);
+            cameraObservations.framesCount = visionInputs.camerasObservationsCount[i];
+            cameraObservations.currentOdometryPose = currentOdometryPose;
+            for (int j = 0; j < cameraObservations.framesCount; j++) {
+                final AprilTagVisionIO.CameraInputs cameraInput = visionInputs.camerasObservations[i][j];
+                cameraObservations.frames[j] = cameraInput;
+                cameraObservations.robotMotionsSinceCapture[j] = poseAtNewestCapture
+                        .flatMap(newestPose -> poseHistory
+                                .apply(cameraInput.captureTimeStampSeconds)
+                                .map(poseAtCapture -> toTransform3d(newestPose.minus(poseAtCapture))))
+                        .orElse(NO_MOTION);
+            }
         }
 
-        for (int i = 0; i < cameraInput.currentTargetsCount; i++)
-            calculateRobotPose3dFromSingleObservation(
-                            cameraProperty.robotToCamera,
-                            cameraInput.bestCameraToTargets[i],
-                            cameraInput.fiducialMarksID[i])
-                    .ifPresent(robotPose3dObservationsSingleTag::add);
+        if (solverThreads == null)
+            for (CameraObservations cameraObservations : camerasObservations) cameraObservations.call();
+        else solveOnThreads();
     }
 
-    private Pose3d calculateObservedAprilTagTargetPose(
-            Transform3d bestCameraToTarget, Transform3d robotToCamera, Pose2d currentOdometryPose) {
-        return new Pose3d(currentOdometryPose).transformBy(robotToCamera).transformBy(bestCameraToTarget);
+    /* solves the cameras on the worker threads, and waits for all of them */
+    private void solveOnThreads() {
+        try {
+            for (Future<CameraObservations> result : solverThreads.invokeAll(camerasObservations)) result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while solving the vision results", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to solve the vision results", e.getCause());
+        }
     }
 
-    private Optional<Pose3d> calculateRobotPose3dFromSingleObservation(
-            Transform3d robotToCamera, Transform3d cameraToTarget, int tagID) {
-        return fieldLayout.getTagPose(tagID).map(tagPose -> tagPose.transformBy(cameraToTarget.inverse())
-                .transformBy(robotToCamera.inverse()));
+    private static Transform3d toTransform3d(Transform2d transform) {
+        return new Transform3d(
+                new Translation3d(transform.getX(), transform.getY(), 0),
+                new Rotation3d(0, 0, transform.getRotation().getRadians()));
     }
 
-    private Optional<Pose3d> calculateRobotPose3dFromMultiSolvePNPResult(
-            Transform3d robotToCamera, Optional<Transform3d> bestFieldToCamera) {
-        return bestFieldToCamera.map(
-                fieldToCamera -> new Pose3d().transformBy(fieldToCamera).transformBy(robotToCamera.inverse()));
+    private static Pose3d calculateRobotPose3dFromSingleObservation(
+            Pose3d tagPose, Transform3d cameraToTarget, Transform3d cameraToRobot) {
+        return tagPose.transformBy(cameraToTarget.inverse()).transformBy(cameraToRobot);
     }
 
-    private void calculateVisibleTagsPosesForLog(
-            AprilTagVisionIO.CameraInputs cameraInput,
-            PhotonCameraProperties cameraProperty,
-            Pose2d currentOdometryPose) {
-        if (!LOG_DETAILED_FILTERING_DATA) return;
-        for (int i = 0; i < cameraInput.fiducialMarksID.length; i++) {
-            if (cameraInput.fiducialMarksID[i] == -1) continue;
-
-            fieldLayout
-                    .getTagPose(cameraInput.fiducialMarksID[i])
-                    .ifPresent(observedVisionTargetPoseInFieldLayout::add);
-            observedAprilTagsPoses.add(calculateObservedAprilTagTargetPose(
-                    cameraInput.bestCameraToTargets[i], cameraProperty.robotToCamera, currentOdometryPose));
-        }
+    private static Optional<Pose3d> calculateRobotPose3dFromMultiSolvePNPResult(
+            Transform3d cameraToRobot, Optional<Transform3d> bestFieldToCamera) {
+        return bestFieldToCamera.map(
+                fieldToCamera -> new Pose3d(fieldToCamera.getTranslation(), fieldToCamera.getRotation())
+                        .transformBy(cameraToRobot));
     }
 
     private final List<Pose3d> validRobotPoseEstimationsMultiTag = new ArrayList<>(),
             validRobotPoseEstimationsSingleTag = new ArrayList<>(),
             invalidRobotPoseEstimations = new ArrayList<>();
 
-    private void applyFilteringToRawRobotPose3dEstimations() {
+    /* joins the observations of the cameras, in the order of the cameras */
+    private void joinCamerasObservations() {
         validRobotPoseEstimationsMultiTag.clear();
         validRobotPoseEstimationsSingleTag.clear();
         invalidRobotPoseEstimations.clear();
-        for (final Pose3d estimation : robotPose3dObservationsMultiTag)
-            if (filter.isResultValid(estimation)) validRobotPoseEstimationsMultiTag.add(estimation);
-            else invalidRobotPoseEstimations.add(estimation);
-
-        for (final Pose3d estimation : robotPose3dObservationsSingleTag)
-            if (filter.isResultValid(estimation)) validRobotPoseEstimationsSingleTag.add(estimation);
-            else invalidRobotPoseEstimations.add(estimation);
+        observedAprilTagsPoses.clear();
+        observedVisionTargetPoseInFieldLayout.clear();
+        for (CameraObservations cameraObservations : camerasObservations) {
+            validRobotPoseEstimationsMultiTag.addAll(cameraObservations.validMultiTag);
+            validRobotPoseEstimationsSingleTag.addAll(cameraObservations.validSingleTag);
+            invalidRobotPoseEstimations.addAll(cameraObservations.invalidMultiTag);
+            observedAprilTagsPoses.addAll(cameraObservations.observedAprilTagsPoses);
+            observedVisionTargetPoseInFieldLayout.addAll(cameraObservations.visibleFieldTargets);
+        }
+        for (CameraObservations cameraObservations : camerasObservations)
+            invalidRobotPoseEstimations.addAll(cameraObservations.invalidSingleTag);
     }
 
     /**
      * using the filtering mechanism, find out the best guess of the robot pose and the standard error
      *
-     * @param cameraInputs the inputs of the cameras
+     * @param visionInputs the inputs of the cameras, all the frames of this cycle are used
+     * @param poseHistory looks up the estimated pose of the robot at a time stamp, to align the frames
      * @return (optionally) the best guess of the robot pose and the standard error, if there are valid targets
      */
     public Optional<RobotPoseEstimationResult> estimateRobotPose(
-            AprilTagVisionIO.CameraInputs[] cameraInputs, Pose2d currentOdometryPose) {
-        if (cameraInputs.length != camerasProperties.size())
+            AprilTagVisionIO.VisionInputs visionInputs,
+            Pose2d currentOdometryPose,
+            DoubleFunction<Optional<Pose2d>> poseHistory) {
+        if (visionInputs.camerasAmount != camerasProperties.size())
             throw new IllegalStateException("camera inputs length"
-                    + cameraInputs.length
+                    + visionInputs.camerasAmount
                     + " does not match cameras properties length: "
                     + camerasProperties.size());
 
-        fetchRobotPose3dEstimationsFromCameraInputs(cameraInputs, currentOdometryPose);
+        fetchRobotPose3dEstimationsFromCameraInputs(visionInputs, currentOdometryPose, poseHistory);
 
-        applyFilteringToRawRobotPose3dEstimations();
+        joinCamerasObservations();
 
         if (LOG_DETAILED_FILTERING_DATA) logFilteringData();
 
@@ -235,7 +396,8 @@ public class MapleMultiTagPoseEstimator {
                 new Pose2d(translationPointEstimate, rotationPointEstimate),
                 estimationStandardErrorX,
                 estimationStandardErrorY,
-                estimationStandardErrorTheta));
+                estimationStandardErrorTheta,
+                observationsTimeStampSeconds));
     }
 
     /** Log the filtering data */
@@ -0,0 +1,85 @@
+package frc.robot.subsystems.vision.apriltags;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.PubSubOption;
+import edu.wpi.first.networktables.RawSubscriber;
+import edu.wpi.first.networktables.TimestampedRaw;
+import java.util.ArrayList;
+import java.util.List;
+import org.photonvision.common.dataflow.structures.Packet;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * Reads every pipeline result a camera published since the previous read.
+ *
+ * <p>{@link org.photonvision.PhotonCamera#getLatestResult()} only returns the value of the topic when it is called,
+ * so the frames published between two robot cycles are lost, and a frame is returned again if no new one has arrived.
+ * Instead, this reader subscribes to the same topic with a queue, which NetworkTables fills in the background with
+ * every value received. A read drains the queue, skips the values that are not newer than the previous ones and only
+ * decodes the newest few.
+ */
+final class PhotonCameraResultsReader implements AutoCloseable {
+    /* the values kept by NetworkTables between two reads, enough for a camera at 100 fps through a 200 ms stall */
+    private static final int QUEUE_SIZE = 20;
+
+    private final RawSubscriber subscriber;
+    private final int maxResultsPerRead;
+    /* the NetworkTables time stamp of a value identifies its frame, as the results do not carry a sequence id */
+    private long newestResultTimeStampMicros = Long.MIN_VALUE;
+    private long droppedResultsCount = 0;
+
+    /**
+     * @param cameraName the name of the camera in PhotonVision
+     * @param maxResultsPerRead the maximum amount of results returned by a read, the older ones are dropped
+     */
+    PhotonCameraResultsReader(String cameraName, int maxResultsPerRead) {
+        this.subscriber = NetworkTableInstance.getDefault()
+                .getTable("photonvision")
+                .getSubTable(cameraName)
+                .getRawTopic("rawBytes")
+                .subscribe(
+                        "rawBytes",
+                        new byte[0],
+                        PubSubOption.periodic(0.01),
+                        PubSubOption.sendAll(true),
+                        PubSubOption.pollStorage(QUEUE_SIZE));
+        this.maxResultsPerRead = maxResultsPerRead;
+    }
+
+    /**
+     * Reads the results received since the previous read.
+     *
+     * @return the new results, oldest first, with their time stamps set like
+     *     {@link org.photonvision.PhotonCamera#getLatestResult()} does
+     */
+    List<PhotonPipelineResult> readNewResults() {
+        final TimestampedRaw[] values = subscriber.readQueue();
+
+        int newValuesCount = 0;
+        for (TimestampedRaw value : values)
+            if (value.timestamp > newestResultTimeStampMicros && value.value.length > 0) {
+                values[newValuesCount++] = value;
+                newestResultTimeStampMicros = value.timestamp;
+            }
+
+        final int firstDecodedIndex = Math.max(0, newValuesCount - maxResultsPerRead);
+        droppedResultsCount += firstDecodedIndex;
+        final List<PhotonPipelineResult> results = new ArrayList<>(newValuesCount - firstDecodedIndex);
+        for (int i = firstDecodedIndex; i < newValuesCount; i++) {
+            final PhotonPipelineResult result = PhotonPipelineResult.serde.unpack(new Packet(values[i].value));
+            result.setTimestampSeconds(values[i].timestamp / 1e6 - result.getLatencyMillis() / 1e3);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /** @return the total amount of new results that were not returned since the reads were limited */
+    long getDroppedResultsCount() {
+        return droppedResultsCount;
+    }
+
+    @Override
+    public void close() {
+        subscriber.close();
+    }
+}
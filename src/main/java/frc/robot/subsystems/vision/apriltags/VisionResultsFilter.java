@@ -5,5 +5,6 @@ import edu.wpi.first.math.geometry.Pose3d;
 public interface VisionResultsFilter {
     String getFilterImplementationName();
 
+    /** Called from the vision solver threads, concurrently for different cameras, so it must not modify any state. */
     boolean isResultValid(Pose3d robotPoseEstimation);
 }
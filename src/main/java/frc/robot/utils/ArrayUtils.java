@@ -1,5 +1,6 @@
 package frc.robot.utils;
 
+import edu.wpi.first.math.geometry.Rotation2d;
 import java.util.List;
 
 public class ArrayUtils {
@@ -15,6 +16,22 @@ public class ArrayUtils {
         return array;
     }
 
+    /**
+     * Reuses an array if it's long enough, so it can be filled in place.
+     *
+     * @return the array if it can hold the length, otherwise a new array of the length (the values are not copied)
+     */
+    public static double[] ensureCapacity(double[] array, int length) {
+        return array.length >= length ? array : new double[length];
+    }
+
+    /** @return the angles of the rotations, in radians */
+    public static double[] toRadians(Rotation2d[] rotations) {
+        final double[] radians = new double[rotations.length];
+        for (int i = 0; i < rotations.length; i++) radians[i] = rotations[i].getRadians();
+        return radians;
+    }
+
     public static void toDoubleList(double[] data, List<Double> targetList) {
         targetList.clear();
         for (double d : data) targetList.add(d);
@@ -1,11 +1,15 @@
 package frc.robot.utils;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import frc.robot.Robot;
+import frc.robot.utils.CustomMaths.MutablePose2d;
+import frc.robot.utils.CustomMaths.MutableRotation2d;
+import frc.robot.utils.CustomMaths.MutableTranslation2d;
 import frc.robot.utils.CustomPIDs.MaplePIDController;
 import java.util.OptionalDouble;
 import java.util.function.Supplier;
@@ -80,6 +84,11 @@ public class ChassisHeadingController {
     private final double maxAngularVelocityRadPerSec;
     private ChassisHeadingRequest headingRequest;
     private TrapezoidProfile.State chassisRotationState;
+    /* the buffers of the main thread */
+    private final MutablePose2d robotPoseBuffer = new MutablePose2d();
+    private final MutableTranslation2d robotToTarget = new MutableTranslation2d();
+    private final MutableRotation2d targetedRotation = new MutableRotation2d();
+    private final TrapezoidProfile.State goalState = new TrapezoidProfile.State();
 
     /**
      *
@@ -121,7 +130,8 @@ public class ChassisHeadingController {
      */
     public OptionalDouble calculate(ChassisSpeeds measuredSpeedsFieldRelative, Pose2d robotPose) {
         if (headingRequest instanceof FaceToRotationRequest faceToRotationRequest) {
-            return OptionalDouble.of(calculateFaceToRotation(robotPose, faceToRotationRequest.rotationTarget, 0));
+            return OptionalDouble.of(calculateFaceToRotation(
+                    robotPose, targetedRotation.set(faceToRotationRequest.rotationTarget), 0));
         }
 
         if (headingRequest instanceof FaceToTargetRequest faceToTargetRequest)
@@ -157,40 +167,22 @@ public class ChassisHeadingController {
             Pose2d robotPose,
             Translation2d targetPosition,
             MapleShooterOptimization shooterOptimization) {
-        // Target velocity relative to the robot, in the field-origin frame
-        final Translation2d targetMovingSpeed = new Translation2d(
-                -measuredSpeedsFieldRelative.vxMetersPerSecond, -measuredSpeedsFieldRelative.vyMetersPerSecond);
-
-        final Rotation2d
-                targetedRotation =
-                        shooterOptimization == null
-                                ? targetPosition
-                                        .minus(robotPose.getTranslation())
-                                        .getAngle()
-                                : shooterOptimization.getShooterFacing(
-                                        targetPosition, robotPose.getTranslation(), measuredSpeedsFieldRelative),
-                targetMovingDirection =
-                        new Translation2d(
-                                        -measuredSpeedsFieldRelative.vxMetersPerSecond,
-                                        -measuredSpeedsFieldRelative.vyMetersPerSecond)
-                                .getAngle(),
-                positiveRotationTangentDirection =
-                        targetPosition
-                                .minus(robotPose.getTranslation())
-                                .getAngle()
-                                .rotateBy(Rotation2d.fromDegrees(90));
+        robotPoseBuffer.set(robotPose);
+        robotToTarget.set(targetPosition).minus(robotPoseBuffer.translation);
+        final double distanceToTarget = robotToTarget.getNorm();
 
+        if (shooterOptimization == null) targetedRotation.setDirection(robotToTarget.x, robotToTarget.y);
+        else
+            shooterOptimization.getShooterFacing(
+                    targetPosition, robotPose.getTranslation(), measuredSpeedsFieldRelative, targetedRotation);
+
+        // Target velocity relative to the robot, (-vx, -vy) in the field-origin frame, projected on the tangent of
+        // positive rotation, (-y, x) / distance
         final double
-                tangentVelocity =
-                        targetMovingDirection
-                                        .minus(positiveRotationTangentDirection)
-                                        .getCos()
-                                * targetMovingSpeed.getNorm(),
-                angularVelocity =
-                        tangentVelocity
-                                / targetPosition
-                                        .minus(robotPose.getTranslation())
-                                        .getNorm();
+                tangentVelocity = (measuredSpeedsFieldRelative.vxMetersPerSecond * robotToTarget.y
+                                - measuredSpeedsFieldRelative.vyMetersPerSecond * robotToTarget.x)
+                        / distanceToTarget,
+                angularVelocity = tangentVelocity / distanceToTarget;
 
         return calculateFaceToRotation(robotPose, targetedRotation, angularVelocity);
     }
@@ -201,19 +193,20 @@ public class ChassisHeadingController {
      * <h2>Calculates rotational correction speeds for a face-to-rotation request.</h2>
      */
     private double calculateFaceToRotation(
-            Pose2d robotPose, Rotation2d targetedRotation, double desiredAngularVelocityRadPerSec) {
-        TrapezoidProfile.State goalState = getGoalState(targetedRotation);
-        chassisRotationState =
-                chassisRotationProfile.calculate(Robot.defaultPeriodSecs, chassisRotationState, goalState);
+            Pose2d robotPose, MutableRotation2d targetedRotation, double desiredAngularVelocityRadPerSec) {
+        final double targetedRotationRad = targetedRotation.getRadians();
+        chassisRotationState = chassisRotationProfile.calculate(
+                Robot.defaultPeriodSecs, chassisRotationState, getGoalState(targetedRotationRad));
 
         final double feedBackSpeed =
                 chassisRotationCloseLoop.calculate(robotPose.getRotation().getRadians(), chassisRotationState.position);
         final double feedForwardSpeedRadPerSec =
-                Math.abs(targetedRotation.minus(robotPose.getRotation()).getDegrees()) < 15
+                Math.abs(MathUtil.angleModulus(targetedRotationRad - robotPose.getRotation().getRadians()))
+                                < Math.toRadians(15)
                         ? desiredAngularVelocityRadPerSec
                         : chassisRotationState.velocity;
 
-        log(robotPose, targetedRotation);
+        log(robotPose, targetedRotation.toRotation2d());
 
         return MapleCommonMath.constrainMagnitude(
                 feedBackSpeed + feedForwardSpeedRadPerSec, maxAngularVelocityRadPerSec);
@@ -227,13 +220,15 @@ public class ChassisHeadingController {
      * <p>Finds the closest rotational position on the profile that aligns with the target rotation. This ensures
      * continuity in the rotational profile.
      *
-     * @param targetedRotation the desired orientation
-     * @return a {@link edu.wpi.first.math.trajectory.TrapezoidProfile.State} representing the target goal state
+     * @param targetedRotationRad the desired orientation, in radians
+     * @return a {@link edu.wpi.first.math.trajectory.TrapezoidProfile.State} representing the target goal state, which
+     *     is reused in the next calls
      */
-    private TrapezoidProfile.State getGoalState(Rotation2d targetedRotation) {
-        final Rotation2d difference = targetedRotation.minus(Rotation2d.fromRadians(chassisRotationState.position));
-        final double goal = chassisRotationState.position + difference.getRadians();
-        return new TrapezoidProfile.State(goal, 0);
+    private TrapezoidProfile.State getGoalState(double targetedRotationRad) {
+        final double difference = MathUtil.angleModulus(targetedRotationRad - chassisRotationState.position);
+        goalState.position = chassisRotationState.position + difference;
+        goalState.velocity = 0;
+        return goalState;
     }
 
     private boolean atSetPoint = false;
@@ -0,0 +1,70 @@
+package frc.robot.utils.CustomMaths;
+
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+
+/**
+ * A mutable {@link ChassisSpeeds}, for the control loops that would otherwise allocate chassis speeds per operation.
+ *
+ * <p>The operations modify the speeds in place and return them, so they can be chained.
+ */
+public final class MutableChassisSpeeds {
+    public double vxMetersPerSecond, vyMetersPerSecond, omegaRadiansPerSecond;
+
+    public MutableChassisSpeeds set(double vxMetersPerSecond, double vyMetersPerSecond, double omegaRadiansPerSecond) {
+        this.vxMetersPerSecond = vxMetersPerSecond;
+        this.vyMetersPerSecond = vyMetersPerSecond;
+        this.omegaRadiansPerSecond = omegaRadiansPerSecond;
+        return this;
+    }
+
+    public MutableChassisSpeeds set(ChassisSpeeds speeds) {
+        return set(speeds.vxMetersPerSecond, speeds.vyMetersPerSecond, speeds.omegaRadiansPerSecond);
+    }
+
+    /**
+     * Converts field-relative speeds to robot-relative, like {@link ChassisSpeeds#fromFieldRelativeSpeeds}.
+     *
+     * @param robotAngle the angle of the robot, in the frame of the speeds
+     */
+    public MutableChassisSpeeds toRobotRelative(MutableRotation2d robotAngle) {
+        final double cos = robotAngle.getCos(), sin = robotAngle.getSin();
+        return set(
+                vxMetersPerSecond * cos + vyMetersPerSecond * sin,
+                -vxMetersPerSecond * sin + vyMetersPerSecond * cos,
+                omegaRadiansPerSecond);
+    }
+
+    /**
+     * Converts robot-relative speeds to field-relative, like {@link ChassisSpeeds#fromRobotRelativeSpeeds}.
+     *
+     * @param robotAngle the angle of the robot, in the frame of the speeds
+     */
+    public MutableChassisSpeeds toFieldRelative(MutableRotation2d robotAngle) {
+        final double cos = robotAngle.getCos(), sin = robotAngle.getSin();
+        return set(
+                vxMetersPerSecond * cos - vyMetersPerSecond * sin,
+                vxMetersPerSecond * sin + vyMetersPerSecond * cos,
+                omegaRadiansPerSecond);
+    }
+
+    /**
+     * Discretizes continuous speeds, like {@link ChassisSpeeds#discretize(ChassisSpeeds, double)}: the result, held
+     * for one period, moves the robot along the arc of the continuous speeds.
+     */
+    public MutableChassisSpeeds discretize(double dtSeconds) {
+        /* the twist of Pose2d.log() to the pose reached with the continuous speeds after one period */
+        final double dtheta = omegaRadiansPerSecond * dtSeconds, halfDtheta = dtheta / 2;
+        final double cosMinusOne = Math.cos(dtheta) - 1;
+        final double halfThetaByTanOfHalfDtheta = Math.abs(cosMinusOne) < 1e-9
+                ? 1.0 - dtheta * dtheta / 12.0
+                : -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+        return set(
+                vxMetersPerSecond * halfThetaByTanOfHalfDtheta + vyMetersPerSecond * halfDtheta,
+                -vxMetersPerSecond * halfDtheta + vyMetersPerSecond * halfThetaByTanOfHalfDtheta,
+                omegaRadiansPerSecond);
+    }
+
+    public ChassisSpeeds toChassisSpeeds() {
+        return new ChassisSpeeds(vxMetersPerSecond, vyMetersPerSecond, omegaRadiansPerSecond);
+    }
+}
@@ -0,0 +1,25 @@
+package frc.robot.utils.CustomMaths;
+
+import edu.wpi.first.math.geometry.Pose2d;
+
+/** A mutable {@link Pose2d}, made of a {@link MutableTranslation2d} and a {@link MutableRotation2d}. */
+public final class MutablePose2d {
+    public final MutableTranslation2d translation = new MutableTranslation2d();
+    public final MutableRotation2d rotation = new MutableRotation2d();
+
+    public MutablePose2d set(Pose2d pose) {
+        translation.set(pose.getTranslation());
+        rotation.set(pose.getRotation());
+        return this;
+    }
+
+    public MutablePose2d set(MutablePose2d pose) {
+        translation.set(pose.translation);
+        rotation.set(pose.rotation);
+        return this;
+    }
+
+    public Pose2d toPose2d() {
+        return new Pose2d(translation.toTranslation2d(), rotation.toRotation2d());
+    }
+}
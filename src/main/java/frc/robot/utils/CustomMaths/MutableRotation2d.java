@@ -0,0 +1,76 @@
+package frc.robot.utils.CustomMaths;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * A mutable {@link Rotation2d}, for the control loops that would otherwise allocate a rotation per operation.
+ *
+ * <p>Like {@link Rotation2d}, the rotation is stored as its cosine and sine, so it is always in (-pi, pi]. The
+ * operations modify the rotation in place and return it, so they can be chained.
+ */
+public final class MutableRotation2d {
+    private double cos = 1, sin = 0;
+
+    public MutableRotation2d setRadians(double radians) {
+        cos = Math.cos(radians);
+        sin = Math.sin(radians);
+        return this;
+    }
+
+    public MutableRotation2d set(Rotation2d rotation) {
+        cos = rotation.getCos();
+        sin = rotation.getSin();
+        return this;
+    }
+
+    public MutableRotation2d set(MutableRotation2d rotation) {
+        cos = rotation.cos;
+        sin = rotation.sin;
+        return this;
+    }
+
+    /** Sets the rotation to the direction of a vector, like {@link Rotation2d#Rotation2d(double, double)}. */
+    public MutableRotation2d setDirection(double x, double y) {
+        final double norm = Math.hypot(x, y);
+        if (norm > 1e-6) {
+            cos = x / norm;
+            sin = y / norm;
+        } else {
+            cos = 1;
+            sin = 0;
+        }
+        return this;
+    }
+
+    /** Adds another rotation, like {@link Rotation2d#rotateBy}. */
+    public MutableRotation2d rotateBy(MutableRotation2d other) {
+        final double newCos = cos * other.cos - sin * other.sin, newSin = cos * other.sin + sin * other.cos;
+        cos = newCos;
+        sin = newSin;
+        return this;
+    }
+
+    /** Subtracts another rotation, like {@link Rotation2d#minus}. */
+    public MutableRotation2d minus(MutableRotation2d other) {
+        final double newCos = cos * other.cos + sin * other.sin, newSin = sin * other.cos - cos * other.sin;
+        cos = newCos;
+        sin = newSin;
+        return this;
+    }
+
+    public double getCos() {
+        return cos;
+    }
+
+    public double getSin() {
+        return sin;
+    }
+
+    public double getRadians() {
+        return Math.atan2(sin, cos);
+    }
+
+    public Rotation2d toRotation2d() {
+        return new Rotation2d(cos, sin);
+    }
+}
@@ -0,0 +1,67 @@
+package frc.robot.utils.CustomMaths;
+
+import edu.wpi.first.math.geometry.Translation2d;
+
+/**
+ * A mutable {@link Translation2d}, for the control loops that would otherwise allocate a translation per operation.
+ *
+ * <p>The operations modify the translation in place and return it, so they can be chained.
+ */
+public final class MutableTranslation2d {
+    public double x, y;
+
+    public MutableTranslation2d() {
+        this(0, 0);
+    }
+
+    public MutableTranslation2d(double x, double y) {
+        set(x, y);
+    }
+
+    public MutableTranslation2d set(double x, double y) {
+        this.x = x;
+        this.y = y;
+        return this;
+    }
+
+    public MutableTranslation2d set(Translation2d translation) {
+        return set(translation.getX(), translation.getY());
+    }
+
+    public MutableTranslation2d set(MutableTranslation2d translation) {
+        return set(translation.x, translation.y);
+    }
+
+    public MutableTranslation2d plus(double dx, double dy) {
+        return set(x + dx, y + dy);
+    }
+
+    public MutableTranslation2d minus(Translation2d other) {
+        return set(x - other.getX(), y - other.getY());
+    }
+
+    public MutableTranslation2d minus(MutableTranslation2d other) {
+        return set(x - other.x, y - other.y);
+    }
+
+    public MutableTranslation2d times(double scalar) {
+        return set(x * scalar, y * scalar);
+    }
+
+    /** Rotates the translation around the origin, like {@link Translation2d#rotateBy}. */
+    public MutableTranslation2d rotateBy(MutableRotation2d rotation) {
+        return set(x * rotation.getCos() - y * rotation.getSin(), x * rotation.getSin() + y * rotation.getCos());
+    }
+
+    public double getNorm() {
+        return Math.hypot(x, y);
+    }
+
+    public double dot(double otherX, double otherY) {
+        return x * otherX + y * otherY;
+    }
+
+    public Translation2d toTranslation2d() {
+        return new Translation2d(x, y);
+    }
+}
@@ -0,0 +1,61 @@
+package frc.robot.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules a periodic loop on absolute deadlines, so that the time spent doing the work does not add up to the period.
+ *
+ * <p>The thread sleeps until shortly before the deadline, and then spin-waits the rest of the way, since the wake-up of
+ * a sleeping thread is too coarse for kHz-rate loops.
+ *
+ * <p>If the loop overruns a deadline, the schedule re-synchronizes to the current time instead of running a burst of
+ * iterations to catch up.
+ */
+public class DeadlineScheduler {
+    private final long spinThresholdNanos;
+    private long periodNanos;
+    private long nextDeadlineNanos = -1;
+    private final AtomicLong missedDeadlinesCount = new AtomicLong(0);
+
+    /**
+     * @param periodSeconds the period of the loop
+     * @param spinThresholdSeconds how long before the deadline the thread stops sleeping and starts spinning
+     */
+    public DeadlineScheduler(double periodSeconds, double spinThresholdSeconds) {
+        setPeriod(periodSeconds);
+        this.spinThresholdNanos = (long) (spinThresholdSeconds * 1_000_000_000L);
+    }
+
+    /**
+     * Changes the period of the loop, starting from the next deadline. Must be called from the scheduled thread.
+     *
+     * @param periodSeconds the new period of the loop
+     */
+    public void setPeriod(double periodSeconds) {
+        if (periodSeconds <= 0) throw new IllegalArgumentException("period must be positive");
+        this.periodNanos = (long) (periodSeconds * 1_000_000_000L);
+    }
+
+    /** Blocks the calling thread until the next deadline. */
+    public void waitForNextDeadline() {
+        final long now = System.nanoTime();
+        if (nextDeadlineNanos == -1) nextDeadlineNanos = now;
+        nextDeadlineNanos += periodNanos;
+
+        if (now >= nextDeadlineNanos) {
+            missedDeadlinesCount.incrementAndGet();
+            nextDeadlineNanos = now;
+            return;
+        }
+
+        final long sleepNanos = nextDeadlineNanos - now - spinThresholdNanos;
+        if (sleepNanos > 0) LockSupport.parkNanos(sleepNanos);
+        while (System.nanoTime() < nextDeadlineNanos) Thread.onSpinWait();
+    }
+
+    /** @return the total amount of deadlines that the loop overran */
+    public long getMissedDeadlinesCount() {
+        return missedDeadlinesCount.get();
+    }
+}
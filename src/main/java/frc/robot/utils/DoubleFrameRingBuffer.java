@@ -0,0 +1,101 @@
+package frc.robot.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-capacity, single-producer single-consumer ring buffer of frames, where each frame is a fixed amount of
+ * primitive doubles written together.
+ *
+ * <p>The values are stored as a struct of arrays (one array per field of the frame). A frame is published to the
+ * consumer only after all of its fields are written, so the consumer always receives the same amount of samples for
+ * every field.
+ *
+ * <p>The producer thread never blocks and never allocates: if the buffer is full, the frame is discarded and counted as
+ * dropped. The consumer thread drains the available frames in bulk into caller-provided arrays.
+ *
+ * <p>Only one thread may call {@link #offer(double[])}, and only one (other) thread may call
+ * {@link #drainTo(double[][], int)}.
+ */
+public class DoubleFrameRingBuffer {
+    private final double[][] fields;
+    private final int capacity, mask;
+
+    /* the index of the next frame to write, only modified by the producer */
+    private final AtomicLong writeIndex = new AtomicLong(0);
+    /* the index of the next frame to read, only modified by the consumer */
+    private final AtomicLong readIndex = new AtomicLong(0);
+    private final AtomicLong droppedFramesCount = new AtomicLong(0);
+
+    /**
+     * @param frameWidth the amount of fields in each frame
+     * @param minimumCapacity the minimum amount of frames the buffer can hold, rounded up to a power of 2
+     */
+    public DoubleFrameRingBuffer(int frameWidth, int minimumCapacity) {
+        if (frameWidth <= 0 || minimumCapacity <= 0)
+            throw new IllegalArgumentException("frame width and capacity must be positive");
+        int capacity = 1;
+        while (capacity < minimumCapacity) capacity <<= 1;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.fields = new double[frameWidth][capacity];
+    }
+
+    /**
+     * Appends a frame to the buffer, called by the producer thread.
+     *
+     * @param frame the values of the fields of the frame, the length must match the frame width
+     * @return whether the frame is stored, <code>false</code> if the buffer is full
+     */
+    public boolean offer(double[] frame) {
+        final long write = writeIndex.get();
+        if (write - readIndex.get() >= capacity) {
+            droppedFramesCount.incrementAndGet();
+            return false;
+        }
+
+        final int slot = (int) (write & mask);
+        for (int field = 0; field < fields.length; field++) fields[field][slot] = frame[field];
+        writeIndex.lazySet(write + 1); // publishes the whole frame to the consumer
+        return true;
+    }
+
+    /**
+     * Moves frames from the buffer to the destination arrays, called by the consumer thread.
+     *
+     * @param destinations one array per field of the frame, the samples are stored starting from index 0
+     * @param maxCount the maximum amount of frames to drain
+     * @return the amount of frames drained, which is the amount of samples written to every destination array
+     */
+    public int drainTo(double[][] destinations, int maxCount) {
+        final long read = readIndex.get();
+        int count = (int) Math.min(writeIndex.get() - read, maxCount);
+        for (double[] destination : destinations) count = Math.min(count, destination.length);
+
+        final int firstSlot = (int) (read & mask), countBeforeWrapping = Math.min(count, capacity - firstSlot);
+        for (int field = 0; field < fields.length; field++) {
+            System.arraycopy(fields[field], firstSlot, destinations[field], 0, countBeforeWrapping);
+            System.arraycopy(fields[field], 0, destinations[field], countBeforeWrapping, count - countBeforeWrapping);
+        }
+
+        readIndex.lazySet(read + count); // hands the slots back to the producer
+        return count;
+    }
+
+    /** @return the amount of frames available to the consumer */
+    public int size() {
+        return (int) (writeIndex.get() - readIndex.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int frameWidth() {
+        return fields.length;
+    }
+
+    /** @return the total amount of frames discarded because the buffer was full */
+    public long getDroppedFramesCount() {
+        return droppedFramesCount.get();
+    }
+}
@@ -8,6 +8,8 @@ import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.wpilibj2.command.Command;
 import frc.robot.subsystems.drive.HolonomicDriveSubsystem;
 import frc.robot.utils.CustomConfigs.MapleInterpolationTable;
+import frc.robot.utils.CustomMaths.MutableRotation2d;
+import frc.robot.utils.CustomMaths.MutableTranslation2d;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
@@ -57,6 +59,9 @@ public class MapleShooterOptimization {
     private final String name;
     private final MapleInterpolationTable table;
     private final double minShootingDistance, maxShootingDistance;
+    /* the buffers of the main thread */
+    private final MutableTranslation2d aimVector = new MutableTranslation2d();
+    private final MutableRotation2d shooterFacing = new MutableRotation2d();
 
     public MapleShooterOptimization(
             String name,
@@ -89,12 +94,31 @@ public class MapleShooterOptimization {
 
     public Rotation2d getShooterFacing(
             Translation2d targetPosition, Translation2d robotPosition, ChassisSpeeds robotVelocityFieldRelative) {
-        final double flightTime = getFlightTimeSeconds(targetPosition, robotPosition);
-        final Translation2d robotPositionAfterFlightTime = robotPosition.plus(new Translation2d(
-                robotVelocityFieldRelative.vxMetersPerSecond * flightTime,
-                robotVelocityFieldRelative.vyMetersPerSecond * flightTime));
+        return getShooterFacing(targetPosition, robotPosition, robotVelocityFieldRelative, shooterFacing)
+                .toRotation2d();
+    }
 
-        return targetPosition.minus(robotPositionAfterFlightTime).getAngle();
+    /**
+     * Same as {@link #getShooterFacing(Translation2d, Translation2d, ChassisSpeeds)}, without allocating.
+     *
+     * @param shooterFacingOut the rotation to write the result to
+     * @return shooterFacingOut
+     */
+    public MutableRotation2d getShooterFacing(
+            Translation2d targetPosition,
+            Translation2d robotPosition,
+            ChassisSpeeds robotVelocityFieldRelative,
+            MutableRotation2d shooterFacingOut) {
+        final double flightTime = getFlightTimeSeconds(targetPosition, robotPosition);
+        /* from the robot position after the flight time to the target */
+        aimVector
+                .set(targetPosition)
+                .minus(robotPosition)
+                .plus(
+                        -robotVelocityFieldRelative.vxMetersPerSecond * flightTime,
+                        -robotVelocityFieldRelative.vyMetersPerSecond * flightTime);
+
+        return shooterFacingOut.setDirection(aimVector.x, aimVector.y);
     }
 
     public ShooterState getOptimizedShootingState(
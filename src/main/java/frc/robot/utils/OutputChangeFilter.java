@@ -0,0 +1,42 @@
+package frc.robot.utils;
+
+/**
+ * Decides whether a motor output needs to be sent, to avoid sending the same control frame again every cycle.
+ *
+ * <p>An output is sent if it differs from the last sent output by more than the tolerance, if it's exactly zero while
+ * the last sent output isn't, or if the last output was sent longer than the keep-alive period ago.
+ */
+public class OutputChangeFilter {
+    private final double tolerance, keepAlivePeriodSeconds;
+    private double lastSentOutput = Double.NaN, lastSentTimeSeconds = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param tolerance the outputs within this tolerance of the last sent output are skipped
+     * @param keepAlivePeriodSeconds the output is sent at least once every this long, even if unchanged
+     */
+    public OutputChangeFilter(double tolerance, double keepAlivePeriodSeconds) {
+        this.tolerance = tolerance;
+        this.keepAlivePeriodSeconds = keepAlivePeriodSeconds;
+    }
+
+    /**
+     * @param output the output to send
+     * @return whether the output should be sent, in which case it's recorded as sent
+     */
+    public boolean shouldSend(double output) {
+        final double now = MapleTimeUtils.getRealTimeSeconds();
+        final boolean stopping = output == 0 && lastSentOutput != 0,
+                unchanged = Math.abs(output - lastSentOutput) <= tolerance && !stopping;
+        if (unchanged && now - lastSentTimeSeconds < keepAlivePeriodSeconds) return false;
+
+        lastSentOutput = output;
+        lastSentTimeSeconds = now;
+        return true;
+    }
+
+    /** Forgets the last sent output, so that the next output is sent anyway (e.g. after the control mode changed). */
+    public void reset() {
+        lastSentOutput = Double.NaN;
+        lastSentTimeSeconds = Double.NEGATIVE_INFINITY;
+    }
+}
@@ -0,0 +1,100 @@
+package frc.robot.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-bin histogram of loop periods, recorded by a high-rate thread and summarized by the main thread.
+ *
+ * <p>{@link #record(long)} is called from the measured thread, it does not block or allocate. {@link #update()} is
+ * called from the main thread: every {@link #WINDOW_SECONDS}, it computes the percentiles of the periods recorded
+ * during the window.
+ */
+public class PeriodHistogram {
+    public static final double WINDOW_SECONDS = 1.0;
+    private static final long BIN_WIDTH_NANOS = 20_000;
+
+    /* the last bin collects every period longer than the range of the histogram */
+    private final AtomicLongArray binsCounts;
+    private final AtomicLong windowMaxPeriodNanos = new AtomicLong(0);
+    private long previousTickNanos = -1;
+
+    /* accessed by the main thread only */
+    private final long[] binsCountsAtWindowStart, binsCountsInWindow;
+    private double windowStartTimeSeconds = -1;
+    private long windowSamplesCount = 0;
+    private double p50Millis = 0, p99Millis = 0, maxMillis = 0;
+
+    /** @param maxPeriodSeconds the range of the histogram, longer periods are only accounted for in the max */
+    public PeriodHistogram(double maxPeriodSeconds) {
+        final int binsCount = (int) Math.ceil(maxPeriodSeconds * 1_000_000_000L / BIN_WIDTH_NANOS) + 1;
+        this.binsCounts = new AtomicLongArray(binsCount);
+        this.binsCountsAtWindowStart = new long[binsCount];
+        this.binsCountsInWindow = new long[binsCount];
+    }
+
+    /**
+     * Records a tick of the measured loop, called from the measured thread.
+     *
+     * @param tickTimeNanos the time of the tick, from {@link System#nanoTime()}
+     */
+    public void record(long tickTimeNanos) {
+        if (previousTickNanos != -1) {
+            final long periodNanos = tickTimeNanos - previousTickNanos;
+            final int bin = (int) Math.min(periodNanos / BIN_WIDTH_NANOS, binsCounts.length() - 1);
+            binsCounts.lazySet(bin, binsCounts.get(bin) + 1); // the measured thread is the only writer
+            windowMaxPeriodNanos.accumulateAndGet(periodNanos, Math::max);
+        }
+        previousTickNanos = tickTimeNanos;
+    }
+
+    /** Called from the main thread, re-computes the statistics once the current window is complete. */
+    public void update() {
+        final double now = MapleTimeUtils.getRealTimeSeconds();
+        if (windowStartTimeSeconds != -1 && now - windowStartTimeSeconds < WINDOW_SECONDS) return;
+        windowStartTimeSeconds = now;
+
+        long samplesCount = 0;
+        for (int i = 0; i < binsCountsInWindow.length; i++) {
+            final long count = binsCounts.get(i);
+            binsCountsInWindow[i] = count - binsCountsAtWindowStart[i];
+            binsCountsAtWindowStart[i] = count;
+            samplesCount += binsCountsInWindow[i];
+        }
+
+        final long p50Rank = (long) Math.ceil(samplesCount * 0.5), p99Rank = (long) Math.ceil(samplesCount * 0.99);
+        long cumulativeCount = 0;
+        for (int i = 0; i < binsCountsInWindow.length; i++) {
+            final long previousCumulativeCount = cumulativeCount;
+            cumulativeCount += binsCountsInWindow[i];
+            if (previousCumulativeCount < p50Rank && cumulativeCount >= p50Rank) p50Millis = binToMillis(i);
+            if (previousCumulativeCount < p99Rank && cumulativeCount >= p99Rank) p99Millis = binToMillis(i);
+        }
+
+        this.windowSamplesCount = samplesCount;
+        this.maxMillis = windowMaxPeriodNanos.getAndSet(0) / 1_000_000.0;
+        if (samplesCount == 0) p50Millis = p99Millis = 0;
+    }
+
+    /* the upper edge of the bin */
+    private static double binToMillis(int bin) {
+        return (bin + 1) * BIN_WIDTH_NANOS / 1_000_000.0;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    /** @return the amount of periods recorded during the last complete window */
+    public long getWindowSamplesCount() {
+        return windowSamplesCount;
+    }
+}
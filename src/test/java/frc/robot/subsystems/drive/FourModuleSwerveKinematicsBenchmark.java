@@ -0,0 +1,125 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Times {@link FourModuleSwerveKinematics} against WPILib's {@link SwerveDriveKinematics}, on the same random chassis
+ * speeds and module states.
+ *
+ * <p>The module states are converted to module vectors with
+ * {@link FourModuleSwerveKinematics#setModuleVector(double[], int, double, edu.wpi.first.math.geometry.Rotation2d)}
+ * inside the timed loop, as the drive does every cycle. The timings are printed, and the results must be the same.
+ *
+ * <p>Excluded from the default test task, run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class FourModuleSwerveKinematicsBenchmark {
+    private static final int SAMPLES_COUNT = 1024, WARM_UP_ROUNDS = 200, MEASURED_ROUNDS = 200;
+    private static final int MODULES_COUNT = FourModuleSwerveKinematics.MODULES_COUNT;
+    private static final double EPSILON = 1e-6;
+    private static final Translation2d[] MODULE_TRANSLATIONS = {
+        new Translation2d(0.4, 0.25),
+        new Translation2d(0.35, -0.3),
+        new Translation2d(-0.2, 0.28),
+        new Translation2d(-0.25, -0.2)
+    };
+
+    private final SwerveDriveKinematics wpilibKinematics = new SwerveDriveKinematics(MODULE_TRANSLATIONS);
+    private final FourModuleSwerveKinematics kinematics = new FourModuleSwerveKinematics(MODULE_TRANSLATIONS);
+    private final ChassisSpeeds[] chassisSpeeds = new ChassisSpeeds[SAMPLES_COUNT];
+    private final SwerveModuleState[][] modulesStates = new SwerveModuleState[SAMPLES_COUNT][];
+
+    private final double[] speeds = new double[MODULES_COUNT],
+            headingsRad = new double[MODULES_COUNT],
+            moduleVectors = new double[MODULES_COUNT * 2],
+            chassisMotion = new double[3];
+
+    FourModuleSwerveKinematicsBenchmark() {
+        final Random random = new Random(5516);
+        for (int i = 0; i < SAMPLES_COUNT; i++) {
+            chassisSpeeds[i] =
+                    new ChassisSpeeds(random.nextDouble(-4, 4), random.nextDouble(-4, 4), random.nextDouble(-6, 6));
+            modulesStates[i] = wpilibKinematics.toSwerveModuleStates(chassisSpeeds[i]);
+        }
+    }
+
+    @Test
+    void moduleStates() {
+        final double expected = time("SwerveDriveKinematics.toSwerveModuleStates", this::wpilibModuleStates),
+                actual = time("FourModuleSwerveKinematics.toModuleStates", this::moduleStatesRound);
+        assertEquals(expected, actual, EPSILON * SAMPLES_COUNT);
+    }
+
+    @Test
+    void chassisSpeeds() {
+        final double expected = time("SwerveDriveKinematics.toChassisSpeeds", this::wpilibChassisSpeeds),
+                actual = time("FourModuleSwerveKinematics.toChassisMotion", this::chassisMotionRound);
+        assertEquals(expected, actual, EPSILON * SAMPLES_COUNT);
+    }
+
+    /* the sum of the module speeds of all the samples */
+    private double wpilibModuleStates() {
+        double sum = 0;
+        for (ChassisSpeeds sample : chassisSpeeds)
+            for (SwerveModuleState state : wpilibKinematics.toSwerveModuleStates(sample))
+                sum += state.speedMetersPerSecond;
+        return sum;
+    }
+
+    private double moduleStatesRound() {
+        double sum = 0;
+        for (ChassisSpeeds sample : chassisSpeeds) {
+            kinematics.toModuleStates(
+                    sample.vxMetersPerSecond,
+                    sample.vyMetersPerSecond,
+                    sample.omegaRadiansPerSecond,
+                    speeds,
+                    headingsRad);
+            for (int i = 0; i < MODULES_COUNT; i++) sum += speeds[i];
+        }
+        return sum;
+    }
+
+    /* the sum of the chassis speeds of all the samples */
+    private double wpilibChassisSpeeds() {
+        double sum = 0;
+        for (SwerveModuleState[] states : modulesStates) {
+            final ChassisSpeeds result = wpilibKinematics.toChassisSpeeds(states);
+            sum += result.vxMetersPerSecond + result.vyMetersPerSecond + result.omegaRadiansPerSecond;
+        }
+        return sum;
+    }
+
+    private double chassisMotionRound() {
+        double sum = 0;
+        for (SwerveModuleState[] states : modulesStates) {
+            for (int i = 0; i < MODULES_COUNT; i++)
+                FourModuleSwerveKinematics.setModuleVector(
+                        moduleVectors, i, states[i].speedMetersPerSecond, states[i].angle);
+            kinematics.toChassisMotion(moduleVectors, chassisMotion);
+            sum += chassisMotion[0] + chassisMotion[1] + chassisMotion[2];
+        }
+        return sum;
+    }
+
+    /* returns the result of the last round, so that the rounds cannot be optimized away */
+    private static double time(String name, DoubleSupplier round) {
+        double result = 0;
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) result = round.getAsDouble();
+
+        final long t0 = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) result = round.getAsDouble();
+        final double nanosecondsPerSample = (double) (System.nanoTime() - t0) / MEASURED_ROUNDS / SAMPLES_COUNT;
+        System.out.printf("%s: %.1f ns per sample%n", name, nanosecondsPerSample);
+        return result;
+    }
+}
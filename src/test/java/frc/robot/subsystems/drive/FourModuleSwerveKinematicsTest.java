@@ -0,0 +1,144 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class FourModuleSwerveKinematicsTest {
+    private static final double EPSILON = 1e-9;
+    private static final int SAMPLES_COUNT = 1000;
+    private static final int MODULES_COUNT = FourModuleSwerveKinematics.MODULES_COUNT;
+
+    private static final Translation2d[] SQUARE_MODULES = {
+        new Translation2d(0.3, 0.3),
+        new Translation2d(0.3, -0.3),
+        new Translation2d(-0.3, 0.3),
+        new Translation2d(-0.3, -0.3)
+    };
+    /* not centered on the robot, so the pseudo-inverse is not a plain average */
+    private static final Translation2d[] OFFSET_MODULES = {
+        new Translation2d(0.4, 0.25),
+        new Translation2d(0.35, -0.3),
+        new Translation2d(-0.2, 0.28),
+        new Translation2d(-0.25, -0.2)
+    };
+
+    private final Random random = new Random(5516);
+
+    @Test
+    void moduleStatesMatchWPILib() {
+        for (Translation2d[] translations : new Translation2d[][] {SQUARE_MODULES, OFFSET_MODULES}) {
+            final SwerveDriveKinematics expected = new SwerveDriveKinematics(translations);
+            final FourModuleSwerveKinematics actual = new FourModuleSwerveKinematics(translations);
+            final double[] speeds = new double[MODULES_COUNT], headingsRad = new double[MODULES_COUNT];
+            for (int sample = 0; sample < SAMPLES_COUNT; sample++) {
+                final ChassisSpeeds chassisSpeeds = randomChassisSpeeds();
+                actual.toModuleStates(
+                        chassisSpeeds.vxMetersPerSecond,
+                        chassisSpeeds.vyMetersPerSecond,
+                        chassisSpeeds.omegaRadiansPerSecond,
+                        speeds,
+                        headingsRad);
+                assertStatesEqual(expected.toSwerveModuleStates(chassisSpeeds), speeds, headingsRad);
+            }
+        }
+    }
+
+    @Test
+    void headingsAreHeldWhileStopped() {
+        final SwerveDriveKinematics expected = new SwerveDriveKinematics(OFFSET_MODULES);
+        final FourModuleSwerveKinematics actual = new FourModuleSwerveKinematics(OFFSET_MODULES);
+        final double[] speeds = new double[MODULES_COUNT], headingsRad = new double[MODULES_COUNT];
+        for (int sample = 0; sample < 100; sample++) {
+            final ChassisSpeeds chassisSpeeds = randomChassisSpeeds();
+            expected.toSwerveModuleStates(chassisSpeeds);
+            actual.toModuleStates(
+                    chassisSpeeds.vxMetersPerSecond,
+                    chassisSpeeds.vyMetersPerSecond,
+                    chassisSpeeds.omegaRadiansPerSecond,
+                    speeds,
+                    headingsRad);
+
+            actual.toModuleStates(0, 0, 0, speeds, headingsRad);
+            assertStatesEqual(expected.toSwerveModuleStates(new ChassisSpeeds()), speeds, headingsRad);
+
+            final Rotation2d[] resetHeadings = new Rotation2d[MODULES_COUNT];
+            for (int i = 0; i < MODULES_COUNT; i++)
+                resetHeadings[i] = Rotation2d.fromRadians(random.nextDouble(-Math.PI, Math.PI));
+            expected.resetHeadings(resetHeadings);
+            actual.resetHeadings(resetHeadings);
+            actual.toModuleStates(0, 0, 0, speeds, headingsRad);
+            assertStatesEqual(expected.toSwerveModuleStates(new ChassisSpeeds()), speeds, headingsRad);
+        }
+    }
+
+    @Test
+    void chassisMotionMatchesWPILib() {
+        for (Translation2d[] translations : new Translation2d[][] {SQUARE_MODULES, OFFSET_MODULES}) {
+            final SwerveDriveKinematics expected = new SwerveDriveKinematics(translations);
+            final FourModuleSwerveKinematics actual = new FourModuleSwerveKinematics(translations);
+            final double[] moduleVectors = new double[MODULES_COUNT * 2], chassis = new double[3];
+            for (int sample = 0; sample < SAMPLES_COUNT; sample++) {
+                /* random module vectors, which are in general not consistent with any rigid motion */
+                final SwerveModuleState[] states = new SwerveModuleState[MODULES_COUNT];
+                final SwerveModulePosition[] deltas = new SwerveModulePosition[MODULES_COUNT];
+                for (int i = 0; i < MODULES_COUNT; i++) {
+                    final double norm = random.nextDouble(-5, 5);
+                    final Rotation2d facing = Rotation2d.fromRadians(random.nextDouble(-Math.PI, Math.PI));
+                    states[i] = new SwerveModuleState(norm, facing);
+                    deltas[i] = new SwerveModulePosition(norm, facing);
+                    FourModuleSwerveKinematics.setModuleVector(moduleVectors, i, norm, facing);
+                }
+
+                actual.toChassisMotion(moduleVectors, chassis);
+                final ChassisSpeeds expectedSpeeds = expected.toChassisSpeeds(states);
+                assertEquals(expectedSpeeds.vxMetersPerSecond, chassis[0], EPSILON);
+                assertEquals(expectedSpeeds.vyMetersPerSecond, chassis[1], EPSILON);
+                assertEquals(expectedSpeeds.omegaRadiansPerSecond, chassis[2], EPSILON);
+
+                final Twist2d expectedTwist = expected.toTwist2d(deltas);
+                assertEquals(expectedTwist.dx, chassis[0], EPSILON);
+                assertEquals(expectedTwist.dy, chassis[1], EPSILON);
+                assertEquals(expectedTwist.dtheta, chassis[2], EPSILON);
+                assertEquals(expectedTwist.dtheta, actual.toChassisRotation(moduleVectors), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    void desaturateMatchesWPILib() {
+        final double[] speeds = new double[MODULES_COUNT];
+        for (int sample = 0; sample < SAMPLES_COUNT; sample++) {
+            final double maxSpeed = random.nextDouble(0.5, 5);
+            final SwerveModuleState[] states = new SwerveModuleState[MODULES_COUNT];
+            for (int i = 0; i < MODULES_COUNT; i++) {
+                speeds[i] = random.nextDouble(-8, 8);
+                states[i] = new SwerveModuleState(speeds[i], new Rotation2d());
+            }
+
+            SwerveDriveKinematics.desaturateWheelSpeeds(states, maxSpeed);
+            FourModuleSwerveKinematics.desaturate(speeds, maxSpeed);
+            for (int i = 0; i < MODULES_COUNT; i++) assertEquals(states[i].speedMetersPerSecond, speeds[i], EPSILON);
+        }
+    }
+
+    private ChassisSpeeds randomChassisSpeeds() {
+        return new ChassisSpeeds(random.nextDouble(-5, 5), random.nextDouble(-5, 5), random.nextDouble(-10, 10));
+    }
+
+    private static void assertStatesEqual(SwerveModuleState[] expected, double[] speeds, double[] headingsRad) {
+        for (int i = 0; i < MODULES_COUNT; i++) {
+            assertEquals(expected[i].speedMetersPerSecond, speeds[i], EPSILON);
+            assertEquals(0, MathUtil.angleModulus(expected[i].angle.getRadians() - headingsRad[i]), EPSILON);
+        }
+    }
+}
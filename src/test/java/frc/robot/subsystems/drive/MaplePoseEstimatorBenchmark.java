@@ -0,0 +1,133 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.Random;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Times bursts of vision measurements into {@link MaplePoseEstimator}, and into WPILib's
+ * {@link SwerveDrivePoseEstimator} with the same inputs.
+ *
+ * <p>The odometry is updated at 250 Hz, so the 1.5 seconds of history are full when the timing starts; every robot
+ * cycle then adds a burst of five vision measurements, with latencies of up to 0.3 seconds. The timings are printed,
+ * and both estimators must end at the same pose.
+ *
+ * <p>Excluded from the default test task, run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class MaplePoseEstimatorBenchmark {
+    private static final double ROBOT_PERIOD_SECONDS = 0.02, EPSILON = 1e-6;
+    private static final int FRAMES_PER_CYCLE = 5, VISION_MEASUREMENTS_PER_BURST = 5;
+    private static final int WARM_UP_CYCLES = 2_000, MEASURED_CYCLES = 2_000;
+    private static final Translation2d[] MODULE_TRANSLATIONS = {
+        new Translation2d(0.3, 0.3),
+        new Translation2d(0.3, -0.3),
+        new Translation2d(-0.3, 0.3),
+        new Translation2d(-0.3, -0.3)
+    };
+    private static final Matrix<N3, N1> STATE_STANDARD_DEVIATIONS = VecBuilder.fill(0.1, 0.1, 0.05),
+            VISION_STANDARD_DEVIATIONS = VecBuilder.fill(0.5, 0.5, 0.9);
+    private static final Pose2d INITIAL_POSE = new Pose2d(2, 3, Rotation2d.fromDegrees(90));
+
+    /* the inputs of all the cycles, generated before the timing */
+    private static final int CYCLES = WARM_UP_CYCLES + MEASURED_CYCLES;
+    private final double[] frameTimeStamps = new double[CYCLES * FRAMES_PER_CYCLE];
+    private final Rotation2d[] gyroAngles = new Rotation2d[CYCLES * FRAMES_PER_CYCLE];
+    private final SwerveModulePosition[][] modulesPositions = new SwerveModulePosition[CYCLES * FRAMES_PER_CYCLE][];
+    private final double[] visionTimeStamps = new double[CYCLES * VISION_MEASUREMENTS_PER_BURST];
+    private final Pose2d[] visionPoses = new Pose2d[CYCLES * VISION_MEASUREMENTS_PER_BURST];
+
+    @Test
+    void visionBursts() {
+        generateInputs();
+        final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(MODULE_TRANSLATIONS);
+        final DrivePoseEstimator wpilibEstimator = DrivePoseEstimator.of(new SwerveDrivePoseEstimator(
+                kinematics,
+                gyroAngles[0],
+                modulesPositions[0],
+                INITIAL_POSE,
+                STATE_STANDARD_DEVIATIONS,
+                VISION_STANDARD_DEVIATIONS));
+        final DrivePoseEstimator mapleEstimator = new MaplePoseEstimator(
+                kinematics,
+                gyroAngles[0],
+                modulesPositions[0],
+                INITIAL_POSE,
+                STATE_STANDARD_DEVIATIONS,
+                VISION_STANDARD_DEVIATIONS);
+
+        final Pose2d expected = benchmark("SwerveDrivePoseEstimator", wpilibEstimator),
+                actual = benchmark("MaplePoseEstimator", mapleEstimator);
+        assertEquals(expected.getX(), actual.getX(), EPSILON);
+        assertEquals(expected.getY(), actual.getY(), EPSILON);
+        assertEquals(0, expected.getRotation().minus(actual.getRotation()).getRadians(), EPSILON);
+    }
+
+    private Pose2d benchmark(String name, DrivePoseEstimator estimator) {
+        long visionNanos = 0;
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            for (int frame = cycle * FRAMES_PER_CYCLE; frame < (cycle + 1) * FRAMES_PER_CYCLE; frame++)
+                estimator.updateWithTime(frameTimeStamps[frame], gyroAngles[frame], modulesPositions[frame]);
+
+            final long t0 = System.nanoTime();
+            for (int i = cycle * VISION_MEASUREMENTS_PER_BURST; i < (cycle + 1) * VISION_MEASUREMENTS_PER_BURST; i++)
+                estimator.addVisionMeasurement(visionPoses[i], visionTimeStamps[i], VISION_STANDARD_DEVIATIONS);
+            if (cycle >= WARM_UP_CYCLES) visionNanos += System.nanoTime() - t0;
+        }
+        System.out.printf(
+                "%s: %.1f us per burst of %d vision measurements%n",
+                name, visionNanos / 1000.0 / MEASURED_CYCLES, VISION_MEASUREMENTS_PER_BURST);
+        return estimator.getEstimatedPosition();
+    }
+
+    /* drives the modules at random chassis speeds, changing every second, the vision poses are anywhere on the field */
+    private void generateInputs() {
+        final Random random = new Random(5516);
+        final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(MODULE_TRANSLATIONS);
+        final double framePeriod = ROBOT_PERIOD_SECONDS / FRAMES_PER_CYCLE;
+        final double[] moduleDistances = new double[MODULE_TRANSLATIONS.length];
+        final Rotation2d[] moduleFacings = new Rotation2d[MODULE_TRANSLATIONS.length];
+        Rotation2d gyroAngle = new Rotation2d();
+        ChassisSpeeds speeds = new ChassisSpeeds();
+
+        for (int frame = 0; frame < frameTimeStamps.length; frame++) {
+            if (frame % 250 == 0)
+                speeds = new ChassisSpeeds(
+                        random.nextDouble(-3, 3), random.nextDouble(-3, 3), random.nextDouble(-4, 4));
+            final SwerveModuleState[] states = kinematics.toSwerveModuleStates(speeds);
+            for (int i = 0; i < states.length; i++) {
+                moduleDistances[i] += states[i].speedMetersPerSecond * framePeriod;
+                moduleFacings[i] = states[i].angle;
+            }
+            gyroAngle = gyroAngle.plus(Rotation2d.fromRadians(speeds.omegaRadiansPerSecond * framePeriod));
+
+            frameTimeStamps[frame] = 1 + frame * framePeriod;
+            gyroAngles[frame] = gyroAngle;
+            modulesPositions[frame] = new SwerveModulePosition[moduleDistances.length];
+            for (int i = 0; i < moduleDistances.length; i++)
+                modulesPositions[frame][i] = new SwerveModulePosition(moduleDistances[i], moduleFacings[i]);
+        }
+
+        for (int i = 0; i < visionPoses.length; i++) {
+            final int cycle = i / VISION_MEASUREMENTS_PER_BURST;
+            final double cycleTimeStamp = frameTimeStamps[(cycle + 1) * FRAMES_PER_CYCLE - 1];
+            visionTimeStamps[i] = cycleTimeStamp - random.nextDouble(0, 0.3);
+            visionPoses[i] = new Pose2d(
+                    random.nextDouble(0, 16), random.nextDouble(0, 8), Rotation2d.fromRadians(random.nextGaussian()));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class MaplePoseEstimatorTest {
+    private static final double EPSILON = 1e-6, DT = 0.02;
+    private static final Translation2d[] MODULE_TRANSLATIONS = {
+        new Translation2d(0.3, 0.3),
+        new Translation2d(0.3, -0.3),
+        new Translation2d(-0.3, 0.3),
+        new Translation2d(-0.3, -0.3)
+    };
+    private static final Matrix<N3, N1> STATE_STANDARD_DEVIATIONS = VecBuilder.fill(0.1, 0.1, 0.05);
+
+    private final Random random = new Random(5516);
+    /* only used to generate the module positions of the simulated drive */
+    private final SwerveDriveKinematics simulationKinematics = new SwerveDriveKinematics(MODULE_TRANSLATIONS);
+
+    private final double[] moduleDistances = new double[MODULE_TRANSLATIONS.length];
+    private final Rotation2d[] moduleFacings = new Rotation2d[MODULE_TRANSLATIONS.length];
+    private Rotation2d gyroAngle = Rotation2d.fromDegrees(30);
+
+    @Test
+    void matchesWPILibEstimator() {
+        for (int i = 0; i < moduleFacings.length; i++) moduleFacings[i] = new Rotation2d();
+        final Pose2d initialPose = new Pose2d(2, 3, Rotation2d.fromDegrees(90));
+        final Matrix<N3, N1> visionStandardDeviations = VecBuilder.fill(0.9, 0.9, 0.9);
+        final SwerveDrivePoseEstimator expected = new SwerveDrivePoseEstimator(
+                new SwerveDriveKinematics(MODULE_TRANSLATIONS),
+                gyroAngle,
+                modulePositions(),
+                initialPose,
+                STATE_STANDARD_DEVIATIONS,
+                visionStandardDeviations);
+        final MaplePoseEstimator actual = new MaplePoseEstimator(
+                new SwerveDriveKinematics(MODULE_TRANSLATIONS),
+                gyroAngle,
+                modulePositions(),
+                initialPose,
+                STATE_STANDARD_DEVIATIONS,
+                visionStandardDeviations);
+
+        /* long enough for the odometry history and the vision corrections to be trimmed many times */
+        double timeStamp = 1;
+        ChassisSpeeds speeds = new ChassisSpeeds();
+        for (int step = 0; step < 1000; step++, timeStamp += DT) {
+            if (step % 50 == 0) speeds = randomChassisSpeeds();
+            driveSimulation(speeds);
+            final SwerveModulePosition[] positions = modulePositions();
+            expected.updateWithTime(timeStamp, gyroAngle, positions);
+            actual.updateWithTime(timeStamp, gyroAngle, positions);
+            assertPoseEquals(expected.getEstimatedPosition(), actual.getEstimatedPosition());
+
+            /* vision measurements with random latencies, sometimes several per cycle or out of order */
+            final int visionMeasurementsCount = step % 3 == 0 ? random.nextInt(3) : 0;
+            for (int i = 0; i < visionMeasurementsCount; i++) {
+                final double measurementTime = timeStamp - random.nextDouble(0, 0.3);
+                final Pose2d visionPose = randomPoseAround(expected.getEstimatedPosition());
+                final Matrix<N3, N1> standardDeviations = VecBuilder.fill(
+                        random.nextDouble(0.05, 2), random.nextDouble(0.05, 2), random.nextDouble(0.05, 2));
+                expected.addVisionMeasurement(visionPose, measurementTime, standardDeviations);
+                actual.addVisionMeasurement(visionPose, measurementTime, standardDeviations);
+                assertPoseEquals(expected.getEstimatedPosition(), actual.getEstimatedPosition());
+            }
+
+            /* a stale measurement, older than the history, is ignored by both */
+            if (step % 97 == 0) {
+                final Pose2d stalePose = randomPoseAround(expected.getEstimatedPosition());
+                expected.addVisionMeasurement(stalePose, timeStamp - 2, visionStandardDeviations);
+                actual.addVisionMeasurement(stalePose, timeStamp - 2, visionStandardDeviations);
+                assertPoseEquals(expected.getEstimatedPosition(), actual.getEstimatedPosition());
+            }
+
+            /* the past poses, including time stamps out of the history, which are clamped */
+            for (int i = 0; i < 5; i++) {
+                final double sampleTime = timeStamp - random.nextDouble(-0.1, 2);
+                assertPoseEquals(expected.sampleAt(sampleTime), actual.getPoseAt(sampleTime));
+            }
+
+            if (step == 600) {
+                final Pose2d resetPose = new Pose2d(5, 1, Rotation2d.fromDegrees(-45));
+                expected.resetPosition(gyroAngle, modulePositions(), resetPose);
+                actual.resetPosition(gyroAngle, modulePositions(), resetPose);
+                assertPoseEquals(expected.getEstimatedPosition(), actual.getEstimatedPosition());
+                assertPoseEquals(expected.sampleAt(timeStamp), actual.getPoseAt(timeStamp));
+            }
+        }
+    }
+
+    /* moves the modules and the gyro by one cycle of the chassis speeds, with some noise */
+    private void driveSimulation(ChassisSpeeds speeds) {
+        final SwerveModuleState[] states = simulationKinematics.toSwerveModuleStates(speeds);
+        for (int i = 0; i < states.length; i++) {
+            moduleDistances[i] += states[i].speedMetersPerSecond * DT * random.nextDouble(0.95, 1.05);
+            moduleFacings[i] = states[i].angle;
+        }
+        gyroAngle = gyroAngle.plus(
+                Rotation2d.fromRadians(speeds.omegaRadiansPerSecond * DT + random.nextGaussian() * 0.001));
+    }
+
+    private SwerveModulePosition[] modulePositions() {
+        final SwerveModulePosition[] positions = new SwerveModulePosition[moduleDistances.length];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = new SwerveModulePosition(moduleDistances[i], moduleFacings[i]);
+        return positions;
+    }
+
+    private ChassisSpeeds randomChassisSpeeds() {
+        return new ChassisSpeeds(random.nextDouble(-3, 3), random.nextDouble(-3, 3), random.nextDouble(-4, 4));
+    }
+
+    private Pose2d randomPoseAround(Pose2d pose) {
+        return new Pose2d(
+                pose.getX() + random.nextGaussian() * 0.3,
+                pose.getY() + random.nextGaussian() * 0.3,
+                pose.getRotation().plus(Rotation2d.fromRadians(random.nextGaussian() * 0.2)));
+    }
+
+    private static void assertPoseEquals(Optional<Pose2d> expected, Optional<Pose2d> actual) {
+        assertEquals(expected.isPresent(), actual.isPresent());
+        expected.ifPresent(pose -> assertPoseEquals(pose, actual.get()));
+    }
+
+    private static void assertPoseEquals(Pose2d expected, Pose2d actual) {
+        assertEquals(expected.getX(), actual.getX(), EPSILON);
+        assertEquals(expected.getY(), actual.getY(), EPSILON);
+        final double rotationError = expected.getRotation().getRadians() - actual.getRotation().getRadians();
+        assertEquals(0, MathUtil.angleModulus(rotationError), EPSILON);
+    }
+}
@@ -0,0 +1,200 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.subsystems.drive.IO.DriveIORegistry;
+import frc.robot.subsystems.drive.IO.GyroIO;
+import frc.robot.subsystems.drive.IO.ModuleIO;
+import frc.robot.subsystems.drive.IO.OdometryThread;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class SwerveDriveAllocationTest {
+    private static final int FEW_SAMPLES_PER_CYCLE = 5, MANY_SAMPLES_PER_CYCLE = 20;
+    private static final int WARM_UP_CYCLES = 20_000, MEASURED_CYCLES = 1_000;
+    private static final double FRAME_PERIOD_SECONDS = 0.004;
+    /*
+     * the cycles themselves allocate, the robot state and the alert texts for example, but not the samples: any object
+     * takes at least 16 bytes, so less than 4 bytes per sample means that nothing is allocated per sample
+     */
+    private static final double MAX_BYTES_PER_SAMPLE = 4;
+
+    private int samplesPerCycle = FEW_SAMPLES_PER_CYCLE;
+
+    @BeforeAll
+    static void initializeHAL() {
+        assertTrue(HAL.initialize(500, 0));
+    }
+
+    /* drives straight forward, the wheels turn while the steers hold, filling the samples in place like the real IOs */
+    private final class FakeModuleIO implements ModuleIO {
+        private final double steerRad;
+        private final double[] driveWheelRevolutions = new double[MANY_SAMPLES_PER_CYCLE],
+                steerPositionsRad = new double[MANY_SAMPLES_PER_CYCLE];
+        private double revolutions = 0;
+
+        FakeModuleIO(double steerRad) {
+            this.steerRad = steerRad;
+        }
+
+        @Override
+        public void updateInputs(ModuleIOInputs inputs) {
+            for (int i = 0; i < samplesPerCycle; i++) {
+                revolutions += 0.01;
+                driveWheelRevolutions[i] = revolutions;
+                steerPositionsRad[i] = steerRad;
+            }
+            inputs.odometrySamplesCount = samplesPerCycle;
+            inputs.odometryDriveWheelRevolutions = driveWheelRevolutions;
+            inputs.odometrySteerPositionsRad = steerPositionsRad;
+            inputs.hardwareConnected = true;
+        }
+    }
+
+    /* holds the heading while the robot drives straight */
+    private final class FakeGyroIO implements GyroIO {
+        private final double[] yawPositionsRad = new double[MANY_SAMPLES_PER_CYCLE];
+
+        @Override
+        public void updateInputs(GyroIOInputs inputs) {
+            for (int i = 0; i < samplesPerCycle; i++) yawPositionsRad[i] = 0.5;
+            inputs.connected = true;
+            inputs.odometrySamplesCount = samplesPerCycle;
+            inputs.odometryYawPositionsRad = yawPositionsRad;
+        }
+    }
+
+    /* delivers the time stamps of the samples, one array per samples count, so that they are not allocated */
+    private final class FakeOdometryThread implements OdometryThread {
+        private final double[] fewTimeStamps = new double[FEW_SAMPLES_PER_CYCLE],
+                manyTimeStamps = new double[MANY_SAMPLES_PER_CYCLE];
+        private double timeStamp = 0;
+
+        @Override
+        public void updateInputs(OdometryThreadInputs inputs) {
+            inputs.measurementTimeStamps = samplesPerCycle == FEW_SAMPLES_PER_CYCLE ? fewTimeStamps : manyTimeStamps;
+            for (int i = 0; i < samplesPerCycle; i++)
+                inputs.measurementTimeStamps[i] = timeStamp += FRAME_PERIOD_SECONDS;
+        }
+    }
+
+    /* counts the samples replayed, and checks that the drive hands over the same module positions every time */
+    private static final class CountingPoseEstimator implements DrivePoseEstimator {
+        private final Pose2d pose = new Pose2d();
+        private SwerveModulePosition[] modulePositions;
+        private SwerveModulePosition frontLeftPosition;
+        private boolean positionsReused = true;
+        private double previousDistanceMeters = Double.NEGATIVE_INFINITY;
+        private boolean distancesIncreasing = true;
+        private long updatesCount = 0;
+
+        @Override
+        public void updateWithTime(double timeStamp, Rotation2d gyroAngle, SwerveModulePosition[] modulePositions) {
+            if (this.modulePositions == null) {
+                this.modulePositions = modulePositions;
+                this.frontLeftPosition = modulePositions[0];
+            }
+            positionsReused &= modulePositions == this.modulePositions && modulePositions[0] == frontLeftPosition;
+            distancesIncreasing &= modulePositions[0].distanceMeters > previousDistanceMeters;
+            previousDistanceMeters = modulePositions[0].distanceMeters;
+            updatesCount++;
+        }
+
+        @Override
+        public void resetPosition(Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d pose) {}
+
+        @Override
+        public Pose2d getEstimatedPosition() {
+            return pose;
+        }
+
+        @Override
+        public void addVisionMeasurement(Pose2d visionRobotPose, double timeStamp, Matrix<N3, N1> standardDeviations) {}
+
+        @Override
+        public Optional<Pose2d> getPoseAt(double timeStamp) {
+            return Optional.empty();
+        }
+    }
+
+    @Test
+    void odometryPositionsAreReusedAcrossCycles() {
+        final SwerveModule module = new SwerveModule(new FakeModuleIO(0.3), "AllocationTest");
+        module.updateOdometryInputs();
+        module.periodic(0.02, false);
+        final SwerveModulePosition[] positions = module.getOdometryPositions();
+        final SwerveModulePosition firstPosition = positions[0];
+
+        module.updateOdometryInputs();
+        module.periodic(0.02, false);
+        assertSame(positions, module.getOdometryPositions());
+        assertSame(firstPosition, module.getOdometryPositions()[0]);
+        assertEquals(FEW_SAMPLES_PER_CYCLE, module.getOdometrySamplesCount());
+    }
+
+    @Test
+    void periodicAllocatesNothingPerSample() {
+        final com.sun.management.ThreadMXBean threadMXBean =
+                ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                                && bean.isThreadAllocatedMemorySupported()
+                        ? bean
+                        : null;
+        Assumptions.assumeTrue(threadMXBean != null, "the JVM does not count the bytes allocated by a thread");
+
+        final CountingPoseEstimator poseEstimator = new CountingPoseEstimator();
+        final SwerveDrive drive = new SwerveDrive(
+                new DriveIORegistry(),
+                new FakeOdometryThread(),
+                poseEstimator,
+                new FakeGyroIO(),
+                new FakeModuleIO(0.3),
+                new FakeModuleIO(-0.3),
+                new FakeModuleIO(2.8),
+                new FakeModuleIO(-2.8));
+        for (int samplesCount : new int[] {FEW_SAMPLES_PER_CYCLE, MANY_SAMPLES_PER_CYCLE}) {
+            samplesPerCycle = samplesCount;
+            for (int i = 0; i < WARM_UP_CYCLES; i++) drive.periodic(0.02, false);
+        }
+
+        final long updatesCountStart = poseEstimator.updatesCount;
+        final double bytesPerPeriodicWithFewSamples =
+                measureBytesPerPeriodic(threadMXBean, drive, FEW_SAMPLES_PER_CYCLE);
+        final double bytesPerPeriodicWithManySamples =
+                measureBytesPerPeriodic(threadMXBean, drive, MANY_SAMPLES_PER_CYCLE);
+        assertEquals(
+                (long) MEASURED_CYCLES * (FEW_SAMPLES_PER_CYCLE + MANY_SAMPLES_PER_CYCLE),
+                poseEstimator.updatesCount - updatesCountStart,
+                "all the samples must be replayed");
+        assertTrue(poseEstimator.positionsReused, "the module positions must be updated in place");
+        assertTrue(poseEstimator.distancesIncreasing, "the module positions must be updated to every sample");
+
+        final double bytesPerSample = (bytesPerPeriodicWithManySamples - bytesPerPeriodicWithFewSamples)
+                / (MANY_SAMPLES_PER_CYCLE - FEW_SAMPLES_PER_CYCLE);
+        assertTrue(
+                bytesPerSample < MAX_BYTES_PER_SAMPLE,
+                String.format(
+                        "periodic() allocated %.0f bytes with %d samples and %.0f bytes with %d samples",
+                        bytesPerPeriodicWithFewSamples,
+                        FEW_SAMPLES_PER_CYCLE,
+                        bytesPerPeriodicWithManySamples,
+                        MANY_SAMPLES_PER_CYCLE));
+    }
+
+    private double measureBytesPerPeriodic(
+            com.sun.management.ThreadMXBean threadMXBean, SwerveDrive drive, int samplesCount) {
+        samplesPerCycle = samplesCount;
+        final long allocatedBytesStart = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_CYCLES; i++) drive.periodic(0.02, false);
+        return (double) (threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBytesStart) / MEASURED_CYCLES;
+    }
+}
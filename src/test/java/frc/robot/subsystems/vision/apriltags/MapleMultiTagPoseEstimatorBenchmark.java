@@ -0,0 +1,146 @@
+package frc.robot.subsystems.vision.apriltags;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.*;
+import frc.robot.constants.VisionConstants;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.DoubleFunction;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.photonvision.targeting.MultiTargetPNPResult;
+import org.photonvision.targeting.PNPResult;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Times the vision solver with the cameras solved on the calling thread, and on worker threads.
+ *
+ * <p>{@link VisionConstants#VISION_SOLVER_THREADS} should only be enabled if the worker threads are faster with the
+ * cameras of the robot, on the roboRIO. The timings are printed, and the results of all the modes must be the same.
+ *
+ * <p>Excluded from the default test task, run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class MapleMultiTagPoseEstimatorBenchmark {
+    private static final int WARM_UP_CYCLES = 1_000, MEASURED_CYCLES = 1_000;
+    private static final int[] SOLVER_THREADS_COUNTS = {0, 2, 4};
+    private static final Pose3d ROBOT_POSE = new Pose3d(new Pose2d(4, 3, Rotation2d.fromDegrees(20)));
+    private static final DoubleFunction<Optional<Pose2d>> POSE_HISTORY =
+            timeStamp -> Optional.of(ROBOT_POSE.toPose2d());
+
+    private static final VisionResultsFilter ACCEPT_ALL = new VisionResultsFilter() {
+        @Override
+        public String getFilterImplementationName() {
+            return "Accept All";
+        }
+
+        @Override
+        public boolean isResultValid(Pose3d robotPoseEstimation) {
+            return true;
+        }
+    };
+
+    @Test
+    void fiveCameras() {
+        benchmark(5);
+    }
+
+    @Test
+    void sixteenCameras() {
+        benchmark(16);
+    }
+
+    private static void benchmark(int camerasCount) {
+        final AprilTagFieldLayout fieldLayout = VisionConstants.fieldLayout;
+        final Random random = new Random(5516);
+        final List<PhotonCameraProperties> camerasProperties = new ArrayList<>();
+        for (int i = 0; i < camerasCount; i++)
+            camerasProperties.add(new PhotonCameraProperties(
+                    "camera" + i,
+                    30,
+                    30,
+                    5,
+                    Rotation2d.fromDegrees(75),
+                    0.3,
+                    0.1,
+                    1280,
+                    800,
+                    new Transform3d(
+                            new Translation3d(random.nextDouble(-0.3, 0.3), random.nextDouble(-0.3, 0.3), 0.5),
+                            new Rotation3d(0, Math.toRadians(-20), 2 * Math.PI * i / camerasCount))));
+        final AprilTagVisionIO.VisionInputs inputs = createInputs(fieldLayout, camerasProperties);
+
+        RobotPoseEstimationSnapshot sequentialResult = null;
+        for (int solverThreadsCount : SOLVER_THREADS_COUNTS) {
+            final MapleMultiTagPoseEstimator estimator =
+                    new MapleMultiTagPoseEstimator(fieldLayout, ACCEPT_ALL, camerasProperties, solverThreadsCount);
+            for (int i = 0; i < WARM_UP_CYCLES; i++)
+                estimator.estimateRobotPose(inputs, ROBOT_POSE.toPose2d(), POSE_HISTORY);
+
+            final long t0 = System.nanoTime();
+            Optional<MapleMultiTagPoseEstimator.RobotPoseEstimationResult> result = Optional.empty();
+            for (int i = 0; i < MEASURED_CYCLES; i++)
+                result = estimator.estimateRobotPose(inputs, ROBOT_POSE.toPose2d(), POSE_HISTORY);
+            final double microsecondsPerCycle = (System.nanoTime() - t0) / 1000.0 / MEASURED_CYCLES;
+            System.out.printf(
+                    "%d cameras, %d solver threads: %.1f us per cycle%n",
+                    camerasCount, solverThreadsCount, microsecondsPerCycle);
+
+            assertTrue(result.isPresent());
+            final RobotPoseEstimationSnapshot snapshot = new RobotPoseEstimationSnapshot(result.get());
+            if (sequentialResult == null) sequentialResult = snapshot;
+            else assertEquals(sequentialResult, snapshot, "the results must not depend on the solver threads");
+        }
+    }
+
+    /* the frames of every camera see five tags, the odd frames also have a multi-tag solution */
+    private static AprilTagVisionIO.VisionInputs createInputs(
+            AprilTagFieldLayout fieldLayout, List<PhotonCameraProperties> camerasProperties) {
+        final List<AprilTag> tags = fieldLayout.getTags();
+        final List<TargetCorner> corners =
+                List.of(new TargetCorner(0, 0), new TargetCorner(1, 0), new TargetCorner(1, 1), new TargetCorner(0, 1));
+        final AprilTagVisionIO.VisionInputs inputs = new AprilTagVisionIO.VisionInputs(camerasProperties.size());
+        for (int i = 0; i < camerasProperties.size(); i++) {
+            final Pose3d cameraPose = ROBOT_POSE.transformBy(camerasProperties.get(i).robotToCamera);
+            final List<PhotonPipelineResult> pipelineResults = new ArrayList<>();
+            for (int j = 0; j < AprilTagVisionIO.VisionInputs.MAX_OBSERVATIONS_PER_CAMERA; j++) {
+                final List<PhotonTrackedTarget> targets = new ArrayList<>();
+                final List<Integer> fiducialIDs = new ArrayList<>();
+                for (int k = 0; k < AprilTagVisionIO.CameraInputs.MAX_TARGET_PER_CAMERA; k++) {
+                    final AprilTag tag = tags.get((i + k) % tags.size());
+                    final Transform3d cameraToTarget = new Transform3d(cameraPose, tag.pose);
+                    targets.add(new PhotonTrackedTarget(
+                            0, 0, 1, 0, tag.ID, cameraToTarget, cameraToTarget, 0.1, corners, corners));
+                    fiducialIDs.add(tag.ID);
+                }
+                final MultiTargetPNPResult multiTagResult = j % 2 == 0
+                        ? new MultiTargetPNPResult()
+                        : new MultiTargetPNPResult(
+                                new PNPResult(new Transform3d(new Pose3d(), cameraPose), 0.1), fiducialIDs);
+                final PhotonPipelineResult pipelineResult = new PhotonPipelineResult(30, targets, multiTagResult);
+                pipelineResult.setTimestampSeconds(1 + j * 0.02);
+                pipelineResults.add(pipelineResult);
+            }
+            inputs.setCameraObservations(i, true, pipelineResults);
+        }
+        return inputs;
+    }
+
+    private record RobotPoseEstimationSnapshot(
+            Pose2d pose, double xStandardDeviation, double yStandardDeviation, double thetaStandardDeviation) {
+        RobotPoseEstimationSnapshot(MapleMultiTagPoseEstimator.RobotPoseEstimationResult result) {
+            this(
+                    result.pointEstimation,
+                    result.translationXStandardDeviationMeters,
+                    result.translationYStandardDeviationMeters,
+                    result.rotationalStandardDeviationRadians);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package frc.robot.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+class DoubleFrameRingBufferTest {
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new DoubleFrameRingBuffer(2, 5).capacity());
+        assertEquals(8, new DoubleFrameRingBuffer(2, 8).capacity());
+        assertEquals(1, new DoubleFrameRingBuffer(2, 1).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new DoubleFrameRingBuffer(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new DoubleFrameRingBuffer(2, 0));
+    }
+
+    @Test
+    void fullBufferDropsWholeFrames() {
+        final DoubleFrameRingBuffer buffer = new DoubleFrameRingBuffer(2, 4);
+        for (int i = 0; i < 4; i++) assertTrue(buffer.offer(new double[] {i, -i}));
+        assertFalse(buffer.offer(new double[] {100, -100}));
+        assertFalse(buffer.offer(new double[] {101, -101}));
+        assertEquals(2, buffer.getDroppedFramesCount());
+        assertEquals(4, buffer.size());
+
+        final double[][] destinations = new double[2][8];
+        assertEquals(4, buffer.drainTo(destinations, 8));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, destinations[0][i]);
+            assertEquals(-i, destinations[1][i]);
+        }
+
+        /* the slots are handed back once drained */
+        assertTrue(buffer.offer(new double[] {4, -4}));
+        assertEquals(2, buffer.getDroppedFramesCount());
+    }
+
+    @Test
+    void framesStayInOrderAcrossWrapAround() {
+        final DoubleFrameRingBuffer buffer = new DoubleFrameRingBuffer(3, 4);
+        final double[][] destinations = new double[3][4];
+        int nextOffered = 0, nextExpected = 0;
+        /* drains in varying batch sizes, so that the reads start at every slot and wrap in the middle of a batch */
+        for (int round = 0; round < 20; round++) {
+            final int offered = 1 + round % 4;
+            for (int i = 0; i < offered; i++, nextOffered++)
+                assertTrue(buffer.offer(new double[] {nextOffered, nextOffered * 2, nextOffered * 3}));
+
+            final int drained = buffer.drainTo(destinations, 4);
+            assertEquals(offered, drained);
+            for (int i = 0; i < drained; i++, nextExpected++) {
+                assertEquals(nextExpected, destinations[0][i]);
+                assertEquals(nextExpected * 2, destinations[1][i]);
+                assertEquals(nextExpected * 3, destinations[2][i]);
+            }
+        }
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getDroppedFramesCount());
+    }
+
+    @Test
+    void drainIsLimitedByMaxCountAndDestinationLength() {
+        final DoubleFrameRingBuffer buffer = new DoubleFrameRingBuffer(1, 8);
+        for (int i = 0; i < 6; i++) buffer.offer(new double[] {i});
+
+        assertEquals(2, buffer.drainTo(new double[][] {new double[8]}, 2));
+        final double[][] shortDestination = {new double[3]};
+        assertEquals(3, buffer.drainTo(shortDestination, 8));
+        assertArrayEquals(new double[] {2, 3, 4}, shortDestination[0]);
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    void offerAndDrainDoNotAllocate() {
+        final com.sun.management.ThreadMXBean threadMXBean =
+                ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                                && bean.isThreadAllocatedMemorySupported()
+                        ? bean
+                        : null;
+        Assumptions.assumeTrue(threadMXBean != null, "the JVM does not count the bytes allocated by a thread");
+
+        final int framesPerCycle = 5, warmUpCycles = 20_000, measuredCycles = 20_000;
+        final DoubleFrameRingBuffer buffer = new DoubleFrameRingBuffer(3, 16);
+        final double[] frame = new double[3];
+        final double[][] destinations = new double[3][16];
+        for (int i = 0; i < warmUpCycles; i++) offerAndDrain(buffer, frame, destinations, framesPerCycle);
+
+        final long allocatedBytesStart = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < measuredCycles; i++) offerAndDrain(buffer, frame, destinations, framesPerCycle);
+        final long allocatedBytes = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBytesStart;
+
+        /* less than a byte per frame, only the allocations of the measurement itself are tolerated */
+        final long framesCount = (long) measuredCycles * framesPerCycle;
+        assertTrue(
+                allocatedBytes < framesCount,
+                "offering and draining " + framesCount + " frames allocated " + allocatedBytes + " bytes");
+        assertEquals(0, buffer.getDroppedFramesCount());
+    }
+
+    private static void offerAndDrain(
+            DoubleFrameRingBuffer buffer, double[] frame, double[][] destinations, int framesCount) {
+        for (int i = 0; i < framesCount; i++) {
+            frame[0] = i;
+            frame[1] = i * 2;
+            frame[2] = i * 3;
+            buffer.offer(frame);
+        }
+        assertEquals(framesCount, buffer.drainTo(destinations, 16));
+    }
+
+    @Test
+    void concurrentProducerAndConsumerKeepFramesAligned() throws InterruptedException {
+        final int framesCount = 200_000;
+        final DoubleFrameRingBuffer buffer = new DoubleFrameRingBuffer(2, 16);
+        final Thread producer = new Thread(() -> {
+            final double[] frame = new double[2];
+            for (int i = 0; i < framesCount; i++) {
+                frame[0] = i;
+                frame[1] = -i;
+                buffer.offer(frame);
+            }
+        });
+        producer.start();
+
+        final double[][] destinations = new double[2][16];
+        long receivedCount = 0;
+        double previousValue = -1;
+        while (producer.isAlive() || buffer.size() > 0) {
+            final int drained = buffer.drainTo(destinations, 16);
+            for (int i = 0; i < drained; i++) {
+                assertTrue(destinations[0][i] > previousValue, "frames must arrive in order");
+                assertEquals(-destinations[0][i], destinations[1][i], "fields of a frame must stay together");
+                previousValue = destinations[0][i];
+            }
+            receivedCount += drained;
+        }
+        producer.join();
+
+        assertEquals(framesCount, receivedCount + buffer.getDroppedFramesCount());
+    }
+}